@@ -0,0 +1,89 @@
+package com.voodoodyne.trivet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call overhead of the Invoker strategies for methods of varying arity.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvokerBenchmark {
+
+	public interface Target {
+		int zero();
+		String one(String s);
+		int five(int a, int b, String c, Object d, long e);
+	}
+
+	public static class TargetImpl implements Target {
+		@Override
+		public int zero() {
+			return 0;
+		}
+
+		@Override
+		public String one(final String s) {
+			return s;
+		}
+
+		@Override
+		public int five(final int a, final int b, final String c, final Object d, final long e) {
+			return a + b;
+		}
+	}
+
+	@Param({"reflective", "methodHandle"})
+	public String strategy;
+
+	private final Target target = new TargetImpl();
+
+	private final Object[] oneArgs = {"foo"};
+	private final Object[] fiveArgs = {1, 2, "three", "four", 5L};
+
+	private Invoker zero;
+	private Invoker one;
+	private Invoker five;
+
+	@Setup
+	public void setup() throws Exception {
+		zero = invoker(Target.class.getMethod("zero"));
+		one = invoker(Target.class.getMethod("one", String.class));
+		five = invoker(Target.class.getMethod("five", int.class, int.class, String.class, Object.class, long.class));
+	}
+
+	private Invoker invoker(final Method method) throws IllegalAccessException {
+		return strategy.equals("reflective") ? Invoker.reflective(method) : Invoker.methodHandle(method);
+	}
+
+	@Benchmark
+	public Object zeroArgs() throws Throwable {
+		return zero.invoke(target, null);
+	}
+
+	@Benchmark
+	public Object oneArg() throws Throwable {
+		return one.invoke(target, oneArgs);
+	}
+
+	@Benchmark
+	public Object fiveArgs() throws Throwable {
+		return five.invoke(target, fiveArgs);
+	}
+}
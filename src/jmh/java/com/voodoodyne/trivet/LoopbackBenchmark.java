@@ -0,0 +1,73 @@
+package com.voodoodyne.trivet;
+
+import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
+import org.eclipse.jetty.ee10.servlet.ServletHolder;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole call path: client proxy, JavaHttpEndpoint, embedded Jetty, TrivetServlet, and back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// The test classpath logs trivet at debug, which would swamp everything else
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.log.com.voodoodyne=warn")
+public class LoopbackBenchmark {
+
+	@Param({"java", "binary"})
+	public String codecName;
+
+	@Param({"0", "10", "1000"})
+	public int items;
+
+	private Server server;
+	private Payloads.Catalog client;
+	private List<Payloads.Item> payload;
+
+	@Setup
+	public void setup() throws Exception {
+		server = new Server(0);
+
+		final ServletContextHandler sch = new ServletContextHandler("/");
+		final TrivetServer trivetServer = new TrivetServer(iface -> new Payloads.CatalogImpl());
+		trivetServer.addCodec(new BinaryCodec());
+		sch.addServlet(new ServletHolder(new TrivetServlet(trivetServer)), "/catalog");
+		server.setHandler(sch);
+		server.start();
+
+		final int port = ((ServerConnector)server.getConnectors()[0]).getLocalPort();
+		final ClientFactory factory = new ClientFactory("http://localhost:" + port + "/catalog");
+		factory.setCodec(Payloads.codec(codecName));
+		client = factory.create(Payloads.Catalog.class);
+
+		payload = Payloads.items(items);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		server.stop();
+	}
+
+	@Benchmark
+	public List<Payloads.Item> call() {
+		return client.echo(payload);
+	}
+}
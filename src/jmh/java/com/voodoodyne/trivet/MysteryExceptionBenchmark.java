@@ -0,0 +1,57 @@
+package com.voodoodyne.trivet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading responses containing exceptions, with ExceptionalObjectInputStream. The unknown case uses
+ * the same checked-in .ser file as MysteryExceptionTest, whose exception class doesn't exist.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MysteryExceptionBenchmark {
+
+	private byte[] unknownException;
+	private byte[] knownException;
+
+	@Setup
+	public void setup() throws Exception {
+		try (final InputStream in = getClass().getResourceAsStream("/hidden-exception-response.ser")) {
+			unknownException = in.readAllBytes();
+		}
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(new Response(null, new IllegalStateException("I am illegal state", new IllegalArgumentException("I am illegal argument"))));
+		}
+		knownException = bytes.toByteArray();
+	}
+
+	@Benchmark
+	public Object unknownException() throws Exception {
+		return new ExceptionalObjectInputStream(new ByteArrayInputStream(unknownException)).readObject();
+	}
+
+	@Benchmark
+	public Object knownException() throws Exception {
+		return new ExceptionalObjectInputStream(new ByteArrayInputStream(knownException)).readObject();
+	}
+}
@@ -0,0 +1,64 @@
+package com.voodoodyne.trivet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Optional strip/restore paths, for methods with and without Optionals.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OptionalHackBenchmark {
+
+	private Method maybe;
+	private Request withOptionals;
+	private Request strippedWithOptionals;
+	private Request withoutOptionals;
+	private Response response;
+
+	@Setup
+	public void setup() throws Exception {
+		maybe = Payloads.Catalog.class.getMethod("maybe", Optional.class);
+		withOptionals = new Request(new MethodDef(maybe), new Object[] { Optional.of("Bob") });
+		strippedWithOptionals = OptionalHack.strip(withOptionals);
+		withoutOptionals = new Request(new MethodDef(Payloads.Catalog.class.getMethod("echo", List.class)), new Object[] { List.of() });
+		response = new Response(Optional.of("Bob"), null);
+	}
+
+	@Benchmark
+	public Request stripRequest() {
+		return OptionalHack.strip(withOptionals);
+	}
+
+	@Benchmark
+	public Request restoreRequest() {
+		return OptionalHack.restore(strippedWithOptionals);
+	}
+
+	@Benchmark
+	public Request stripRequestWithoutOptionals() {
+		return OptionalHack.strip(withoutOptionals);
+	}
+
+	@Benchmark
+	public Response stripResponse() {
+		return OptionalHack.strip(response, maybe);
+	}
+}
@@ -0,0 +1,55 @@
+package com.voodoodyne.trivet;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Shared fixtures for the benchmarks; a service which echoes lists of records of varying size.
+ */
+public final class Payloads {
+
+	public record Item(long id, String name, double price, List<String> tags) implements Serializable {}
+
+	public interface Catalog {
+		List<Item> echo(List<Item> items);
+		Optional<String> maybe(Optional<String> name);
+	}
+
+	@Remote
+	public static class CatalogImpl implements Catalog {
+		@Override
+		public List<Item> echo(final List<Item> items) {
+			return items;
+		}
+
+		@Override
+		public Optional<String> maybe(final Optional<String> name) {
+			return name;
+		}
+	}
+
+	private Payloads() {}
+
+	/** A list of distinct records, roughly 100 bytes each when serialized */
+	public static List<Item> items(final int count) {
+		final List<Item> items = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+			items.add(new Item(i, "Item number " + i, i * 1.5, List.of("tag" + (i % 10), "common")));
+
+		return items;
+	}
+
+	public static Codec codec(final String name) {
+		return switch (name) {
+			case "java" -> new JavaSerializationCodec();
+			case "binary" -> new BinaryCodec();
+			default -> throw new IllegalArgumentException(name);
+		};
+	}
+
+	public static Request echoRequest(final int count) throws NoSuchMethodException {
+		return new Request(new MethodDef(Catalog.class.getMethod("echo", List.class)), new Object[] { items(count) });
+	}
+}
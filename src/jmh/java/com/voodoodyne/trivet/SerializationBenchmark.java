@@ -0,0 +1,81 @@
+package com.voodoodyne.trivet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding a request the way the client does, and decoding it the way the server does: with the filter a
+ * server uses once Catalog is registered, or with none at all.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+	@Param({"java", "binary"})
+	public String codecName;
+
+	@Param({"0", "10", "1000"})
+	public int items;
+
+	private static final Set<Class<?>> CALLED = Set.of(Payloads.Catalog.class);
+
+	private Codec codec;
+	private Request request;
+	private byte[] encoded;
+	private final Buffers.SizeHint hint = new Buffers.SizeHint();
+	private final RequestFilter filter = new RequestFilter();
+
+	@Setup
+	public void setup() throws Exception {
+		codec = Payloads.codec(codecName);
+		request = Payloads.echoRequest(items);
+		encoded = serializeRequest();
+		filter.add(Payloads.Catalog.class);
+	}
+
+	/** Same as Client.serialize(): into a pooled buffer sized by recent requests, then copied out */
+	@Benchmark
+	public byte[] serializeRequest() throws Exception {
+		final Buffers.Output buffer = new Buffers.Output(hint);
+		try {
+			codec.write(request, buffer);
+			hint.record(buffer.size());
+
+			return buffer.toByteArray();
+		} finally {
+			buffer.release();
+		}
+	}
+
+	/** Same as TrivetServer after register(): filtered while decoding, then checked against the interface called */
+	@Benchmark
+	public Object deserializeRequest() throws Exception {
+		final RequestFilter.Message message = filter.forMessage();
+		final Object decoded = codec.readRequest(new ByteArrayInputStream(encoded), message);
+		message.verify(CALLED);
+		return decoded;
+	}
+
+	/** Same as a TrivetServer with nothing registered, which only applies the JVM-wide filter */
+	@Benchmark
+	public Object deserializeRequestUnfiltered() throws Exception {
+		return codec.readRequest(new ByteArrayInputStream(encoded), null);
+	}
+}
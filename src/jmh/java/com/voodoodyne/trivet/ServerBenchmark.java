@@ -0,0 +1,57 @@
+package com.voodoodyne.trivet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TrivetServer.execute() over in-memory streams: decode, dispatch, invoke, encode. No HTTP.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+// The test classpath logs trivet at debug, which would swamp everything else
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.log.com.voodoodyne=warn")
+public class ServerBenchmark {
+
+	@Param({"java", "binary"})
+	public String codecName;
+
+	@Param({"0", "10", "1000"})
+	public int items;
+
+	private TrivetServer server;
+	private Codec codec;
+	private byte[] requestBytes;
+
+	@Setup
+	public void setup() throws Exception {
+		server = new TrivetServer(iface -> new Payloads.CatalogImpl());
+		codec = Payloads.codec(codecName);
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		codec.write(Payloads.echoRequest(items), out);
+		requestBytes = out.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] execute() throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		server.execute(codec, new ByteArrayInputStream(requestBytes), out);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,139 @@
+package com.voodoodyne.trivet;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * <p>Groups calls explicitly so they can be sent to the server in a single round trip. Get one
+ * from {@code ClientFactory.batch()}.</p>
+ *
+ * <pre>
+ * final Batch&lt;Hello&gt; batch = factory.batch(Hello.class);
+ * final CompletableFuture&lt;String&gt; bob = batch.add(hello -&gt; hello.hi("Bob"));
+ * final CompletableFuture&lt;String&gt; fred = batch.add(hello -&gt; hello.hi("Fred"));
+ * batch.send();
+ * </pre>
+ *
+ * <p>Each future completes with its own result, or exceptionally with a RemoteException. A batch
+ * can be reused after sending. Not thread-safe.</p>
+ */
+public class Batch<T> {
+
+	private final Client<T> client;
+
+	/** Calls made on this don't go anywhere; they just record the method and args */
+	private final T recorder;
+
+	private Method recordedMethod;
+	private Object[] recordedArgs;
+
+	private List<CallDescriptor> calls = new ArrayList<>();
+	private List<Request> requests = new ArrayList<>();
+	private List<CompletableFuture<Object>> results = new ArrayList<>();
+
+	/** */
+	@SuppressWarnings("unchecked")
+	Batch(final Client<T> client) {
+		this.client = client;
+
+		final Class<T> iface = client.iface();
+		this.recorder = (T) Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[] { iface }, (proxy, method, args) -> {
+			if (method.getDeclaringClass() == Object.class)
+				return method.invoke(this, args);
+
+			recordedMethod = method;
+			recordedArgs = args;
+
+			return defaultValue(method.getReturnType());
+		});
+	}
+
+	/**
+	 * Add a call to the batch. The function should call exactly one method on the interface it is given.
+	 * If the method returns a future, the returned future completes with an already-completed future.
+	 * @return a future which completes after the batch is sent
+	 */
+	@SuppressWarnings("unchecked")
+	public <R> CompletableFuture<R> add(final Function<T, R> call) {
+		recordedMethod = null;
+		call.apply(recorder);
+
+		if (recordedMethod == null)
+			throw new IllegalArgumentException("The function must call a method on the interface");
+
+		final CallDescriptor descriptor = client.descriptor(recordedMethod);
+		if (descriptor.isStreaming())
+			throw new IllegalArgumentException("Methods with InputStream parameters or results can't be batched");
+		final CompletableFuture<Object> result = new CompletableFuture<>();
+
+		calls.add(descriptor);
+		requests.add(descriptor.request(recordedArgs, client.isCompactRequests()));
+		results.add(result);
+
+		return (CompletableFuture<R>) (descriptor.isFutureReturn() ? result.thenApply(CompletableFuture::completedFuture) : result);
+	}
+
+	/** @return the number of calls waiting to be sent */
+	public int size() {
+		return requests.size();
+	}
+
+	/**
+	 * Send all the calls added so far in a single round trip, and start a new batch.
+	 * @return a future which completes when all the futures returned by add() have completed
+	 */
+	public CompletableFuture<Void> send() {
+		final List<CallDescriptor> sentCalls = calls;
+		final Request[] sentRequests = requests.toArray(new Request[0]);
+		final List<CompletableFuture<Object>> sentResults = results;
+
+		calls = new ArrayList<>();
+		requests = new ArrayList<>();
+		results = new ArrayList<>();
+
+		if (sentRequests.length == 0)
+			return CompletableFuture.completedFuture(null);
+
+		final List<CompletableFuture<Response>> responses;
+		try {
+			responses = client.postBatch(sentRequests);
+		} catch (final RuntimeException ex) {
+			sentResults.forEach(result -> result.completeExceptionally(ex));
+			return CompletableFuture.completedFuture(null);
+		}
+
+		for (int i = 0; i < sentRequests.length; i++) {
+			final CompletableFuture<Object> result = sentResults.get(i);
+			final CallDescriptor call = sentCalls.get(i);
+			final Request request = sentRequests[i];
+
+			responses.get(i)
+				.thenCompose(response -> client.complete(call, request, response))
+				.thenApply(client::result)
+				.whenComplete((value, thrown) -> {
+					if (thrown != null) {
+						result.completeExceptionally(Futures.unwrap(thrown));
+					} else {
+						result.complete(value);
+					}
+				});
+		}
+
+		return CompletableFuture.allOf(sentResults.toArray(new CompletableFuture<?>[0])).handle((ignored, ex) -> null);
+	}
+
+	@Override
+	public String toString() {
+		return "Batch(" + client + ", " + requests.size() + " calls)";
+	}
+
+	/** The recorder has to return something, and null won't do for primitives */
+	private static Object defaultValue(final Class<?> type) {
+		return type.isPrimitive() && type != void.class ? Array.get(Array.newInstance(type, 1), 0) : null;
+	}
+}
@@ -0,0 +1,19 @@
+package com.voodoodyne.trivet;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Several requests posted to the servlet in a single round trip. The server answers with a
+ * BatchResponse containing one Response per Request, in the same order.
+ *
+ * @param requests the individual requests, which may be compact
+ */
+public record BatchRequest(
+		Request[] requests
+) implements Serializable {
+	@Override
+	public String toString() {
+		return "BatchRequest" + Arrays.toString(requests);
+	}
+}
@@ -0,0 +1,18 @@
+package com.voodoodyne.trivet;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The answer to a BatchRequest.
+ *
+ * @param responses one for each request in the batch, in the same order
+ */
+public record BatchResponse(
+		Response[] responses
+) implements Serializable {
+	@Override
+	public String toString() {
+		return "BatchResponse" + Arrays.toString(responses);
+	}
+}
@@ -0,0 +1,171 @@
+package com.voodoodyne.trivet;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Collects requests made close together in time and sends them as a single batch. A batch goes out
+ * when it is full or when the delay (measured from the first request in the batch) has elapsed,
+ * whichever comes first. The batch is sent under the earliest of its members' deadlines, and each
+ * request's timeout is worked out again at that point, since it may have waited a while.
+ */
+class Batcher {
+
+	/** Only fires the delayed flushes; the actual sending is asynchronous */
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "trivet-batcher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Function<Request[], List<CompletableFuture<Response>>> sender;
+	private final int maxSize;
+	private final long maxDelayNanos;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Guarded by lock */
+	private List<Request> requests = new ArrayList<>();
+	private List<CompletableFuture<Response>> futures = new ArrayList<>();
+	private List<Deadline> deadlines = new ArrayList<>();
+
+	/** Guarded by lock; lets a delayed flush notice that its batch already went out */
+	private long generation;
+
+	/**
+	 * @param sender puts a batch on the wire; returns a future for each request, in order
+	 * @param maxSize send as soon as this many requests are waiting
+	 * @param maxDelay send no later than this after the first request in a batch
+	 */
+	Batcher(final Function<Request[], List<CompletableFuture<Response>>> sender, final int maxSize, final Duration maxDelay) {
+		this.sender = sender;
+		this.maxSize = maxSize;
+		this.maxDelayNanos = maxDelay.toNanos();
+	}
+
+	/**
+	 * @param deadline the caller's deadline, or null if there is none
+	 * @return a future of the response to this request, without Optionals restored
+	 */
+	public CompletableFuture<Response> submit(final Request request, final Deadline deadline) {
+		final CompletableFuture<Response> future = new CompletableFuture<>();
+		Runnable send = null;
+
+		lock.lock();
+		try {
+			requests.add(request);
+			futures.add(future);
+			deadlines.add(deadline);
+
+			if (requests.size() >= maxSize) {
+				send = takeLocked();
+			} else if (requests.size() == 1) {
+				final long scheduledGeneration = generation;
+				SCHEDULER.schedule(() -> flush(scheduledGeneration), maxDelayNanos, TimeUnit.NANOSECONDS);
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		// Don't hold the lock while talking to the endpoint, which might block
+		if (send != null)
+			send.run();
+
+		return future;
+	}
+
+	private void flush(final long scheduledGeneration) {
+		Runnable send = null;
+
+		lock.lock();
+		try {
+			if (generation == scheduledGeneration)
+				send = takeLocked();
+		} finally {
+			lock.unlock();
+		}
+
+		if (send != null)
+			send.run();
+	}
+
+	/**
+	 * Must be called with the lock held. Starts a new batch.
+	 * @return the action which sends the old batch and completes its futures
+	 */
+	private Runnable takeLocked() {
+		final List<Request> taken = requests;
+		final List<CompletableFuture<Response>> takenFutures = futures;
+		final List<Deadline> takenDeadlines = deadlines;
+
+		requests = new ArrayList<>();
+		futures = new ArrayList<>();
+		deadlines = new ArrayList<>();
+		generation++;
+
+		return () -> {
+			final List<Request> batch = new ArrayList<>(taken.size());
+			final List<CompletableFuture<Response>> waiting = new ArrayList<>(taken.size());
+			Deadline earliest = null;
+
+			for (int i = 0; i < taken.size(); i++) {
+				final Deadline deadline = takenDeadlines.get(i);
+				if (deadline == null) {
+					batch.add(taken.get(i));
+				} else {
+					final long remainingMillis = deadline.remainingMillis();
+					if (remainingMillis <= 0) {
+						takenFutures.get(i).completeExceptionally(new DeadlineExceededException("Deadline passed while waiting to be batched"));
+						continue;
+					}
+
+					batch.add(taken.get(i).withTimeout(remainingMillis));
+					earliest = Deadline.earliest(earliest, deadline);
+				}
+				waiting.add(takenFutures.get(i));
+			}
+
+			if (batch.isEmpty())
+				return;
+
+			final List<CompletableFuture<Response>> responses;
+			try {
+				responses = send(batch.toArray(new Request[0]), earliest);
+			} catch (final RuntimeException | Error ex) {
+				// Nobody else will complete them, and on the scheduler the exception would vanish
+				for (final CompletableFuture<Response> future : waiting)
+					future.completeExceptionally(ex);
+				return;
+			}
+
+			for (int i = 0; i < waiting.size(); i++) {
+				final CompletableFuture<Response> future = waiting.get(i);
+				responses.get(i).whenComplete((response, ex) -> {
+					if (ex != null) {
+						future.completeExceptionally(Futures.unwrap(ex));
+					} else {
+						future.complete(response);
+					}
+				});
+			}
+		};
+	}
+
+	/** In the deadline's scope, if there is one, so the endpoint can use it as a timeout */
+	@SuppressWarnings("try")
+	private List<CompletableFuture<Response>> send(final Request[] batch, final Deadline deadline) {
+		if (deadline == null)
+			return sender.apply(batch);
+
+		try (final Deadline.Scope ignored = deadline.apply()) {
+			return sender.apply(batch);
+		}
+	}
+}
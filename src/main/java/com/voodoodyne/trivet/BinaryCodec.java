@@ -0,0 +1,647 @@
+package com.voodoodyne.trivet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.RecordComponent;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * <p>A compact binary codec which is much faster than java serialization for the things RPC
+ * calls usually carry: records, primitives, Strings, enums, arrays, and the standard List/Set/Map
+ * implementations. Anything else (notably exceptions) is embedded using java serialization, so
+ * every Serializable graph still works.</p>
+ *
+ * <p>Differences from java serialization to be aware of:</p>
+ * <ul>
+ *     <li>Objects are written as trees; shared references are duplicated and cycles through
+ *     records or collections are not supported.</li>
+ *     <li>Lists come back as ArrayList, Sets as LinkedHashSet, and Maps as LinkedHashMap.
+ *     Sorted collections and other implementations go through java serialization.</li>
+ *     <li>Records must be Serializable. Like java serialization, they are matched by component
+ *     name, so adding or removing components is tolerated.</li>
+ * </ul>
+ *
+ * <p>The server doesn't understand this codec unless you add it with {@code TrivetServer.addCodec()}.
+ * Every class named in a message, including inside embedded java serialization, goes through the
+ * ObjectInputFilter (if any) just as it would with java serialization, and so do the depth, reference
+ * count, and byte count as containers and records are read. Nesting is limited to 512 levels regardless.</p>
+ */
+public class BinaryCodec implements Codec {
+
+	/** The mime type for this codec */
+	public static final String CONTENT_TYPE = "application/x-trivet-binary";
+
+	private static final byte NULL = 0;
+	private static final byte FALSE = 1;
+	private static final byte TRUE = 2;
+	private static final byte BYTE = 3;
+	private static final byte SHORT = 4;
+	private static final byte CHAR = 5;
+	private static final byte INT = 6;
+	private static final byte LONG = 7;
+	private static final byte FLOAT = 8;
+	private static final byte DOUBLE = 9;
+	private static final byte STRING = 10;
+	private static final byte BYTES = 11;
+	private static final byte ARRAY = 12;
+	private static final byte LIST = 13;
+	private static final byte SET = 14;
+	private static final byte MAP = 15;
+	private static final byte RECORD = 16;
+	private static final byte ENUM = 17;
+	private static final byte CLASS = 18;
+	private static final byte JAVA = 19;
+
+	/**
+	 * Lengths come from the other side, so containers are only presized up to this and grow as elements
+	 * actually arrive. Every element takes at least a byte, so memory stays proportional to the input.
+	 */
+	private static final int MAX_PRESIZE = 1024;
+
+	/** The JVM limits methods (and so record constructors) to 255 parameters */
+	private static final int MAX_COMPONENTS = 255;
+
+	/**
+	 * Reading recurses for each level of nesting, and a level can take as little as two bytes, so a small
+	 * malicious message could otherwise blow the stack. Java serialization has the same problem unless
+	 * the filter sets maxdepth; this holds whatever the filter says.
+	 */
+	private static final int MAX_DEPTH = 512;
+
+	private static final Map<String, Class<?>> PRIMITIVES = Map.of(
+		"boolean", boolean.class, "byte", byte.class, "short", short.class, "char", char.class,
+		"int", int.class, "long", long.class, "float", float.class, "double", double.class, "void", void.class);
+
+	/** Null if the class can't be handled as a record */
+	private static final ClassValue<RecordInfo> RECORDS = new ClassValue<>() {
+		@Override
+		protected RecordInfo computeValue(final Class<?> type) {
+			return RecordInfo.of(type);
+		}
+	};
+
+	/** Null for no filtering beyond the JVM-wide filter */
+	private final ObjectInputFilter filter;
+
+	/** */
+	public BinaryCodec() {
+		this(null);
+	}
+
+	/**
+	 * @param filter decides which classes may be deserialized, in addition to the JVM-wide filter
+	 */
+	public BinaryCodec(final ObjectInputFilter filter) {
+		this.filter = filter;
+	}
+
+	/** @return the filter, or null if there isn't one */
+	public ObjectInputFilter filter() {
+		return filter;
+	}
+
+	@Override
+	public String contentType() {
+		return CONTENT_TYPE;
+	}
+
+	@Override
+	public void write(final Object value, final OutputStream out) throws IOException {
+		final Writer writer = new Writer(new DataOutputStream(new BufferedOutputStream(out)));
+		writer.write(value);
+		writer.out.flush();
+	}
+
+	@Override
+	public Object read(final InputStream in) throws IOException, ClassNotFoundException {
+		return new Reader(in, filter, true).read();
+	}
+
+	@Override
+	public Object readRequest(final InputStream in, final ObjectInputFilter requestFilter) throws IOException, ClassNotFoundException {
+		return new Reader(in, FilteredObjectInputStream.merge(filter, requestFilter), false).read();
+	}
+
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName();
+	}
+
+	/** Collections we know how to reconstruct without changing their meaning */
+	private static boolean isPlainCollection(final Object value) {
+		if (!(value instanceof Collection<?> || value instanceof Map<?, ?>))
+			return false;
+
+		if (value instanceof SortedSet<?> || value instanceof SortedMap<?, ?>)
+			return false;
+
+		final Class<?> clazz = value.getClass();
+		if (clazz == ArrayList.class || clazz == HashMap.class || clazz == LinkedHashMap.class || clazz == HashSet.class || clazz == LinkedHashSet.class)
+			return true;
+
+		// The various immutable and wrapper implementations
+		final String name = clazz.getName();
+		return name.startsWith("java.util.ImmutableCollections$") || name.startsWith("java.util.Collections$") || name.equals("java.util.Arrays$ArrayList");
+	}
+
+	/**
+	 * State for writing one object graph. Classes are written by name the first time and by index after that.
+	 */
+	private static class Writer {
+		private final DataOutputStream out;
+		private final Map<Class<?>, Integer> classes = new IdentityHashMap<>();
+		private final Set<Class<?>> recordLayouts = new HashSet<>();
+
+		Writer(final DataOutputStream out) {
+			this.out = out;
+		}
+
+		void write(final Object value) throws IOException {
+			if (value == null) {
+				out.writeByte(NULL);
+			} else if (value instanceof String str) {
+				out.writeByte(STRING);
+				writeString(str);
+			} else if (value instanceof Integer i) {
+				out.writeByte(INT);
+				writeVarLong(zigzag(i));
+			} else if (value instanceof Long l) {
+				out.writeByte(LONG);
+				writeVarLong(zigzag(l));
+			} else if (value instanceof Boolean b) {
+				out.writeByte(b ? TRUE : FALSE);
+			} else if (value instanceof Double d) {
+				out.writeByte(DOUBLE);
+				out.writeDouble(d);
+			} else if (value instanceof Float f) {
+				out.writeByte(FLOAT);
+				out.writeFloat(f);
+			} else if (value instanceof Short s) {
+				out.writeByte(SHORT);
+				out.writeShort(s);
+			} else if (value instanceof Byte b) {
+				out.writeByte(BYTE);
+				out.writeByte(b);
+			} else if (value instanceof Character c) {
+				out.writeByte(CHAR);
+				out.writeChar(c);
+			} else if (value instanceof byte[] bytes) {
+				out.writeByte(BYTES);
+				writeVarLong(bytes.length);
+				out.write(bytes);
+			} else if (value instanceof Class<?> clazz) {
+				out.writeByte(CLASS);
+				writeClass(clazz);
+			} else if (value instanceof Enum<?> e) {
+				out.writeByte(ENUM);
+				writeClass(e.getDeclaringClass());
+				writeString(e.name());
+			} else if (value.getClass().isArray()) {
+				writeArray(value);
+			} else if (value instanceof Record) {
+				final RecordInfo info = RECORDS.get(value.getClass());
+				if (info != null) {
+					writeRecord(value, info);
+				} else {
+					writeJava(value);
+				}
+			} else if (isPlainCollection(value)) {
+				writeCollection(value);
+			} else {
+				writeJava(value);
+			}
+		}
+
+		private void writeArray(final Object array) throws IOException {
+			final int length = Array.getLength(array);
+
+			out.writeByte(ARRAY);
+			writeClass(array.getClass().getComponentType());
+			writeVarLong(length);
+
+			for (int i = 0; i < length; i++)
+				write(Array.get(array, i));
+		}
+
+		private void writeRecord(final Object record, final RecordInfo info) throws IOException {
+			out.writeByte(RECORD);
+			writeClass(record.getClass());
+
+			// The reader knows this is the first time too, so no flag is needed
+			if (recordLayouts.add(record.getClass())) {
+				writeVarLong(info.names.length);
+				for (final String name : info.names)
+					writeString(name);
+			}
+
+			for (final MethodHandle accessor : info.accessors) {
+				try {
+					write((Object)accessor.invokeExact(record));
+				} catch (final IOException | RuntimeException | Error ex) {
+					throw ex;
+				} catch (final Throwable ex) {
+					throw new IllegalStateException(ex);
+				}
+			}
+		}
+
+		private void writeCollection(final Object value) throws IOException {
+			if (value instanceof Map<?, ?> map) {
+				out.writeByte(MAP);
+				writeVarLong(map.size());
+				for (final Map.Entry<?, ?> entry : map.entrySet()) {
+					write(entry.getKey());
+					write(entry.getValue());
+				}
+			} else {
+				final Collection<?> collection = (Collection<?>)value;
+				out.writeByte(value instanceof Set<?> ? SET : LIST);
+				writeVarLong(collection.size());
+				for (final Object element : collection)
+					write(element);
+			}
+		}
+
+		private void writeJava(final Object value) throws IOException {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (final ObjectOutputStream objectStream = new ObjectOutputStream(bytes)) {
+				objectStream.writeObject(value);
+			}
+
+			out.writeByte(JAVA);
+			writeVarLong(bytes.size());
+			bytes.writeTo(out);
+		}
+
+		private void writeClass(final Class<?> clazz) throws IOException {
+			final Integer index = classes.get(clazz);
+			if (index != null) {
+				writeVarLong(index + 1);
+			} else {
+				writeVarLong(0);
+				writeString(clazz.getName());
+				classes.put(clazz, classes.size());
+			}
+		}
+
+		private void writeString(final String str) throws IOException {
+			final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+			writeVarLong(bytes.length);
+			out.write(bytes);
+		}
+
+		private void writeVarLong(long value) throws IOException {
+			while ((value & ~0x7FL) != 0) {
+				out.writeByte((int)((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			out.writeByte((int)value);
+		}
+
+		private static long zigzag(final long value) {
+			return (value << 1) ^ (value >> 63);
+		}
+	}
+
+	/**
+	 * State for reading one object graph; mirrors the Writer.
+	 */
+	private static class Reader {
+		private final CountingStreams.Input counted;
+		private final DataInputStream in;
+		private final List<Class<?>> classes = new ArrayList<>();
+		private final Map<Class<?>, int[]> recordLayouts = new HashMap<>();
+
+		/** Can be null; passed on to embedded java serialization, which adds the JVM-wide filter itself */
+		private final ObjectInputFilter filter;
+
+		/** What classes are checked against; the filter plus the JVM-wide filter. Can be null. */
+		private final ObjectInputFilter check;
+
+		/** Whether embedded java serialization makes up MysteryExceptions for missing exception classes */
+		private final boolean standIns;
+
+		/** Nesting of the value being read */
+		private int depth;
+
+		/** Values read so far; each is an object, like the references java serialization counts */
+		private long references;
+
+		Reader(final InputStream in, final ObjectInputFilter filter, final boolean standIns) {
+			this.counted = new CountingStreams.Input(in);
+			this.in = new DataInputStream(counted);
+			this.filter = filter;
+			this.check = filter != null ? FilteredObjectInputStream.withGlobal(filter) : ObjectInputFilter.Config.getSerialFilter();
+			this.standIns = standIns;
+		}
+
+		Object read() throws IOException, ClassNotFoundException {
+			if (depth == MAX_DEPTH)
+				throw new StreamCorruptedException("Values nested more than " + MAX_DEPTH + " deep");
+
+			depth++;
+			references++;
+			try {
+				return readValue();
+			} finally {
+				depth--;
+			}
+		}
+
+		private Object readValue() throws IOException, ClassNotFoundException {
+			final byte tag = in.readByte();
+			switch (tag) {
+				case NULL: return null;
+				case FALSE: return false;
+				case TRUE: return true;
+				case BYTE: return in.readByte();
+				case SHORT: return in.readShort();
+				case CHAR: return in.readChar();
+				case INT: return (int)unzigzag(readVarLong());
+				case LONG: return unzigzag(readVarLong());
+				case FLOAT: return in.readFloat();
+				case DOUBLE: return in.readDouble();
+				case STRING: return readString();
+				case BYTES: return readBytes(readLength());
+				case ARRAY: return readArray();
+				case LIST: {
+					check(null, -1);
+					final int size = readLength();
+					final List<Object> list = new ArrayList<>(Math.min(size, MAX_PRESIZE));
+					for (int i = 0; i < size; i++)
+						list.add(read());
+					return list;
+				}
+				case SET: {
+					check(null, -1);
+					final int size = readLength();
+					final Set<Object> set = new LinkedHashSet<>();
+					for (int i = 0; i < size; i++)
+						set.add(read());
+					return set;
+				}
+				case MAP: {
+					check(null, -1);
+					final int size = readLength();
+					final Map<Object, Object> map = new LinkedHashMap<>();
+					for (int i = 0; i < size; i++)
+						map.put(read(), read());
+					return map;
+				}
+				case RECORD: return readRecord();
+				case ENUM: return readEnum();
+				case CLASS: return readClass();
+				case JAVA: {
+					final ByteArrayInputStream bytes = new ByteArrayInputStream(readBytes(readLength()));
+					return new FilteredObjectInputStream(bytes, filter, standIns).readValue();
+				}
+				default: throw new StreamCorruptedException("Unknown tag " + tag);
+			}
+		}
+
+		private Object readArray() throws IOException, ClassNotFoundException {
+			final Class<?> componentType = readClass();
+			final int length = readLength();
+			check(componentType.arrayType(), length);
+
+			Object array = Array.newInstance(componentType, Math.min(length, MAX_PRESIZE));
+			for (int i = 0; i < length; i++) {
+				if (i == Array.getLength(array))
+					array = grow(array, (int)Math.min(length, 2L * i));
+
+				Array.set(array, i, read());
+			}
+
+			return array;
+		}
+
+		private static Object grow(final Object array, final int newLength) {
+			final Object grown = Array.newInstance(array.getClass().getComponentType(), newLength);
+			System.arraycopy(array, 0, grown, 0, Array.getLength(array));
+			return grown;
+		}
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		private Object readEnum() throws IOException, ClassNotFoundException {
+			final Class clazz = readClass();
+			if (!clazz.isEnum())
+				throw new InvalidClassException(clazz.getName(), "not an enum");
+
+			return Enum.valueOf(clazz, readString());
+		}
+
+		private Object readRecord() throws IOException, ClassNotFoundException {
+			final Class<?> clazz = readClass();
+			final RecordInfo info = RECORDS.get(clazz);
+			if (info == null)
+				throw new InvalidClassException(clazz.getName(), "not a serializable record");
+
+			// The class was only checked the first time; like java serialization, check the limits for every object
+			check(null, -1);
+
+			int[] layout = recordLayouts.get(clazz);
+			if (layout == null) {
+				final int components = readLength();
+				if (components > MAX_COMPONENTS)
+					throw new StreamCorruptedException("Record " + clazz.getName() + " can't have " + components + " components");
+
+				layout = new int[components];
+				for (int i = 0; i < layout.length; i++)
+					layout[i] = info.indexOf(readString());
+
+				recordLayouts.put(clazz, layout);
+			}
+
+			final Object[] args = info.defaults.clone();
+			for (final int index : layout) {
+				final Object value = read();
+				if (index >= 0)
+					args[index] = value;
+			}
+
+			try {
+				return (Object)info.constructor.invokeExact(args);
+			} catch (final RuntimeException | Error ex) {
+				throw ex;
+			} catch (final Throwable ex) {
+				throw new InvalidClassException(clazz.getName(), ex.toString());
+			}
+		}
+
+		private Class<?> readClass() throws IOException, ClassNotFoundException {
+			final int index = readLength();
+			if (index > 0) {
+				if (index > classes.size())
+					throw new StreamCorruptedException("Bad class reference " + index);
+
+				return classes.get(index - 1);
+			}
+
+			final String name = readString();
+			Class<?> clazz = PRIMITIVES.get(name);
+			if (clazz == null) {
+				clazz = Class.forName(name, false, classLoader());
+				check(clazz, -1);
+			}
+
+			classes.add(clazz);
+			return clazz;
+		}
+
+		/**
+		 * Like java serialization, ask the filter about each class as it is resolved, and about the limits
+		 * (with a null class) for each container and record, so maxdepth, maxrefs, and maxbytes hold.
+		 */
+		private void check(final Class<?> clazz, final long arrayLength) throws InvalidClassException {
+			if (check == null)
+				return;
+
+			final ObjectInputFilter.Status status = check.checkInput(new FilterInfo(clazz, arrayLength, depth, references, counted.count()));
+			if (status == ObjectInputFilter.Status.REJECTED)
+				throw new InvalidClassException(clazz == null ? "limits" : clazz.getName(), "filter status: REJECTED");
+		}
+
+		private ClassLoader classLoader() {
+			final ClassLoader context = Thread.currentThread().getContextClassLoader();
+			return context != null ? context : BinaryCodec.class.getClassLoader();
+		}
+
+		private String readString() throws IOException {
+			return new String(readBytes(readLength()), StandardCharsets.UTF_8);
+		}
+
+		/** Allocates as the bytes arrive, rather than trusting the length up front */
+		private byte[] readBytes(final int length) throws IOException {
+			final byte[] bytes = in.readNBytes(length);
+			if (bytes.length < length)
+				throw new EOFException("Expected " + length + " bytes but got " + bytes.length);
+
+			return bytes;
+		}
+
+		private int readLength() throws IOException {
+			final long length = readVarLong();
+			if (length < 0 || length > Integer.MAX_VALUE)
+				throw new StreamCorruptedException("Bad length " + length);
+
+			return (int)length;
+		}
+
+		private long readVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				final byte b = in.readByte();
+				value |= (long)(b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return value;
+			}
+			throw new StreamCorruptedException("Malformed varint");
+		}
+
+		private static long unzigzag(final long value) {
+			return (value >>> 1) ^ -(value & 1);
+		}
+	}
+
+	/** What the filter gets to see */
+	private record FilterInfo(Class<?> serialClass, long arrayLength, long depth, long references, long streamBytes) implements ObjectInputFilter.FilterInfo {}
+
+	/**
+	 * How to take apart and put together a record class, computed once per class.
+	 */
+	private static class RecordInfo {
+		private static final MethodType ACCESSOR = MethodType.methodType(Object.class, Object.class);
+		private static final MethodType CONSTRUCTOR = MethodType.methodType(Object.class, Object[].class);
+
+		final String[] names;
+		final MethodHandle[] accessors;
+		final MethodHandle constructor;
+
+		/** Starting values for the constructor arguments, so missing components get zero values */
+		final Object[] defaults;
+
+		private RecordInfo(final String[] names, final MethodHandle[] accessors, final MethodHandle constructor, final Object[] defaults) {
+			this.names = names;
+			this.accessors = accessors;
+			this.constructor = constructor;
+			this.defaults = defaults;
+		}
+
+		int indexOf(final String name) {
+			for (int i = 0; i < names.length; i++)
+				if (names[i].equals(name))
+					return i;
+
+			return -1;
+		}
+
+		/** @return null if this isn't a serializable record we can get at */
+		static RecordInfo of(final Class<?> clazz) {
+			if (!clazz.isRecord() || !Serializable.class.isAssignableFrom(clazz))
+				return null;
+
+			try {
+				final MethodHandles.Lookup lookup = MethodHandles.lookup();
+				final RecordComponent[] components = clazz.getRecordComponents();
+
+				final String[] names = new String[components.length];
+				final MethodHandle[] accessors = new MethodHandle[components.length];
+				final Class<?>[] types = new Class<?>[components.length];
+				final Object[] defaults = new Object[components.length];
+
+				for (int i = 0; i < components.length; i++) {
+					names[i] = components[i].getName();
+					types[i] = components[i].getType();
+
+					final Method accessor = components[i].getAccessor();
+					accessor.setAccessible(true);
+					accessors[i] = lookup.unreflect(accessor).asType(ACCESSOR);
+
+					if (types[i].isPrimitive())
+						defaults[i] = Array.get(Array.newInstance(types[i], 1), 0);
+				}
+
+				final Constructor<?> constructor = clazz.getDeclaredConstructor(types);
+				constructor.setAccessible(true);
+				final MethodHandle constructorHandle = lookup.unreflectConstructor(constructor)
+					.asSpreader(Object[].class, components.length)
+					.asType(CONSTRUCTOR);
+
+				return new RecordInfo(names, accessors, constructorHandle, defaults);
+			} catch (final ReflectiveOperationException | RuntimeException ex) {
+				// Probably inaccessible because of modules; java serialization will have to handle it
+				return null;
+			}
+		}
+	}
+}
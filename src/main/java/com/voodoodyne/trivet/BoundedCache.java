@@ -0,0 +1,160 @@
+package com.voodoodyne.trivet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * A least-recently-used cache bounded by total weight, with an optional time to live per entry.
+ * Every operation takes a lock, but holds it only long enough to touch the map; values are never
+ * computed under the lock. Expired entries are dropped when they are looked up or evicted.
+ */
+final class BoundedCache<K, V> {
+
+	/** For entries that never expire */
+	static final long FOREVER = Long.MAX_VALUE;
+
+	private record Entry<V>(V value, long weight, long expiresAt) {
+		boolean isExpired(final long now) {
+			return expiresAt != FOREVER && now - expiresAt >= 0;
+		}
+	}
+
+	private final long maxWeight;
+	private final ToLongFunction<? super V> weigher;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** In access order, so the eldest entry is the least recently used */
+	private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/** Guarded by the lock */
+	private long weight;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+
+	/** Each entry weighs 1, so maxEntries is the limit */
+	BoundedCache(final long maxEntries) {
+		this(maxEntries, value -> 1);
+	}
+
+	/**
+	 * @param weigher must be cheap; it is called once per put. Values heavier than maxWeight are not cached.
+	 */
+	BoundedCache(final long maxWeight, final ToLongFunction<? super V> weigher) {
+		if (maxWeight < 1)
+			throw new IllegalArgumentException("maxWeight must be positive");
+
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+	}
+
+	/** @return the value, or null if there is no fresh entry for the key */
+	V get(final K key) {
+		lock.lock();
+		try {
+			final Entry<V> entry = entries.get(key);
+			if (entry == null) {
+				misses.increment();
+				return null;
+			}
+
+			if (entry.isExpired(System.nanoTime())) {
+				entries.remove(key);
+				weight -= entry.weight();
+				expirations.increment();
+				misses.increment();
+				return null;
+			}
+
+			hits.increment();
+			return entry.value();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Same as put(key, value, FOREVER) */
+	void put(final K key, final V value) {
+		put(key, value, FOREVER);
+	}
+
+	/**
+	 * Add or replace an entry, evicting the least recently used entries if the cache is over weight.
+	 * @param ttlNanos how long the entry is fresh, or FOREVER
+	 */
+	void put(final K key, final V value, final long ttlNanos) {
+		final long entryWeight = weigher.applyAsLong(value);
+		if (entryWeight > maxWeight)
+			return;
+
+		final long expiresAt = ttlNanos == FOREVER ? FOREVER : System.nanoTime() + ttlNanos;
+		final Entry<V> entry = new Entry<>(value, entryWeight, expiresAt);
+
+		lock.lock();
+		try {
+			final Entry<V> replaced = entries.put(key, entry);
+			if (replaced != null)
+				weight -= replaced.weight();
+
+			weight += entryWeight;
+
+			final Iterator<Entry<V>> eldest = entries.values().iterator();
+			while (weight > maxWeight) {
+				final Entry<V> evicted = eldest.next();
+				eldest.remove();
+				weight -= evicted.weight();
+				evictions.increment();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void remove(final K key) {
+		removeIf(key::equals);
+	}
+
+	/** Drop every entry whose key matches */
+	void removeIf(final Predicate<? super K> condition) {
+		lock.lock();
+		try {
+			final Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+			while (it.hasNext()) {
+				final Map.Entry<K, Entry<V>> next = it.next();
+				if (condition.test(next.getKey())) {
+					it.remove();
+					weight -= next.getValue().weight();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void clear() {
+		lock.lock();
+		try {
+			entries.clear();
+			weight = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	CacheStats stats() {
+		lock.lock();
+		try {
+			return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), entries.size(), weight);
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package com.voodoodyne.trivet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>A pool of byte arrays for encoding requests and responses, so that small messages don't each allocate
+ * (and grow, and copy) a buffer of their own. The pool is a fixed array of slots claimed with atomic swaps;
+ * it doesn't use ThreadLocals, which are useless when every call gets a fresh virtual thread.</p>
+ *
+ * <p>Only buffers of exactly POOLED_SIZE are pooled. Bigger ones are sized with a hint from recent messages
+ * and left to the garbage collector.</p>
+ */
+final class Buffers {
+
+	/** Big enough for the great majority of messages */
+	static final int POOLED_SIZE = 16 * 1024;
+
+	private static final int SLOTS = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+
+	/** Slots to try before giving up and allocating (or dropping) a buffer */
+	private static final int PROBES = 4;
+
+	private static final AtomicReferenceArray<byte[]> POOL = new AtomicReferenceArray<>(SLOTS);
+
+	private Buffers() {}
+
+	/** @return a buffer of POOLED_SIZE, from the pool if there is one handy */
+	static byte[] acquire() {
+		final int start = ThreadLocalRandom.current().nextInt(SLOTS);
+		for (int i = 0; i < PROBES; i++) {
+			final int slot = (start + i) % SLOTS;
+			if (POOL.get(slot) != null) {
+				final byte[] buffer = POOL.getAndSet(slot, null);
+				if (buffer != null)
+					return buffer;
+			}
+		}
+
+		return new byte[POOLED_SIZE];
+	}
+
+	/** Return a buffer to the pool; nothing may use it afterwards */
+	static void release(final byte[] buffer) {
+		if (buffer.length != POOLED_SIZE)
+			return;
+
+		final int start = ThreadLocalRandom.current().nextInt(SLOTS);
+		for (int i = 0; i < PROBES; i++) {
+			if (POOL.compareAndSet((start + i) % SLOTS, null, buffer))
+				return;
+		}
+	}
+
+	/**
+	 * The size of recent messages of one kind (say, requests to one method). Jumps up to a bigger
+	 * message immediately, and drifts down slowly. Updated without synchronization; it's only a hint.
+	 */
+	static final class SizeHint {
+		private volatile int size;
+
+		/** @return a good initial capacity for the next message */
+		int expected() {
+			final int recent = size;
+			return recent + recent / 8;
+		}
+
+		void record(final int messageSize) {
+			final int recent = size;
+			size = messageSize >= recent ? messageSize : recent - (recent - messageSize) / 8;
+		}
+	}
+
+	/**
+	 * Like ByteArrayOutputStream, but starting with a pooled buffer, and without synchronization (which
+	 * pins virtual threads). Call {@code release()} once the contents are no longer needed.
+	 */
+	static final class Output extends OutputStream {
+		private byte[] buf;
+		private int count;
+
+		/** */
+		Output() {
+			this.buf = acquire();
+		}
+
+		/** @param hint can be null */
+		Output(final SizeHint hint) {
+			final int expected = hint == null ? 0 : hint.expected();
+			this.buf = expected > POOLED_SIZE ? new byte[expected] : acquire();
+		}
+
+		@Override
+		public void write(final int b) {
+			ensureCapacity(count + 1);
+			buf[count++] = (byte)b;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			ensureCapacity(count + len);
+			System.arraycopy(b, off, buf, count, len);
+			count += len;
+		}
+
+		/** The contents are the first {@code size()} bytes */
+		byte[] buffer() {
+			return buf;
+		}
+
+		int size() {
+			return count;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buf, count);
+		}
+
+		void writeTo(final OutputStream out) throws IOException {
+			out.write(buf, 0, count);
+		}
+
+		/** Give the buffer back to the pool; don't use this afterwards */
+		void release() {
+			final byte[] released = buf;
+			buf = null;
+			if (released != null)
+				Buffers.release(released);
+		}
+
+		private void ensureCapacity(final int needed) {
+			if (needed < 0)
+				throw new OutOfMemoryError("Message too large");
+
+			if (needed <= buf.length)
+				return;
+
+			final int doubled = buf.length * 2;
+			final byte[] grown = Arrays.copyOf(buf, doubled < 0 ? Integer.MAX_VALUE - 8 : Math.max(doubled, needed));
+			Buffers.release(buf);
+			buf = grown;
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package com.voodoodyne.trivet;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Limits the number of calls in flight, with a bounded queue of waiting calls. Once the queue is full,
+ * further calls are rejected immediately with an OverloadedException. Register bulkheads with
+ * {@code TrivetServer.setBulkhead()} to keep one slow service from tying up every thread.</p>
+ *
+ * <p>A fixed bulkhead always allows the same number of calls in flight. An adaptive bulkhead adjusts the
+ * limit based on observed latency (AIMD): calls slower than the target cut the limit by 10%, at most once
+ * per target latency so that a burst of slow calls counts as one signal, and calls faster than the target
+ * while the bulkhead is busy raise it by about one per round of calls. So when the service behind it slows
+ * down, fewer calls are admitted and the rest are shed quickly rather than piling up.</p>
+ *
+ * <p>Queued calls give up when the call's {@code Deadline} passes, with a DeadlineExceededException, or
+ * after {@code setMaxWait()}, with an OverloadedException.</p>
+ */
+public class Bulkhead {
+
+	/** Multiplicative decrease when a call is too slow */
+	private static final double BACKOFF = 0.9;
+
+	/**
+	 * @param maxConcurrent the most calls allowed in flight
+	 * @param maxQueued the most calls allowed to wait for a slot; zero rejects as soon as the limit is reached
+	 */
+	public static Bulkhead fixed(final int maxConcurrent, final int maxQueued) {
+		return new Bulkhead(maxConcurrent, maxConcurrent, maxConcurrent, 0, maxQueued);
+	}
+
+	/**
+	 * @param minConcurrent the limit never drops below this
+	 * @param maxConcurrent the limit never rises above this; it also starts here
+	 * @param targetLatency calls slower than this reduce the limit
+	 * @param maxQueued the most calls allowed to wait for a slot; zero rejects as soon as the limit is reached
+	 */
+	public static Bulkhead adaptive(final int minConcurrent, final int maxConcurrent, final Duration targetLatency, final int maxQueued) {
+		return new Bulkhead(maxConcurrent, minConcurrent, maxConcurrent, targetLatency.toNanos(), maxQueued);
+	}
+
+	private final int minLimit;
+	private final int maxLimit;
+
+	/** Zero for fixed bulkheads */
+	private final long targetLatencyNanos;
+
+	private final int maxQueued;
+
+	private long maxWaitNanos = Long.MAX_VALUE;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition slotAvailable = lock.newCondition();
+
+	/** All guarded by lock. The limit is fractional so that additive increase can be spread over many calls. */
+	private double limit;
+	private int inFlight;
+	private int queued;
+
+	/** System.nanoTime() of the last decrease; slow calls within a target latency of it don't decrease again */
+	private long lastDecrease;
+
+	private final LongAdder rejected = new LongAdder();
+
+	/** */
+	private Bulkhead(final double initialLimit, final int minLimit, final int maxLimit, final long targetLatencyNanos, final int maxQueued) {
+		if (minLimit < 1 || maxLimit < minLimit || maxQueued < 0)
+			throw new IllegalArgumentException("Need 1 <= minConcurrent <= maxConcurrent and maxQueued >= 0");
+
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.targetLatencyNanos = targetLatencyNanos;
+		this.maxQueued = maxQueued;
+		this.lastDecrease = System.nanoTime() - targetLatencyNanos;
+	}
+
+	/**
+	 * Limit how long a call may wait in the queue, on top of its deadline (if any). Calls which
+	 * wait this long are rejected with an OverloadedException. By default there is no limit.
+	 */
+	public void setMaxWait(final Duration maxWait) {
+		this.maxWaitNanos = maxWait.toNanos();
+	}
+
+	/**
+	 * Take a slot, waiting in the queue if necessary. Every successful acquire() must be followed by a release().
+	 * @throws OverloadedException if the queue is full, or the call waited longer than the max wait
+	 * @throws DeadlineExceededException if the current deadline passed while waiting
+	 */
+	public void acquire() throws InterruptedException {
+		lock.lock();
+		try {
+			if (inFlight < (int)limit) {
+				inFlight++;
+				return;
+			}
+
+			if (queued >= maxQueued) {
+				rejected.increment();
+				throw new OverloadedException("Too many calls in flight (" + inFlight + ") and waiting (" + queued + ")");
+			}
+
+			final Deadline deadline = Deadline.current();
+			final long waitUntil = System.nanoTime() + maxWaitNanos;
+
+			queued++;
+			try {
+				while (inFlight >= (int)limit) {
+					final long remaining = Math.min(waitUntil - System.nanoTime(), deadline == null ? Long.MAX_VALUE : deadline.remainingNanos());
+					if (remaining <= 0) {
+						rejected.increment();
+						if (deadline != null && deadline.isExpired())
+							throw new DeadlineExceededException("Deadline passed while waiting for one of " + (int)limit + " slots");
+						throw new OverloadedException("Waited too long for one of " + (int)limit + " slots");
+					}
+
+					slotAvailable.awaitNanos(remaining);
+				}
+			} catch (final InterruptedException ex) {
+				// We might have swallowed a signal meant for someone else
+				if (inFlight < (int)limit)
+					slotAvailable.signal();
+				throw ex;
+			} finally {
+				queued--;
+			}
+
+			inFlight++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Give back a slot.
+	 * @param latency how long the call took, in nanoseconds
+	 */
+	public void release(final long latency) {
+		lock.lock();
+		try {
+			if (targetLatencyNanos > 0)
+				adapt(latency);
+
+			inFlight--;
+
+			final int free = (int)limit - inFlight;
+			if (free == 1) {
+				slotAvailable.signal();
+			} else if (free > 1) {
+				slotAvailable.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Must be called with the lock held, before inFlight is decremented */
+	private void adapt(final long latency) {
+		if (latency > targetLatencyNanos) {
+			// Calls in flight together are usually slow together; only the first of them should count
+			final long now = System.nanoTime();
+			if (now - lastDecrease >= targetLatencyNanos) {
+				limit = Math.max(minLimit, limit * BACKOFF);
+				lastDecrease = now;
+			}
+		} else if (inFlight * 2 >= (int)limit) {
+			// Only grow when the limit is actually being used, otherwise it drifts up meaninglessly
+			limit = Math.min(maxLimit, limit + 1.0 / limit);
+		}
+	}
+
+	/** @return the current limit on calls in flight */
+	public int limit() {
+		lock.lock();
+		try {
+			return (int)limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @return the number of calls currently in flight */
+	public int inFlight() {
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @return the number of calls rejected since the bulkhead was created */
+	public long rejected() {
+		return rejected.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "Bulkhead(limit=" + limit() + ", inFlight=" + inFlight() + ", rejected=" + rejected() + ")";
+	}
+}
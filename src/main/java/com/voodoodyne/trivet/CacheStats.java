@@ -0,0 +1,19 @@
+package com.voodoodyne.trivet;
+
+/**
+ * A snapshot of a cache's counters.
+ * @param hits lookups which found a fresh entry
+ * @param misses lookups which found nothing, or only an expired entry
+ * @param evictions entries removed to make room
+ * @param expirations entries removed because their time was up
+ * @param size entries currently in the cache, including expired ones which haven't been noticed yet
+ * @param weight total weight of the current entries
+ */
+public record CacheStats(long hits, long misses, long evictions, long expirations, long size, long weight) {
+
+	/** @return the fraction of lookups which were hits, or 0 if there were none */
+	public double hitRate() {
+		final long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double)hits / lookups;
+	}
+}
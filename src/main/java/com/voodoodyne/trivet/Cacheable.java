@@ -0,0 +1,24 @@
+package com.voodoodyne.trivet;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Marks an interface method whose result depends only on its arguments, for a while at least. If the
+ * client has a ResultCache (see {@code ClientFactory.setResultCache()}), successful results are cached
+ * by method and arguments, and repeat calls don't go to the server until the entry expires.
+ * Exceptions are never cached. Methods with InputStream parameters or results can't be cached.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD})
+public @interface Cacheable {
+	/** How long a result stays fresh */
+	long ttl();
+
+	TimeUnit unit() default TimeUnit.SECONDS;
+}
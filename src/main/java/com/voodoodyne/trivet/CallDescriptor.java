@@ -0,0 +1,170 @@
+package com.voodoodyne.trivet;
+
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.Optional;
+
+/**
+ * Everything the client needs to know about a proxied method, computed once so that the
+ * hot path in {@code Client.invoke()} is just serialization and I/O. Immutable except for
+ * tracking whether the server has been told about the method, for compact requests.
+ */
+class CallDescriptor {
+
+	/** What goes on the wire */
+	private final MethodDef def;
+
+	/** For compact requests */
+	private final long methodId;
+
+	/** Null if there are no Optional parameters, which is the common case */
+	private final Class<?>[] optionalParameterTypes;
+
+	/** True if the return type is Optional, or a future of Optional */
+	private final boolean optionalReturn;
+
+	/** True if the method returns a CompletableFuture or CompletionStage */
+	private final boolean futureReturn;
+
+	/** Index of the InputStream parameter, or -1 */
+	private final int streamParameter;
+
+	/** True if the method returns an InputStream */
+	private final boolean streamReturn;
+
+	/** How long results stay in the ResultCache, or -1 if the method isn't @Cacheable */
+	private final long cacheTtlNanos;
+
+	/** True if concurrent identical calls share a request */
+	private final boolean coalesced;
+
+	/** Null unless the method is @Idempotent; latency of each request, for hedging */
+	private final LatencyHistogram latency;
+
+	/** Recent request sizes, so big requests don't have to grow their buffer */
+	private final Buffers.SizeHint requestSize = new Buffers.SizeHint();
+
+	/** Methods on Object (toString() etc) are handled locally */
+	private final boolean objectMethod;
+
+	/** Set once a full request has been sent, after which compact requests are possible */
+	private volatile boolean announced;
+
+	/** */
+	CallDescriptor(final Method method) {
+		this.def = new MethodDef(method);
+		this.methodId = def.id();
+
+		final Class<?>[] parameterTypes = method.getParameterTypes();
+		this.optionalParameterTypes = OptionalHack.hasOptionals(parameterTypes) ? parameterTypes : null;
+		this.optionalReturn = Futures.resultType(method) == Optional.class;
+		this.futureReturn = Futures.isFuture(method.getReturnType());
+		this.objectMethod = method.getDeclaringClass() == Object.class;
+		this.streamParameter = Streaming.streamParameter(parameterTypes);
+		this.streamReturn = Streaming.isStream(method.getReturnType());
+
+		final Cacheable cacheable = method.getAnnotation(Cacheable.class);
+		if (cacheable != null && isStreaming())
+			throw new IllegalArgumentException("Methods with InputStream parameters or results can't be @Cacheable: " + method);
+
+		this.cacheTtlNanos = cacheable == null ? -1 : cacheable.unit().toNanos(cacheable.ttl());
+
+		this.latency = method.isAnnotationPresent(Idempotent.class) && !isStreaming() ? new LatencyHistogram() : null;
+
+		this.coalesced = method.isAnnotationPresent(Coalesce.class);
+		if (coalesced && isStreaming())
+			throw new IllegalArgumentException("Methods with InputStream parameters or results can't be @Coalesce: " + method);
+	}
+
+	public MethodDef def() {
+		return def;
+	}
+
+	public boolean isObjectMethod() {
+		return objectMethod;
+	}
+
+	public boolean isFutureReturn() {
+		return futureReturn;
+	}
+
+	/** True if the method has an InputStream parameter or result, and must be sent as a streaming request */
+	public boolean isStreaming() {
+		return streamParameter >= 0 || streamReturn;
+	}
+
+	public boolean isCacheable() {
+		return cacheTtlNanos >= 0;
+	}
+
+	/** Only meaningful if isCacheable() */
+	public long cacheTtlNanos() {
+		return cacheTtlNanos;
+	}
+
+	public boolean isCoalesced() {
+		return coalesced;
+	}
+
+	/** True if the method is @Idempotent, and can therefore be hedged */
+	public boolean isIdempotent() {
+		return latency != null;
+	}
+
+	/** Only present if isIdempotent() */
+	public LatencyHistogram latency() {
+		return latency;
+	}
+
+	public Buffers.SizeHint requestSize() {
+		return requestSize;
+	}
+
+	public boolean isStreamReturn() {
+		return streamReturn;
+	}
+
+	/** @return the InputStream argument, or null if there isn't one */
+	public InputStream stream(final Object[] args) {
+		return streamParameter >= 0 ? (InputStream)args[streamParameter] : null;
+	}
+
+	/** Make the request to put on the wire, with any Optionals stripped */
+	public Request request(final Object[] args) {
+		return request(args, false);
+	}
+
+	/**
+	 * Make the request to put on the wire, with any Optionals stripped.
+	 * Any InputStream argument is left out; it goes on the wire separately.
+	 * @param compact if true, and the server has already seen a full request for this method,
+	 *                make a compact request.
+	 */
+	public Request request(final Object[] args, final boolean compact) {
+		Object[] wireArgs = optionalParameterTypes == null ? args : OptionalHack.strip(args, optionalParameterTypes);
+
+		if (streamParameter >= 0) {
+			wireArgs = wireArgs.clone();
+			wireArgs[streamParameter] = null;
+		}
+
+		if (compact && announced) {
+			return Request.compact(methodId, wireArgs);
+		} else {
+			return new Request(def, wireArgs);
+		}
+	}
+
+	/** Note that the server has been sent the full definition of this method */
+	public void announced() {
+		announced = true;
+	}
+
+	/** Restore the Optional to the result if appropriate */
+	public Response restore(final Response response) {
+		if (!optionalReturn || response.isThrown())
+			return response;
+
+		return response.withResult(Optional.ofNullable(response.result()));
+	}
+}
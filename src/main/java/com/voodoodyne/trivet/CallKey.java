@@ -0,0 +1,24 @@
+package com.voodoodyne.trivet;
+
+import java.util.Arrays;
+
+/**
+ * Identifies a call by method and arguments, for caching and coalescing. Arguments are compared with
+ * equals(), and arrays by content.
+ */
+record CallKey(MethodDef method, Object[] args) {
+	@Override
+	public boolean equals(final Object o) {
+		return o instanceof CallKey other && method.equals(other.method) && Arrays.deepEquals(args, other.args);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * method.hashCode() + Arrays.deepHashCode(args);
+	}
+
+	@Override
+	public String toString() {
+		return "CallKey[method=" + method + ", args=" + Arrays.deepToString(args) + "]";
+	}
+}
@@ -0,0 +1,47 @@
+package com.voodoodyne.trivet;
+
+/**
+ * <p>Observes calls as they pass through the client or server, for metrics and tracing. Register one with
+ * {@code ClientFactory.setListener()} or {@code TrivetServer.setListener()}; when none is registered,
+ * nothing is timed or counted. MetricsListener is a ready-made implementation.</p>
+ *
+ * <p>Listeners are called synchronously on the calling thread, possibly from many threads at once, so
+ * they must be thread-safe and should be fast.</p>
+ */
+public interface CallListener {
+
+	/** Which end of the call is reporting */
+	enum Side { CLIENT, SERVER }
+
+	/** The stages of a call. Not every phase is reported on every side or for every kind of call. */
+	enum Phase {
+		/** Turning a Request (client) or Response (server) into bytes */
+		ENCODE,
+		/** Client only; from posting the request until the response starts to arrive */
+		TRANSPORT,
+		/** Turning bytes into a Response (client) or Request (server); on the client this includes receiving the body */
+		DECODE,
+		/** Putting Optionals back on arguments (server) or results (client) */
+		RESTORE,
+		/** Server only; checking that the service allows the method */
+		ACCESS_CHECK,
+		/** Server only; the service method itself. For methods which return futures, only until the future is returned. */
+		INVOKE
+	}
+
+	/**
+	 * A phase of a call finished.
+	 * @param nanos how long it took
+	 * @param bytes for ENCODE and DECODE, the size of the encoded data; otherwise -1. Also -1 when the data
+	 *              is streamed and the size isn't known.
+	 */
+	void phase(Side side, MethodDef method, Phase phase, long nanos, long bytes);
+
+	/**
+	 * A call finished. On the client this is measured from the proxy method being called until it returns
+	 * (or its future completes). On the server it covers restoring Optionals through invocation, but not
+	 * decoding and encoding, which are reported as phases.
+	 * @param thrown the exception the call produced, or null if it succeeded
+	 */
+	void completed(Side side, MethodDef method, long nanos, Throwable thrown);
+}
@@ -1,12 +1,23 @@
 package com.voodoodyne.trivet;
 
-import java.io.ByteArrayOutputStream;
+import com.voodoodyne.trivet.CallListener.Phase;
+import com.voodoodyne.trivet.CallListener.Side;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectOutputStream;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -37,10 +48,61 @@ public class Client<T> implements InvocationHandler {
 	private final Endpoint endpoint;
 	private final Class<T> iface;
 
-	/** */
-	Client(final Endpoint endpoint, final Class<T> iface) {
-		this.endpoint = endpoint;
+	/** Identify methods by id rather than by full definition */
+	private final boolean compactRequests;
+
+	/** Once a method has this much history, hedge after its p95 latency */
+	private static final int MIN_HEDGE_SAMPLES = 20;
+
+	/** The wire format */
+	private final Codec codec;
+
+	/** Not null if we can skip encoding entirely */
+	private final InProcessEndpoint local;
+
+	/** Write requests directly to the transport instead of buffering them */
+	private final boolean streamRequests;
+
+	/** Null unless calls are automatically batched */
+	private final Batcher batcher;
+
+	/** Null unless results of @Cacheable methods are cached */
+	private final ResultCache resultCache;
+
+	/** Identical concurrent calls to @Coalesce methods wait here for the first one */
+	private final SingleFlight<CallKey, Response> inFlight = new SingleFlight<>();
+
+	/** Deadline for every call, or 0 for none */
+	private final long timeoutNanos;
+
+	/** Delay before hedging @Idempotent calls without enough history, or -1 if we don't hedge */
+	private final long hedgeDelayNanos;
+
+	/** Runs hedged requests, or null to use the common pool */
+	private final Executor executor;
+
+	/** Null unless someone is watching */
+	private final CallListener listener;
+
+	/** Computed the first time each method is called */
+	private final ConcurrentMap<Method, CallDescriptor> descriptors = new ConcurrentHashMap<>();
+
+	/**
+	 * Takes a snapshot of the factory's settings; changing them later doesn't affect this client.
+	 */
+	Client(final ClientFactory factory, final Class<T> iface) {
+		this.endpoint = factory.endpoint();
+		this.local = endpoint instanceof InProcessEndpoint inProcess && inProcess.isByReference() ? inProcess : null;
 		this.iface = iface;
+		this.compactRequests = factory.isCompactRequests();
+		this.codec = factory.isFilterResponses() ? filtered(factory.codec(), iface) : factory.codec();
+		this.streamRequests = factory.isStreamRequests();
+		this.listener = factory.listener();
+		this.resultCache = factory.resultCache();
+		this.timeoutNanos = factory.timeout() == null ? 0 : factory.timeout().toNanos();
+		this.hedgeDelayNanos = factory.hedgeDelay() == null || local != null ? -1 : factory.hedgeDelay().toNanos();
+		this.executor = factory.executor();
+		this.batcher = factory.batchSize() > 1 ? new Batcher(this::postBatch, factory.batchSize(), factory.batchDelay()) : null;
 
 		if (!iface.isInterface()) {
 			throw new IllegalArgumentException("iface must be an interface, not a concrete class");
@@ -55,37 +117,532 @@ public class Client<T> implements InvocationHandler {
 	@Override
 	public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
 
+		final CallDescriptor call = descriptor(method);
+
 		// Don't proxy method calls on Object methods
-		if (method.getDeclaringClass() == Object.class) {
+		if (call.isObjectMethod()) {
 			return method.invoke(this, args);
 		}
 
-		final MethodDef def = new MethodDef(method);
+		if (listener == null) {
+			return dispatch(call, args);
+		}
+
+		final long start = System.nanoTime();
+		final Object result;
+		try {
+			result = dispatch(call, args);
+		} catch (final Throwable ex) {
+			listener.completed(Side.CLIENT, call.def(), System.nanoTime() - start, ex);
+			throw ex;
+		}
 
-		final Request reqWithOptionals = new Request(def, args);
-		final Request req = OptionalHack.strip(reqWithOptionals);
+		if (call.isFutureReturn()) {
+			return ((CompletableFuture<?>)result).whenComplete((value, ex) ->
+				listener.completed(Side.CLIENT, call.def(), System.nanoTime() - start, ex == null ? null : Futures.unwrap(ex)));
+		}
 
-		final byte[] reqBytes = serializeRequest(req);
+		listener.completed(Side.CLIENT, call.def(), System.nanoTime() - start, null);
+		return result;
+	}
 
-		final InputStream responseBody = endpoint.post(APPLICATION_JAVA_SERIALIZED_OBJECT, reqBytes, iface);
-		try (final ExceptionalObjectInputStream inStream = new ExceptionalObjectInputStream(responseBody)) {
-			final Response responseWithoutOptionals = (Response) inStream.readObject();
-			final Response response = OptionalHack.restore(responseWithoutOptionals, method);
+	/** Make the call, one way or another */
+	private Object dispatch(final CallDescriptor call, final Object[] args) throws Throwable {
+		if (call.isStreaming()) {
+			return result(sendStreaming(call, args));
+		}
 
-			if (response.isThrown()) {
-				throw new RemoteException(response.throwable());
-			} else {
-				return response.result();
+		if (resultCache != null && call.isCacheable()) {
+			return cached(call, args);
+		}
+
+		return invokeRemote(call, args);
+	}
+
+	/** Check the cache before going to the server, and cache whatever comes back (unless it's an exception) */
+	private Object cached(final CallDescriptor call, final Object[] args) throws Throwable {
+		final ResultCache.Cached hit = resultCache.get(call.def(), args);
+		if (hit != null) {
+			return call.isFutureReturn() ? CompletableFuture.completedFuture(hit.result()) : hit.result();
+		}
+
+		final Object result = invokeRemote(call, args);
+
+		if (call.isFutureReturn()) {
+			return ((CompletableFuture<?>)result).thenApply(value -> {
+				resultCache.put(call.def(), args, value, call.cacheTtlNanos());
+				return value;
+			});
+		}
+
+		resultCache.put(call.def(), args, result, call.cacheTtlNanos());
+		return result;
+	}
+
+	/** Make an ordinary call to the server */
+	@SuppressWarnings("try")
+	private Object invokeRemote(final CallDescriptor call, final Object[] args) throws Throwable {
+		final Deadline deadline = Deadline.earliest(Deadline.current(), timeoutNanos > 0 ? Deadline.afterNanos(timeoutNanos) : null);
+		if (deadline == null) {
+			return invokeRemote(call, args, call.request(args, compactRequests));
+		}
+
+		// Read once; if it ran out between checking and sending, 0 would go on the wire meaning no deadline at all
+		final long remainingMillis = deadline.remainingMillis();
+		if (remainingMillis <= 0) {
+			final DeadlineExceededException ex = new DeadlineExceededException("Deadline passed before calling " + call.def());
+			if (call.isFutureReturn()) {
+				return CompletableFuture.failedFuture(ex);
 			}
+			throw ex;
+		}
+
+		// In scope so the endpoint can use it as a timeout
+		try (final Deadline.Scope ignored = deadline.apply()) {
+			return invokeRemote(call, args, call.request(args, compactRequests).withTimeout(remainingMillis));
 		}
 	}
 
-	private byte[] serializeRequest(final Request req) throws IOException {
-		final ByteArrayOutputStream byteArrayStream = new ByteArrayOutputStream();
+	private Object invokeRemote(final CallDescriptor call, final Object[] args, final Request req) throws Throwable {
+		if (call.isCoalesced()) {
+			final CompletableFuture<Object> result = inFlight.execute(new CallKey(call.def(), args), () -> exchange(call, req))
+				.thenApply(this::result);
+
+			return call.isFutureReturn() ? result : Futures.await(result);
+		}
+
+		if (isHedged(call)) {
+			final CompletableFuture<Object> result = hedged(call, req).thenApply(this::result);
 
-		final ObjectOutputStream objectStream = new ObjectOutputStream(byteArrayStream);
-		objectStream.writeObject(req);
+			return call.isFutureReturn() ? result : Futures.await(result);
+		}
 
-		return byteArrayStream.toByteArray();
+		if (batcher != null) {
+			final CompletableFuture<Object> result = batcher.submit(req, Deadline.current())
+				.thenCompose(response -> complete(call, req, response))
+				.thenApply(this::result);
+
+			return call.isFutureReturn() ? result : Futures.await(result);
+		} else if (call.isFutureReturn()) {
+			return sendAsync(call, req).thenApply(this::result);
+		} else {
+			return result(send(call, req));
+		}
+	}
+
+	/**
+	 * Get the response to the request by whichever route the call would otherwise take. Synchronous
+	 * methods are sent on this thread.
+	 */
+	private CompletableFuture<Response> exchange(final CallDescriptor call, final Request req) {
+		if (isHedged(call)) {
+			return hedged(call, req);
+		} else if (batcher != null) {
+			return batcher.submit(req, Deadline.current()).thenCompose(response -> complete(call, req, response));
+		} else if (call.isFutureReturn()) {
+			return sendAsync(call, req);
+		}
+
+		try {
+			return CompletableFuture.completedFuture(send(call, req));
+		} catch (final IOException | ClassNotFoundException | RuntimeException ex) {
+			return CompletableFuture.failedFuture(ex);
+		}
+	}
+
+	private boolean isHedged(final CallDescriptor call) {
+		return hedgeDelayNanos >= 0 && call.isIdempotent() && batcher == null;
+	}
+
+	/**
+	 * Send the request, and send it again if there's no answer within the method's p95 latency.
+	 * The first response wins, even if it is an exception thrown by the service; we only give up
+	 * when every request has failed to get a response at all. The loser is cancelled. The second
+	 * request is sent on the factory's executor (if it has one), under the caller's deadline, and
+	 * goes to a different replica if the endpoint is a LoadBalancingEndpoint.
+	 */
+	@SuppressWarnings("try")
+	private CompletableFuture<Response> hedged(final CallDescriptor call, final Request req) {
+		final CompletableFuture<Response> result = new CompletableFuture<>();
+
+		// Requests which haven't failed; once this reaches zero, nothing more is sent
+		final AtomicInteger pending = new AtomicInteger(1);
+		final Set<LoadBalancingEndpoint.Replica> tried = ConcurrentHashMap.newKeySet();
+		final long start = System.nanoTime();
+		attempt(call, req, result, pending, tried);
+
+		// Measured from the original request even when the hedge wins. Recording only the winner's time
+		// would drag the p95 down, and with it the hedge delay, until nearly every call was hedged.
+		result.whenComplete((response, ex) -> {
+			if (ex == null)
+				call.latency().record(System.nanoTime() - start);
+		});
+
+		final LatencyHistogram latency = call.latency();
+		final long delay = latency.count() < MIN_HEDGE_SAMPLES ? hedgeDelayNanos : latency.percentile(95);
+
+		final Deadline deadline = Deadline.current();
+		final Executor delayed = executor != null
+			? CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS, executor)
+			: CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS);
+
+		delayed.execute(() -> {
+			final long remainingMillis = deadline == null ? 0 : deadline.remainingMillis();
+			if (result.isDone() || (deadline != null && remainingMillis <= 0))
+				return;
+
+			if (pending.getAndUpdate(n -> n == 0 ? 0 : n + 1) > 0) {
+				if (deadline == null) {
+					attempt(call, req, result, pending, tried);
+				} else {
+					try (final Deadline.Scope ignored = deadline.apply()) {
+						attempt(call, req.withTimeout(remainingMillis), result, pending, tried);
+					}
+				}
+			}
+		});
+
+		return result;
+	}
+
+	private void attempt(final CallDescriptor call, final Request req, final CompletableFuture<Response> result, final AtomicInteger pending, final Set<LoadBalancingEndpoint.Replica> tried) {
+		final CompletableFuture<Response> sent = LoadBalancingEndpoint.avoiding(tried, () -> sendAsync(call, req));
+		sent.whenComplete((response, ex) -> {
+			if (ex == null) {
+				result.complete(response);
+			} else if (pending.decrementAndGet() == 0) {
+				result.completeExceptionally(Futures.unwrap(ex));
+			}
+		});
+
+		// Whoever wins, the other attempt is no longer needed
+		result.whenComplete((response, ex) -> sent.cancel(true));
+	}
+
+	/** Unwrap the response, throwing if it was an exception */
+	Object result(final Response response) {
+		if (response.isThrown()) {
+			throw new RemoteException(response.throwable());
+		} else {
+			return response.result();
+		}
+	}
+
+	/**
+	 * Put the request on the wire and get back the response with Optionals restored. If the
+	 * server doesn't recognize a compact request, retries with the full method definition.
+	 */
+	private Response send(final CallDescriptor call, final Request req) throws IOException, ClassNotFoundException {
+		final Response responseWithoutOptionals = local != null ? local.exchange(req)
+			: listener != null ? exchangeObserved(call, req)
+			: readResponse(post(call, req));
+
+		if (isUnknown(call, req, responseWithoutOptionals)) {
+			return send(call, req.withMethod(call.def()));
+		}
+
+		return restore(call, responseWithoutOptionals);
+	}
+
+	/**
+	 * Same as {@code readResponse(post(call, req))}, reporting the phases to the listener. Streamed requests are
+	 * encoded as they are sent, so they are reported as all transport.
+	 */
+	private Response exchangeObserved(final CallDescriptor call, final Request req) throws IOException, ClassNotFoundException {
+		final long start = System.nanoTime();
+
+		if (streamRequests) {
+			final InputStream responseBody = post(call, req);
+			return readResponse(call, responseBody, phase(call, Phase.TRANSPORT, start, -1));
+		}
+
+		final byte[] reqBytes = serialize(req, call.requestSize());
+		final long encoded = phase(call, Phase.ENCODE, start, reqBytes.length);
+
+		final InputStream responseBody = endpoint.post(codec.contentType(), reqBytes, iface);
+		return readResponse(call, responseBody, phase(call, Phase.TRANSPORT, encoded, -1));
+	}
+
+	private InputStream post(final CallDescriptor call, final Request req) throws IOException {
+		return streamRequests
+			? endpoint.postStreaming(codec.contentType(), output -> codec.write(req, output), iface)
+			: endpoint.post(codec.contentType(), serialize(req, call.requestSize()), iface);
+	}
+
+	/**
+	 * For methods with an InputStream parameter or result. The parameter's bytes are written after the request,
+	 * and the result is the rest of the response body; the caller is responsible for closing it.
+	 */
+	private Response sendStreaming(final CallDescriptor call, final Object[] args) throws IOException, ClassNotFoundException {
+		final Request req = call.request(args);
+		final InputStream upload = call.stream(args);
+
+		final InputStream responseBody = endpoint.postStreaming(Streaming.contentType(codec), output -> {
+			Streaming.writeFrame(codec, req, output);
+			if (upload != null)
+				upload.transferTo(output);
+		}, iface);
+
+		final Response responseWithoutOptionals;
+		try {
+			responseWithoutOptionals = (Response) Streaming.readFrame(codec, responseBody);
+		} catch (final IOException | ClassNotFoundException | RuntimeException ex) {
+			responseBody.close();
+			throw ex;
+		}
+
+		if (call.isStreamReturn() && Streaming.STREAM_FOLLOWS.equals(responseWithoutOptionals.result())) {
+			return responseWithoutOptionals.withResult(responseBody);
+		}
+
+		responseBody.close();
+		return restore(call, responseWithoutOptionals);
+	}
+
+	/**
+	 * Same as send() but without blocking.
+	 */
+	private CompletableFuture<Response> sendAsync(final CallDescriptor call, final Request req) {
+		if (local != null) {
+			return local.exchangeAsync(req).toCompletableFuture().thenCompose(response -> complete(call, req, response));
+		}
+
+		final long start = listener != null ? System.nanoTime() : 0;
+		final byte[] reqBytes;
+		try {
+			reqBytes = serialize(req, call.requestSize());
+		} catch (final IOException ex) {
+			return CompletableFuture.failedFuture(ex);
+		}
+		final long encoded = listener != null ? phase(call, Phase.ENCODE, start, reqBytes.length) : 0;
+
+		final CompletableFuture<InputStream> posted = endpoint.postAsync(codec.contentType(), reqBytes, iface);
+		return Futures.cancelsSource(posted.thenCompose(responseBody -> {
+			final Response responseWithoutOptionals;
+			try {
+				responseWithoutOptionals = listener != null
+					? readResponse(call, responseBody, phase(call, Phase.TRANSPORT, encoded, -1))
+					: readResponse(responseBody);
+			} catch (final IOException | ClassNotFoundException ex) {
+				return CompletableFuture.failedFuture(ex);
+			}
+
+			return complete(call, req, responseWithoutOptionals);
+		}), posted);
+	}
+
+	/**
+	 * Send a batch of requests, in as few round trips as the server's batch size limit allows. Requests
+	 * which can't be encoded fail on their own, without spoiling the rest of the batch.
+	 * @return futures of the responses, in the same order as the requests, without Optionals restored
+	 */
+	List<CompletableFuture<Response>> postBatch(final Request[] requests) {
+		final List<CompletableFuture<Response>> responses = new ArrayList<>(requests.length);
+		for (int from = 0; from < requests.length; from += TrivetServer.DEFAULT_MAX_BATCH_SIZE) {
+			final Request[] chunk = Arrays.copyOfRange(requests, from, Math.min(requests.length, from + TrivetServer.DEFAULT_MAX_BATCH_SIZE));
+			responses.addAll(postChunk(chunk));
+		}
+
+		return responses;
+	}
+
+	/** Send no more requests than the server accepts in one batch */
+	private List<CompletableFuture<Response>> postChunk(final Request[] requests) {
+		final List<CompletableFuture<Response>> responses = new ArrayList<>(requests.length);
+		for (int i = 0; i < requests.length; i++)
+			responses.add(new CompletableFuture<>());
+
+		CompletableFuture<Response[]> exchanged;
+		try {
+			exchanged = exchangeBatch(requests, serializeBatch(requests));
+		} catch (final IOException ex) {
+			exchanged = exchangeEncodable(requests, responses);
+		} catch (final RuntimeException ex) {
+			exchanged = CompletableFuture.failedFuture(ex);
+		}
+
+		exchanged.whenComplete((sent, ex) -> {
+			int next = 0;
+			for (final CompletableFuture<Response> response : responses) {
+				if (response.isDone())
+					continue;	// failed to encode, and wasn't sent
+
+				if (ex != null)
+					response.completeExceptionally(Futures.unwrap(ex));
+				else
+					response.complete(sent[next++]);
+			}
+		});
+
+		return responses;
+	}
+
+	/**
+	 * The batch couldn't be encoded; find out which requests are to blame by encoding each on its own.
+	 * Those fail, and the others are sent.
+	 * @return the responses to the requests whose futures weren't failed, in order
+	 */
+	private CompletableFuture<Response[]> exchangeEncodable(final Request[] requests, final List<CompletableFuture<Response>> responses) {
+		final List<Request> encodable = new ArrayList<>(requests.length);
+		for (int i = 0; i < requests.length; i++) {
+			try {
+				serialize(requests[i], null);
+				encodable.add(requests[i]);
+			} catch (final IOException | RuntimeException ex) {
+				responses.get(i).completeExceptionally(ex);
+			}
+		}
+
+		if (encodable.isEmpty())
+			return CompletableFuture.completedFuture(new Response[0]);
+
+		try {
+			final Request[] remaining = encodable.toArray(new Request[0]);
+			return exchangeBatch(remaining, serializeBatch(remaining));
+		} catch (final IOException | RuntimeException ex) {
+			return CompletableFuture.failedFuture(ex);
+		}
+	}
+
+	/** @return the encoded batch, or null if it goes to an in-process server by reference */
+	private byte[] serializeBatch(final Request[] requests) throws IOException {
+		return local != null ? null : serialize(new BatchRequest(requests), null);
+	}
+
+	/**
+	 * @param reqBytes the encoded batch; ignored for an in-process server
+	 * @return a future of the responses, in the same order as the requests
+	 */
+	private CompletableFuture<Response[]> exchangeBatch(final Request[] requests, final byte[] reqBytes) {
+		if (local != null) {
+			return CompletableFuture.completedFuture(local.exchange(new BatchRequest(requests)).responses());
+		}
+
+		return endpoint.postAsync(codec.contentType(), reqBytes, iface)
+			.thenCompose(responseBody -> {
+				final BatchResponse batchResponse;
+				try (responseBody) {
+					batchResponse = (BatchResponse) codec.read(responseBody);
+				} catch (final IOException | ClassNotFoundException ex) {
+					return CompletableFuture.failedFuture(ex);
+				}
+
+				if (batchResponse.responses().length != requests.length) {
+					return CompletableFuture.failedFuture(new IOException("Sent " + requests.length + " requests but got " + batchResponse.responses().length + " responses"));
+				}
+
+				return CompletableFuture.completedFuture(batchResponse.responses());
+			});
+	}
+
+	/**
+	 * Finish off a response that came back from the server; restores Optionals, or if the server
+	 * didn't recognize a compact request, retries with the full method definition.
+	 */
+	CompletableFuture<Response> complete(final CallDescriptor call, final Request req, final Response responseWithoutOptionals) {
+		if (isUnknown(call, req, responseWithoutOptionals)) {
+			return sendAsync(call, req.withMethod(call.def()));
+		}
+
+		return CompletableFuture.completedFuture(restore(call, responseWithoutOptionals));
+	}
+
+	/** Put the Optionals back, timing it if anyone is listening */
+	private Response restore(final CallDescriptor call, final Response responseWithoutOptionals) {
+		if (listener == null)
+			return call.restore(responseWithoutOptionals);
+
+		final long start = System.nanoTime();
+		final Response response = call.restore(responseWithoutOptionals);
+		phase(call, Phase.RESTORE, start, -1);
+		return response;
+	}
+
+	/** Decode the response and close the stream */
+	private Response readResponse(final InputStream responseBody) throws IOException, ClassNotFoundException {
+		try (responseBody) {
+			return (Response) codec.read(responseBody);
+		}
+	}
+
+	/** Same as readResponse(), reporting the decode phase which started at {@code since} */
+	private Response readResponse(final CallDescriptor call, final InputStream responseBody, final long since) throws IOException, ClassNotFoundException {
+		final CountingStreams.Input counted = new CountingStreams.Input(responseBody);
+		final Response response = readResponse(counted);
+		phase(call, Phase.DECODE, since, counted.count());
+		return response;
+	}
+
+	/**
+	 * Tell the listener about a phase which started at {@code since}.
+	 * @return now, which is when the next phase starts
+	 */
+	private long phase(final CallDescriptor call, final Phase phase, final long since, final long bytes) {
+		final long now = System.nanoTime();
+		listener.phase(Side.CLIENT, call.def(), phase, now - since, bytes);
+		return now;
+	}
+
+	/** For explicit batches */
+	boolean isCompactRequests() {
+		return compactRequests;
+	}
+
+	Class<T> iface() {
+		return iface;
+	}
+
+	/**
+	 * Keeps track of which methods the server has seen in full.
+	 * @return true if the request was compact and the server didn't recognize it
+	 */
+	private boolean isUnknown(final CallDescriptor call, final Request req, final Response responseWithoutOptionals) {
+		if (req.isCompact()) {
+			return responseWithoutOptionals.throwable() instanceof UnknownMethodException;
+		}
+
+		if (compactRequests) {
+			call.announced();
+		}
+
+		return false;
+	}
+
+	CallDescriptor descriptor(final Method method) {
+		final CallDescriptor existing = descriptors.get(method);
+		if (existing != null)
+			return existing;
+
+		final CallDescriptor created = new CallDescriptor(method);
+		final CallDescriptor raced = descriptors.putIfAbsent(method, created);
+		return raced != null ? raced : created;
+	}
+
+	/** The codec, restricted to what the interface's methods can return, if it's one of the built-in codecs */
+	private static Codec filtered(final Codec codec, final Class<?> iface) {
+		if (codec.getClass() == JavaSerializationCodec.class && ((JavaSerializationCodec)codec).filter() == null)
+			return new JavaSerializationCodec(SignatureFilter.forResponses(iface));
+
+		if (codec.getClass() == BinaryCodec.class && ((BinaryCodec)codec).filter() == null)
+			return new BinaryCodec(SignatureFilter.forResponses(iface));
+
+		return codec;
+	}
+
+	/**
+	 * Encode into a pooled buffer, then copy out exactly the bytes needed.
+	 * @param hint is the size of recent requests like this one; can be null
+	 */
+	private byte[] serialize(final Object wireRequest, final Buffers.SizeHint hint) throws IOException {
+		final Buffers.Output buffer = new Buffers.Output(hint);
+		try {
+			codec.write(wireRequest, buffer);
+			if (hint != null)
+				hint.record(buffer.size());
+
+			return buffer.toByteArray();
+		} finally {
+			buffer.release();
+		}
 	}
 }
@@ -3,6 +3,9 @@ package com.voodoodyne.trivet;
 import java.lang.reflect.Proxy;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executor;
 
 /**
  * Create clients.
@@ -23,6 +26,25 @@ public class ClientFactory {
 		this(new JavaHttpEndpoint(endpoint));
 	}
 
+	/**
+	 * Create a factory which uses the JavaHttpEndpoint, with an HttpClient that runs its work (including
+	 * completing the futures of async calls) on the executor. {@code VirtualThreads.newPerTaskExecutor()}
+	 * is a good choice.
+	 */
+	public ClientFactory(final String endpoint, final Executor executor) {
+		this(makeUri(endpoint), executor);
+	}
+
+	/**
+	 * Create a factory which uses the JavaHttpEndpoint, with an HttpClient that runs its work (including
+	 * completing the futures of async calls) on the executor. {@code VirtualThreads.newPerTaskExecutor()}
+	 * is a good choice. Hedged requests are sent on it too.
+	 */
+	public ClientFactory(final URI endpoint, final Executor executor) {
+		this(new JavaHttpEndpoint(endpoint, HttpClient.newBuilder().executor(executor).build()));
+		this.executor = executor;
+	}
+
 	/**
 	 * Gives you full control of the underlying transport.
 	 * @see Endpoint for the complete contract.
@@ -33,12 +55,182 @@ public class ClientFactory {
 
 	private final Endpoint endpoint;
 
+	private Executor executor;
+
+	private boolean compactRequests;
+
+	private Codec codec = new JavaSerializationCodec();
+
+	private int batchSize;
+
+	private Duration batchDelay;
+
+	private boolean streamRequests;
+
+	private CallListener listener;
+
+	private ResultCache resultCache;
+
+	private Duration timeout;
+
+	private Duration hedgeDelay;
+
+	private boolean filterResponses;
+
+	/**
+	 * Send compact requests, which identify the method with a numeric id instead of the full
+	 * class and parameter type definitions. The first call to each method still sends the full
+	 * definition so the server can learn the id. Off by default; the server must be running a
+	 * version of trivet which understands compact requests. Affects clients created afterwards.
+	 */
+	public void setCompactRequests(final boolean compactRequests) {
+		this.compactRequests = compactRequests;
+	}
+
+	/**
+	 * Change the wire format; java serialization is the default. The server must support the codec,
+	 * which is true of the built-in BinaryCodec. Affects clients created afterwards.
+	 */
+	public void setCodec(final Codec codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * Automatically combine calls made close together in time into a single round trip. A batch is sent
+	 * when it has maxSize calls or when maxDelay has passed since the first call in it, whichever comes
+	 * first. Synchronous callers block for up to maxDelay longer than they otherwise would, so this helps
+	 * most when many threads (or async calls) are talking to the same interface. Each client batches
+	 * separately. Off by default; affects clients created afterwards.
+	 * @param maxSize can't be more than {@code TrivetServer.DEFAULT_MAX_BATCH_SIZE}
+	 */
+	public void setBatching(final int maxSize, final Duration maxDelay) {
+		if (maxSize > TrivetServer.DEFAULT_MAX_BATCH_SIZE)
+			throw new IllegalArgumentException("Servers reject batches of more than " + TrivetServer.DEFAULT_MAX_BATCH_SIZE + " calls by default");
+
+		this.batchSize = maxSize;
+		this.batchDelay = maxDelay;
+	}
+
+	/**
+	 * Write synchronous requests straight into the HTTP body rather than serializing them into a buffer
+	 * first. This saves memory when arguments are large, but costs a thread handoff with JavaHttpEndpoint,
+	 * so it's slower for small requests. Methods with InputStream parameters always stream. Off by default;
+	 * affects clients created afterwards.
+	 */
+	public void setStreamRequests(final boolean streamRequests) {
+		this.streamRequests = streamRequests;
+	}
+
+	/**
+	 * Report the phases of every call to the listener, for metrics or tracing. Explicit batches are not
+	 * reported. None by default; affects clients created afterwards.
+	 */
+	public void setListener(final CallListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Cache the results of {@code @Cacheable} methods. The cache may be shared by factories which talk to the
+	 * same server. None by default; affects clients created afterwards.
+	 */
+	public void setResultCache(final ResultCache resultCache) {
+		this.resultCache = resultCache;
+	}
+
+	/**
+	 * Give every call a deadline this far in the future, unless there is already an earlier one in scope
+	 * (see {@code Deadline}). The server won't start calls whose deadline has passed, and JavaHttpEndpoint
+	 * uses the time remaining as its request timeout. None by default; affects clients created afterwards.
+	 */
+	public void setTimeout(final Duration timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Hedge calls to {@code @Idempotent} methods: if the server hasn't answered within the 95th percentile
+	 * of that method's latency so far, send the same request again and take whichever answer comes first.
+	 * With a LoadBalancingEndpoint, the second request usually goes to another replica. Until a method has
+	 * some history, the initial delay is used instead. Batched calls aren't hedged. Off (null) by default;
+	 * affects clients created afterwards.
+	 */
+	public void setHedging(final Duration initialDelay) {
+		this.hedgeDelay = initialDelay;
+	}
+
+	/**
+	 * Only deserialize responses made of classes which the interface's return types (and exceptions) could
+	 * plausibly contain; anything else is rejected before it is created. Applies to the built-in Java
+	 * serialization and binary codecs. Off by default; affects clients created afterwards.
+	 */
+	public void setFilterResponses(final boolean filterResponses) {
+		this.filterResponses = filterResponses;
+	}
+
 	/**
 	 * Build a client interface.
 	 */
 	@SuppressWarnings("unchecked")
 	public <T> T create(final Class<T> iface) {
-		return (T) Proxy.newProxyInstance(iface.getClassLoader(), new Class[] { iface }, new Client<>(endpoint, iface));
+		return (T) Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[] { iface }, client(iface));
+	}
+
+	/**
+	 * Start an explicit batch of calls to the interface, sent in a single round trip.
+	 */
+	public <T> Batch<T> batch(final Class<T> iface) {
+		return new Batch<>(client(iface));
+	}
+
+	private <T> Client<T> client(final Class<T> iface) {
+		return new Client<>(this, iface);
+	}
+
+	Endpoint endpoint() {
+		return endpoint;
+	}
+
+	boolean isCompactRequests() {
+		return compactRequests;
+	}
+
+	Codec codec() {
+		return codec;
+	}
+
+	int batchSize() {
+		return batchSize;
+	}
+
+	Duration batchDelay() {
+		return batchDelay;
+	}
+
+	boolean isStreamRequests() {
+		return streamRequests;
+	}
+
+	CallListener listener() {
+		return listener;
+	}
+
+	ResultCache resultCache() {
+		return resultCache;
+	}
+
+	Duration timeout() {
+		return timeout;
+	}
+
+	Duration hedgeDelay() {
+		return hedgeDelay;
+	}
+
+	Executor executor() {
+		return executor;
+	}
+
+	boolean isFilterResponses() {
+		return filterResponses;
 	}
 
 	private static URI makeUri(final String endpoint) {
@@ -0,0 +1,20 @@
+package com.voodoodyne.trivet;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an interface method whose concurrent identical calls can share a single request. When a call
+ * is made through a client proxy while another call with equal arguments is still waiting for the server,
+ * it waits for that one instead of sending its own. Each caller gets the same result (or its own
+ * RemoteException wrapping the same server-side exception). Only use this on methods without side effects.
+ * Methods with InputStream parameters or results can't be coalesced.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD})
+public @interface Coalesce {
+}
@@ -0,0 +1,38 @@
+package com.voodoodyne.trivet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.OutputStream;
+
+/**
+ * Turns Request and Response objects into bytes and back. The client picks a codec and the server
+ * answers in kind, matching on Content-Type. Implementations must be thread-safe.
+ */
+public interface Codec {
+	/** The mime type which identifies this codec on the wire */
+	String contentType();
+
+	/**
+	 * Write the object to the stream. Must flush but not close the stream.
+	 */
+	void write(final Object value, final OutputStream out) throws IOException;
+
+	/**
+	 * Read exactly one object from the stream. Should not read past the end of the object;
+	 * the caller owns the stream. The client reads responses with this.
+	 */
+	Object read(final InputStream in) throws IOException, ClassNotFoundException;
+
+	/**
+	 * Read exactly one request, on the server. Requests come from whoever can reach the server, so codecs
+	 * which make up stand-ins for missing classes in read() (as the built-in ones do for exceptions) must
+	 * not do so here, and codecs which can create arbitrary classes should only create those the filter
+	 * allows. The default is read(), which ignores the filter.
+	 *
+	 * @param filter is null until interfaces are registered with {@code TrivetServer.register()}
+	 */
+	default Object readRequest(final InputStream in, final ObjectInputFilter filter) throws IOException, ClassNotFoundException {
+		return read(in);
+	}
+}
@@ -0,0 +1,173 @@
+package com.voodoodyne.trivet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * HTTP Content-Encoding support shared by TrivetServlet and JavaHttpEndpoint. Only gzip and deflate
+ * are understood, since that's what the JDK provides.
+ */
+final class Compression {
+
+	static final String GZIP = "gzip";
+	static final String DEFLATE = "deflate";
+
+	/** What we advertise in Accept-Encoding */
+	static final String ACCEPT_ENCODING = GZIP + ", " + DEFLATE;
+
+	private Compression() {}
+
+	/**
+	 * @param acceptEncoding the Accept-Encoding header, possibly null
+	 * @return the encoding we should use for the response, or null to send it as-is
+	 */
+	static String choose(final String acceptEncoding) {
+		if (acceptEncoding == null)
+			return null;
+
+		boolean deflate = false;
+		for (final String part : acceptEncoding.split(",")) {
+			final String[] tokens = part.split(";");
+			final String coding = tokens[0].trim().toLowerCase(Locale.ROOT);
+			final boolean refused = tokens.length > 1 && tokens[1].replace(" ", "").matches("q=0(\\.0*)?");
+
+			if (refused)
+				continue;
+
+			if (coding.equals(GZIP))
+				return GZIP;
+			else if (coding.equals(DEFLATE))
+				deflate = true;
+		}
+
+		return deflate ? DEFLATE : null;
+	}
+
+	/** @return true if we can decode the Content-Encoding header, which may be null */
+	static boolean isSupported(final String contentEncoding) {
+		if (contentEncoding == null)
+			return true;
+
+		return switch (contentEncoding.trim().toLowerCase(Locale.ROOT)) {
+			case "", "identity", GZIP, DEFLATE -> true;
+			default -> false;
+		};
+	}
+
+	/**
+	 * Undo the Content-Encoding.
+	 * @param contentEncoding the Content-Encoding header, possibly null
+	 * @throws IOException if we don't understand the encoding
+	 */
+	static InputStream decode(final String contentEncoding, final InputStream input) throws IOException {
+		if (contentEncoding == null)
+			return input;
+
+		return switch (contentEncoding.trim().toLowerCase(Locale.ROOT)) {
+			case "", "identity" -> input;
+			case GZIP -> new GZIPInputStream(input);
+			case DEFLATE -> new InflaterInputStream(input);
+			default -> throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+		};
+	}
+
+	/** Wrap the output so that whatever is written to it is compressed. Closing finishes the compressed stream. */
+	static OutputStream encode(final String encoding, final OutputStream output) throws IOException {
+		return switch (encoding) {
+			case GZIP -> new GZIPOutputStream(output);
+			case DEFLATE -> new DeflaterOutputStream(output);
+			default -> throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+		};
+	}
+
+	/** Compress the whole thing at once */
+	static byte[] encode(final String encoding, final byte[] body) throws IOException {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream(body.length / 4);
+		try (final OutputStream compressed = encode(encoding, buffer)) {
+			compressed.write(body);
+		}
+
+		return buffer.toByteArray();
+	}
+
+	/** Called when a ThresholdOutputStream decides to compress */
+	@FunctionalInterface
+	interface Switch {
+		/** @return the stream to write compressed output to */
+		OutputStream compress() throws IOException;
+	}
+
+	/**
+	 * Buffers output until it reaches the threshold, then switches to compressing it. If it is closed before
+	 * reaching the threshold, the buffer is written out uncompressed. Flushing before the decision is made
+	 * has no effect, since we can't take back uncompressed bytes.
+	 */
+	static class ThresholdOutputStream extends OutputStream {
+		private final OutputStream raw;
+		private final int threshold;
+		private final Switch onCompress;
+
+		/** Null once we've made a decision */
+		private ByteArrayOutputStream buffer;
+
+		/** Where bytes go once we've made a decision */
+		private OutputStream out;
+
+		/**
+		 * @param raw where uncompressed output goes, if we don't reach the threshold
+		 * @param threshold compress if the output reaches this many bytes
+		 * @param onCompress called at most once; sets up headers and returns the compressing stream
+		 */
+		ThresholdOutputStream(final OutputStream raw, final int threshold, final Switch onCompress) {
+			this.raw = raw;
+			this.threshold = threshold;
+			this.onCompress = onCompress;
+			this.buffer = new ByteArrayOutputStream(Math.min(threshold, 8192));
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte)b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			if (buffer == null) {
+				out.write(b, off, len);
+				return;
+			}
+
+			buffer.write(b, off, len);
+
+			if (buffer.size() >= threshold) {
+				out = onCompress.compress();
+				buffer.writeTo(out);
+				buffer = null;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (buffer == null)
+				out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (buffer != null) {
+				out = raw;
+				buffer.writeTo(out);
+				buffer = null;
+			}
+
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package com.voodoodyne.trivet;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stream wrappers which count bytes, for reporting payload sizes to a CallListener.
+ */
+final class CountingStreams {
+
+	private CountingStreams() {}
+
+	static class Input extends FilterInputStream {
+		private long count;
+
+		Input(final InputStream in) {
+			super(in);
+		}
+
+		public long count() {
+			return count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b >= 0)
+				count++;
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			final int n = super.read(b, off, len);
+			if (n > 0)
+				count += n;
+			return n;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException {
+			final long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+
+	static class Output extends FilterOutputStream {
+		private long count;
+
+		Output(final OutputStream out) {
+			super(out);
+		}
+
+		public long count() {
+			return count;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
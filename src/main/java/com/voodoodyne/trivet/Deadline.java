@@ -0,0 +1,107 @@
+package com.voodoodyne.trivet;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>A point in time by which a call must finish. Deadlines are scoped to the current thread:</p>
+ *
+ * <pre>
+ * try (Deadline.Scope scope = Deadline.within(Duration.ofSeconds(2))) {
+ *     hello.hi("bob");
+ * }
+ * </pre>
+ *
+ * <p>Every remote call made in the scope carries the time remaining to the server, which won't start the
+ * call once that has passed. While the server invokes the method, the same deadline is in scope there, so
+ * the service can check {@code Deadline.current()} and any trivet calls it makes inherit the deadline.
+ * Nested scopes can shorten the deadline but not extend it.</p>
+ */
+public final class Deadline {
+
+	private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+	/**
+	 * Restores the previous deadline when closed.
+	 */
+	public static final class Scope implements AutoCloseable {
+		private final Deadline previous;
+
+		private Scope(final Deadline previous) {
+			this.previous = previous;
+		}
+
+		@Override
+		public void close() {
+			if (previous == null)
+				CURRENT.remove();
+			else
+				CURRENT.set(previous);
+		}
+	}
+
+	/** System.nanoTime() at which the deadline passes */
+	private final long expiresAt;
+
+	private Deadline(final long expiresAt) {
+		this.expiresAt = expiresAt;
+	}
+
+	/** @return a deadline the duration from now */
+	public static Deadline after(final Duration timeout) {
+		return afterNanos(timeout.toNanos());
+	}
+
+	static Deadline afterNanos(final long nanos) {
+		return new Deadline(System.nanoTime() + nanos);
+	}
+
+	/** Same as {@code after(timeout).apply()} */
+	public static Scope within(final Duration timeout) {
+		return after(timeout).apply();
+	}
+
+	/** @return the deadline in scope on this thread, or null if there is none */
+	public static Deadline current() {
+		return CURRENT.get();
+	}
+
+	/** @return whichever deadline passes first; either may be null */
+	static Deadline earliest(final Deadline a, final Deadline b) {
+		if (a == null)
+			return b;
+		if (b == null)
+			return a;
+
+		return a.expiresAt - b.expiresAt <= 0 ? a : b;
+	}
+
+	/**
+	 * Make this the current deadline until the scope is closed, unless the current deadline is earlier.
+	 */
+	public Scope apply() {
+		final Deadline previous = CURRENT.get();
+		CURRENT.set(earliest(previous, this));
+		return new Scope(previous);
+	}
+
+	/** @return nanoseconds until the deadline passes; zero or negative if it has */
+	public long remainingNanos() {
+		return expiresAt - System.nanoTime();
+	}
+
+	/** @return milliseconds until the deadline, rounded up so it is never 0 unless the deadline has passed */
+	long remainingMillis() {
+		final long nanos = remainingNanos();
+		return nanos <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(nanos + 999_999);
+	}
+
+	public boolean isExpired() {
+		return remainingNanos() <= 0;
+	}
+
+	@Override
+	public String toString() {
+		return "Deadline(" + TimeUnit.NANOSECONDS.toMillis(remainingNanos()) + "ms)";
+	}
+}
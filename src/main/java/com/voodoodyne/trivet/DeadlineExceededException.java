@@ -0,0 +1,16 @@
+package com.voodoodyne.trivet;
+
+import java.io.Serial;
+
+/**
+ * Thrown when a call's deadline passes before it can be made (on the client) or invoked (on the server).
+ * See {@code Deadline}.
+ */
+public class DeadlineExceededException extends RuntimeException {
+	@Serial
+	private static final long serialVersionUID = 1L;
+
+	public DeadlineExceededException(final String message) {
+		super(message);
+	}
+}
@@ -1,12 +1,25 @@
 package com.voodoodyne.trivet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Interface for an object that represents a Trivet endpoint.
  */
 public interface Endpoint {
+
+	/**
+	 * Produces a request body by writing it to the transport.
+	 */
+	@FunctionalInterface
+	interface BodyWriter {
+		/** Write the whole body; don't close the stream */
+		void writeTo(OutputStream output) throws IOException;
+	}
+
 	/**
 	 * <p>Post the request body to the appropriate endpoint. The contract is:</p>
 	 * <ul>
@@ -23,4 +36,35 @@ public interface Endpoint {
 	 * Throws an unspecified exception if the server responds with anything other than 200 OK.
 	 */
 	InputStream post(final String contentType, final byte[] body, final Class<?> iface) throws IOException;
+
+	/**
+	 * Asynchronous version of {@code post()}, with the same contract. Used for interface methods that
+	 * return {@code CompletableFuture} or {@code CompletionStage}. The default implementation simply
+	 * calls {@code post()} on the calling thread; override this if your transport can do better.
+	 *
+	 * @return a future that completes with the input stream from the server, or completes exceptionally
+	 */
+	default CompletableFuture<InputStream> postAsync(final String contentType, final byte[] body, final Class<?> iface) {
+		try {
+			return CompletableFuture.completedFuture(post(contentType, body, iface));
+		} catch (final IOException | RuntimeException ex) {
+			return CompletableFuture.failedFuture(ex);
+		}
+	}
+
+	/**
+	 * Streaming version of {@code post()}, with the same contract. The body is written directly to the
+	 * transport rather than being buffered in memory first. Used for methods with InputStream parameters,
+	 * and for all synchronous calls if {@code ClientFactory.setStreamRequests()} is enabled. The default
+	 * implementation buffers the body and calls {@code post()}; override this if your transport can do better.
+	 *
+	 * @param body writes the request body; it may be called only once
+	 * @return an input stream from the server
+	 */
+	default InputStream postStreaming(final String contentType, final BodyWriter body, final Class<?> iface) throws IOException {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		body.writeTo(buffer);
+
+		return post(contentType, buffer.toByteArray(), iface);
+	}
 }
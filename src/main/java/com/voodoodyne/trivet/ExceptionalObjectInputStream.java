@@ -2,11 +2,7 @@ package com.voodoodyne.trivet;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectStreamClass;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.logging.Logger;
+import java.io.ObjectInputFilter;
 
 
 /**
@@ -14,32 +10,23 @@ import java.util.logging.Logger;
  * exception which does not exist on the client. This problem extends to exceptions that may be deep
  * in a nested cause chain; they will trigger a ClassNotFoundException on the client. This ObjectInputStream
  * works around that issue.</p>
+ *
+ * <p>Any missing class gets a stand-in, since whether it was an exception isn't known until it has been
+ * read; a stand-in which turns out not to be part of a failed Response is an error. Only use this for
+ * reading responses, or clients could make the server generate classes.</p>
  */
-public class ExceptionalObjectInputStream extends ObjectInputStream {
-
-	private static final Logger log = Logger.getLogger(ExceptionalObjectInputStream.class.getName());
+public class ExceptionalObjectInputStream extends FilteredObjectInputStream {
 
 	/** */
 	public ExceptionalObjectInputStream(final InputStream in) throws IOException {
-		super(in);
-	}
-
-	@Override
-	protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
-		try {
-			return super.resolveClass(desc);
-		} catch (final ClassNotFoundException ex) {
-			if (isThrowable(desc)) {
-				// Return a unique MysteryException subclass for this specific name and serialversionuid
-                return MysteryExceptionClassFactory.get(desc);
-			} else {
-				throw ex;
-			}
-		}
+		this(in, null);
 	}
 
-	private boolean isThrowable(final ObjectStreamClass desc) {
-		return desc.getName().endsWith("Exception") || desc.getName().endsWith("Error") || desc.getName().endsWith("Throwable");
+	/**
+	 * Reject anything the filter doesn't like (as well as anything the JVM-wide filter rejects).
+	 * @param filter can be null for no filtering beyond the JVM-wide filter
+	 */
+	public ExceptionalObjectInputStream(final InputStream in, final ObjectInputFilter filter) throws IOException {
+		super(in, filter, true);
 	}
-
 }
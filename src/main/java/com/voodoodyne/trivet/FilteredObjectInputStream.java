@@ -0,0 +1,145 @@
+package com.voodoodyne.trivet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>An ObjectInputStream which applies a filter and caches the classes it resolves. This is what the server
+ * reads requests with; unlike the ExceptionalObjectInputStream, classes which don't exist are an error.</p>
+ *
+ * <p>When reading responses, a class which doesn't exist can be replaced with a MysteryException subclass of
+ * the same name (a stand-in). The stream can't tell whether the missing class was an exception until the
+ * object is read, so it checks afterwards: a stand-in must end up in a Response which failed, or be (part of)
+ * a Throwable which is the whole value read with {@code readValue()}. Anywhere else, it's an error.</p>
+ */
+class FilteredObjectInputStream extends ObjectInputStream {
+
+	/**
+	 * Classes ObjectInputStream resolved, by name, for each kind of stream. Class.forName() is surprisingly
+	 * slow and happens for every class in every message. The loader ObjectInputStream picks depends on the
+	 * stack, so a subclass loaded from somewhere else gets a cache of its own. Only classes which exist are
+	 * cached, so each map is bounded by the classes its loader can see.
+	 */
+	private static final ClassValue<Map<String, Class<?>>> RESOLVED = new ClassValue<>() {
+		@Override
+		protected Map<String, Class<?>> computeValue(final Class<?> type) {
+			return new ConcurrentHashMap<>();
+		}
+	};
+
+	/** Whether missing classes become MysteryExceptions */
+	private final boolean standIns;
+
+	/** The stand-in classes this stream has made */
+	private Set<Class<?>> stoodIn;
+
+	/** The name of a stand-in read since the last Response, which had better turn out to be an exception */
+	private String unclaimed;
+
+	/**
+	 * Reject anything the filter doesn't like (as well as anything the JVM-wide filter rejects).
+	 * @param filter can be null for no filtering beyond the JVM-wide filter
+	 */
+	FilteredObjectInputStream(final InputStream in, final ObjectInputFilter filter) throws IOException {
+		this(in, filter, false);
+	}
+
+	/**
+	 * @param filter can be null for no filtering beyond the JVM-wide filter
+	 * @param standIns whether missing classes become MysteryExceptions; only for reading responses, since it
+	 *                 lets the other side make us generate classes
+	 */
+	FilteredObjectInputStream(final InputStream in, final ObjectInputFilter filter, final boolean standIns) throws IOException {
+		super(in);
+		this.standIns = standIns;
+		if (filter != null)
+			setObjectInputFilter(withGlobal(filter));
+		if (standIns)
+			enableResolveObject(true);
+	}
+
+	/** @return the filter merged with the JVM-wide filter, if there is one */
+	static ObjectInputFilter withGlobal(final ObjectInputFilter filter) {
+		return merge(filter, ObjectInputFilter.Config.getSerialFilter());
+	}
+
+	/** @return a filter which rejects anything either filter rejects; either can be null */
+	static ObjectInputFilter merge(final ObjectInputFilter one, final ObjectInputFilter other) {
+		if (one == null)
+			return other;
+		if (other == null)
+			return one;
+
+		return ObjectInputFilter.merge(one, other);
+	}
+
+	/**
+	 * Read an object, and make sure any stand-ins in it were part of an exception.
+	 */
+	Object readValue() throws IOException, ClassNotFoundException {
+		final Object value = readObject();
+		if (unclaimed != null && !(value instanceof Throwable))
+			throw notAnException(unclaimed);
+
+		return value;
+	}
+
+	@Override
+	protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+		final Map<String, Class<?>> resolved = RESOLVED.get(getClass());
+		final Class<?> cached = resolved.get(desc.getName());
+		if (cached != null)
+			return cached;
+
+		final Class<?> found;
+		try {
+			found = super.resolveClass(desc);
+		} catch (final ClassNotFoundException ex) {
+			if (!standIns)
+				throw ex;
+
+			return standIn(desc);
+		}
+
+		resolved.putIfAbsent(desc.getName(), found);
+		return found;
+	}
+
+	@Override
+	protected Object resolveObject(final Object obj) throws IOException {
+		if (stoodIn != null && stoodIn.contains(obj.getClass())) {
+			if (unclaimed == null)
+				unclaimed = obj.getClass().getName();
+		} else if (obj instanceof final Response response) {
+			// Fields are read before the objects holding them, so any stand-in so far belongs to this one
+			if (unclaimed != null && !response.isThrown())
+				throw notAnException(unclaimed);
+
+			unclaimed = null;
+		}
+
+		return obj;
+	}
+
+	/** @return a unique MysteryException subclass for this specific name and serialVersionUID */
+	private Class<?> standIn(final ObjectStreamClass desc) {
+		final Class<?> standIn = MysteryExceptionClassFactory.get(desc);
+		if (stoodIn == null)
+			stoodIn = new HashSet<>();
+
+		stoodIn.add(standIn);
+		return standIn;
+	}
+
+	private static InvalidClassException notAnException(final String name) {
+		return new InvalidClassException(name, "Class not found, and it isn't part of an exception");
+	}
+}
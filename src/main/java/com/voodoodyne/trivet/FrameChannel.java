@@ -0,0 +1,210 @@
+package com.voodoodyne.trivet;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>The wire protocol of the TCP transport, over a blocking SocketChannel. A connection starts with the
+ * client sending a handshake: the magic number, a version byte, the id of the client's SessionCodec (or 0),
+ * and the Content-Type (a short length and UTF-8) of every request on the connection. If there is a session,
+ * the server answers with a RESPONSE frame with id 0 and a one-byte payload, which is 1 if the server had no
+ * such session and started it afresh. After that, both sides send frames:</p>
+ *
+ * <pre>
+ * int  length of the payload
+ * long correlation id, chosen by the client; the response carries the id of its request
+ * byte kind: REQUEST, RESPONSE, or ERROR
+ * payload: an encoded request or response, exactly as it would be in an HTTP body; for ERROR, a UTF-8 message
+ * </pre>
+ *
+ * <p>Responses can come back in any order. One thread may read while any number write.</p>
+ */
+final class FrameChannel implements Closeable {
+
+	/** "TRVT" */
+	static final int MAGIC = 0x54525654;
+	static final byte VERSION = 2;
+
+	static final byte REQUEST = 0;
+	static final byte RESPONSE = 1;
+	static final byte ERROR = 2;
+
+	/**
+	 * Anything bigger is assumed to be garbage, rather than allocating whatever the length says. A server
+	 * may buffer this much for every call in flight, so it's kept modest; big payloads belong on HTTP.
+	 */
+	static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+
+	private static final int HEADER_SIZE = 4 + 8 + 1;
+
+	/** Payloads up to this size are allocated in one go; bigger ones grow as they are read */
+	private static final int PREALLOCATE = 64 * 1024;
+
+	record Frame(long id, byte kind, byte[] payload) {}
+
+	/** @param session is the id of a SessionCodec, or 0 if the connection doesn't use one */
+	record Handshake(String contentType, long session) {}
+
+	private final SocketChannel channel;
+
+	/** Frames must not be interleaved */
+	private final ReentrantLock writeLock = new ReentrantLock();
+
+	/** Only used by the reading thread */
+	private final ByteBuffer readHeader = ByteBuffer.allocate(HEADER_SIZE);
+
+	/** */
+	FrameChannel(final SocketChannel channel) {
+		this.channel = channel;
+	}
+
+	void writeHandshake(final Handshake handshake) throws IOException {
+		final byte[] type = handshake.contentType().getBytes(StandardCharsets.UTF_8);
+
+		final ByteBuffer buffer = ByteBuffer.allocate(4 + 1 + 8 + 2 + type.length);
+		buffer.putInt(MAGIC).put(VERSION).putLong(handshake.session()).putShort((short)type.length).put(type).flip();
+		write(buffer);
+	}
+
+	Handshake readHandshake() throws IOException {
+		final ByteBuffer header = readFully(ByteBuffer.allocate(4 + 1 + 8 + 2));
+		if (header.getInt() != MAGIC)
+			throw new StreamCorruptedException("Not a trivet connection");
+
+		final byte version = header.get();
+		if (version != VERSION)
+			throw new StreamCorruptedException("Unsupported protocol version " + version);
+
+		final long session = header.getLong();
+		final ByteBuffer type = readFully(ByteBuffer.allocate(Short.toUnsignedInt(header.getShort())));
+		return new Handshake(new String(type.array(), StandardCharsets.UTF_8), session);
+	}
+
+	/** @param fresh whether the server had to start the client's session over */
+	void writeSessionReply(final boolean fresh) throws IOException {
+		write(0, RESPONSE, new byte[] { (byte)(fresh ? 1 : 0) });
+	}
+
+	/** @return true if the server started the session afresh, and so knows none of its descriptors */
+	boolean readSessionReply() throws IOException {
+		final Frame reply = read();
+		if (reply == null)
+			throw new EOFException("Connection closed during the handshake");
+
+		if (reply.kind() == ERROR)
+			throw new IOException(new String(reply.payload(), StandardCharsets.UTF_8));
+
+		if (reply.id() != 0 || reply.kind() != RESPONSE || reply.payload().length != 1)
+			throw new StreamCorruptedException("Bad reply to the handshake");
+
+		return reply.payload()[0] != 0;
+	}
+
+	/** @return the next frame, or null if the other side closed the connection cleanly */
+	Frame read() throws IOException {
+		readHeader.clear();
+		if (channel.read(readHeader) < 0)
+			return null;
+
+		readFully(readHeader);
+
+		final int length = readHeader.getInt();
+		final long id = readHeader.getLong();
+		final byte kind = readHeader.get();
+
+		if (length < 0 || length > MAX_PAYLOAD)
+			throw new StreamCorruptedException("Bad frame length " + length);
+
+		return new Frame(id, kind, readPayload(length));
+	}
+
+	/** Bigger payloads grow as their bytes arrive, so claiming a big length doesn't cost anything by itself */
+	private byte[] readPayload(final int length) throws IOException {
+		if (length <= PREALLOCATE)
+			return readFully(ByteBuffer.allocate(length)).array();
+
+		byte[] payload = new byte[PREALLOCATE];
+		int filled = 0;
+		while (filled < length) {
+			if (filled == payload.length)
+				payload = Arrays.copyOf(payload, (int)Math.min(2L * payload.length, length));
+
+			final int read = channel.read(ByteBuffer.wrap(payload, filled, payload.length - filled));
+			if (read < 0)
+				throw new EOFException("Connection closed in the middle of a frame");
+
+			filled += read;
+		}
+
+		return payload;
+	}
+
+	void write(final long id, final byte kind, final byte[] payload) throws IOException {
+		write(id, kind, payload, payload.length);
+	}
+
+	/** @param length only the first this many bytes of the payload are sent */
+	void write(final long id, final byte kind, final byte[] payload, final int length) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(length).putLong(id).put(kind).flip();
+
+		final ByteBuffer body = ByteBuffer.wrap(payload, 0, length);
+
+		writeLock.lock();
+		try {
+			while (header.hasRemaining() || body.hasRemaining())
+				channel.write(new ByteBuffer[] { header, body });
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	void writeError(final long id, final String message) throws IOException {
+		write(id, ERROR, message.getBytes(StandardCharsets.UTF_8));
+	}
+
+	boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	@Override
+	public String toString() {
+		try {
+			return "FrameChannel(" + channel.getRemoteAddress() + ")";
+		} catch (final IOException ex) {
+			return "FrameChannel(closed)";
+		}
+	}
+
+	private void write(final ByteBuffer buffer) throws IOException {
+		writeLock.lock();
+		try {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/** Fill the buffer and flip it for reading */
+	private ByteBuffer readFully(final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0)
+				throw new EOFException("Connection closed in the middle of a frame");
+		}
+
+		return buffer.flip();
+	}
+}
@@ -0,0 +1,80 @@
+package com.voodoodyne.trivet;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Utilities for methods which return {@code CompletableFuture<T>} or {@code CompletionStage<T>}.
+ * Futures aren't serializable, so only the eventual value of T goes on the wire; the client makes
+ * a new future and the server waits for (or chains onto) the one returned by the service.</p>
+ */
+class Futures {
+
+	/** @return true if the type is one of the future types we handle */
+	public static boolean isFuture(final Class<?> type) {
+		return type == CompletableFuture.class || type == CompletionStage.class;
+	}
+
+	/**
+	 * @return the type of the value which actually goes on the wire, which is T for future
+	 * return types, otherwise just the return type.
+	 */
+	public static Class<?> resultType(final Method method) {
+		if (!isFuture(method.getReturnType()))
+			return method.getReturnType();
+
+		if (method.getGenericReturnType() instanceof ParameterizedType parameterized) {
+			final Type arg = parameterized.getActualTypeArguments()[0];
+			if (arg instanceof Class<?> clazz)
+				return clazz;
+			if (arg instanceof ParameterizedType argParameterized && argParameterized.getRawType() instanceof Class<?> clazz)
+				return clazz;
+		}
+
+		return Object.class;
+	}
+
+	/**
+	 * Block until the stage completes.
+	 * @throws Throwable whatever the stage completed exceptionally with, unwrapped
+	 */
+	public static Object await(final CompletionStage<?> stage) throws Throwable {
+		if (stage == null)
+			return null;
+
+		try {
+			return stage.toCompletableFuture().get();
+		} catch (final ExecutionException ex) {
+			throw ex.getCause();
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Cancelling a dependent future doesn't cancel the one it depends on, which might be holding a connection.
+	 * @return the dependent future, which now cancels the source when it is cancelled
+	 */
+	public static <T> CompletableFuture<T> cancelsSource(final CompletableFuture<T> dependent, final Future<?> source) {
+		dependent.whenComplete((value, ex) -> {
+			if (dependent.isCancelled())
+				source.cancel(true);
+		});
+		return dependent;
+	}
+
+	/** Dependent stages wrap exceptions in CompletionException; get the real one */
+	public static Throwable unwrap(final Throwable ex) {
+		if (ex instanceof CompletionException && ex.getCause() != null)
+			return ex.getCause();
+
+		return ex;
+	}
+}
@@ -0,0 +1,21 @@
+package com.voodoodyne.trivet;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an interface method which is safe to execute more than once with the same arguments; calling it
+ * twice has the same effect as calling it once. This lets the client hedge slow calls by sending them
+ * again (see {@code ClientFactory.setHedging()}), and lets the server reuse the response of a recent identical
+ * call instead of invoking the method (see {@code ResponseCache}). Since the cached response goes to
+ * whoever calls next, methods whose result depends on the caller (the authenticated user, say) should
+ * not be marked idempotent on a server with a response cache.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD})
+public @interface Idempotent {
+}
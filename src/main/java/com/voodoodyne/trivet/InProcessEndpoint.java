@@ -0,0 +1,100 @@
+package com.voodoodyne.trivet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * <p>An endpoint which calls a TrivetServer in the same JVM, without any network or HTTP. Useful for
+ * tests, and for deployments where the caller and callee happen to be colocated.</p>
+ *
+ * <p>By default requests and responses are still encoded and decoded, so the client and server
+ * can't see each other's objects, exactly as if they were remote. If you trust both sides, the
+ * by-reference mode skips encoding entirely and passes arguments and results as-is. Methods with
+ * InputStream parameters or results are always encoded.</p>
+ */
+public class InProcessEndpoint implements Endpoint {
+
+	private final TrivetServer server;
+	private final boolean byReference;
+
+	/**
+	 * Encode requests and responses, just like a remote call.
+	 */
+	public InProcessEndpoint(final TrivetServer server) {
+		this(server, false);
+	}
+
+	/**
+	 * @param byReference if true, don't encode anything; the server gets the client's argument objects
+	 *                    and the client gets the server's result objects. Mutations will be visible
+	 *                    on both sides.
+	 */
+	public InProcessEndpoint(final TrivetServer server, final boolean byReference) {
+		this.server = server;
+		this.byReference = byReference;
+	}
+
+	public boolean isByReference() {
+		return byReference;
+	}
+
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName() + "(" + (byReference ? "byReference" : "encoded") + ")";
+	}
+
+	@Override
+	public InputStream post(final String contentType, final byte[] body, final Class<?> iface) throws IOException {
+		final Codec codec = codec(contentType);
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		if (server.isStreaming(contentType)) {
+			server.executeStreaming(codec, new ByteArrayInputStream(body), output);
+		} else {
+			server.execute(codec, new ByteArrayInputStream(body), output);
+		}
+
+		return new ByteArrayInputStream(output.toByteArray());
+	}
+
+	/**
+	 * Methods which return futures don't block the calling thread.
+	 */
+	@Override
+	public CompletableFuture<InputStream> postAsync(final String contentType, final byte[] body, final Class<?> iface) {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			return server.executeAsync(codec(contentType), new ByteArrayInputStream(body), output)
+				.thenApply(ignored -> new ByteArrayInputStream(output.toByteArray()));
+		} catch (final IOException | RuntimeException ex) {
+			return CompletableFuture.failedFuture(ex);
+		}
+	}
+
+	/** By-reference version of post(); called directly by the Client */
+	Response exchange(final Request request) {
+		return server.executeLocal(request);
+	}
+
+	/** By-reference version of postAsync(); called directly by the Client */
+	CompletionStage<Response> exchangeAsync(final Request request) {
+		return server.executeLocalAsync(request);
+	}
+
+	/** By-reference version of posting a batch; called directly by the Client */
+	BatchResponse exchange(final BatchRequest batch) {
+		return server.executeLocal(batch);
+	}
+
+	private Codec codec(final String contentType) throws IOException {
+		final Codec codec = server.codecFor(contentType);
+		if (codec == null)
+			throw new IOException("Unsupported Content-Type " + contentType);
+
+		return codec;
+	}
+}
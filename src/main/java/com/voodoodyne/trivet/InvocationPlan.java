@@ -0,0 +1,114 @@
+package com.voodoodyne.trivet;
+
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Everything the server needs to know to invoke a MethodDef, resolved once and then cached.
+ * The hot path should not need to do any reflection or annotation scanning.
+ */
+class InvocationPlan {
+
+	/** The resolved interface method */
+	private final Method method;
+
+	/** How we actually call it */
+	private final Invoker invoker;
+
+	/** Null if there are no Optional parameters, which is the common case */
+	private final Class<?>[] optionalParameterTypes;
+
+	/** True if the return type is Optional, or a future of Optional */
+	private final boolean optionalReturn;
+
+	/** True if the method returns a CompletableFuture or CompletionStage */
+	private final boolean futureReturn;
+
+	/** Index of the InputStream parameter, or -1 */
+	private final int streamParameter;
+
+	/** True if responses can go in a ResponseCache: @Idempotent, and no streams */
+	private final boolean memoizable;
+
+	/** From @Cacheable, or -1 to use the ResponseCache's TTL */
+	private final long cacheTtlNanos;
+
+	/** Service classes which have already passed the access check for this method */
+	private final Set<Class<?>> allowedServiceClasses = ConcurrentHashMap.newKeySet();
+
+	/** */
+	InvocationPlan(final Method method, final Invoker invoker) {
+		this.method = method;
+		this.invoker = invoker;
+
+		final Class<?>[] parameterTypes = method.getParameterTypes();
+		this.optionalParameterTypes = OptionalHack.hasOptionals(parameterTypes) ? parameterTypes : null;
+		this.optionalReturn = Futures.resultType(method) == Optional.class;
+		this.futureReturn = Futures.isFuture(method.getReturnType());
+		this.streamParameter = Streaming.streamParameter(parameterTypes);
+		this.memoizable = method.isAnnotationPresent(Idempotent.class) && streamParameter < 0 && !Streaming.isStream(method.getReturnType());
+
+		final Cacheable cacheable = method.getAnnotation(Cacheable.class);
+		this.cacheTtlNanos = cacheable == null ? -1 : cacheable.unit().toNanos(cacheable.ttl());
+	}
+
+	public Method method() {
+		return method;
+	}
+
+	public Invoker invoker() {
+		return invoker;
+	}
+
+	public boolean isFutureReturn() {
+		return futureReturn;
+	}
+
+	public boolean isMemoizable() {
+		return memoizable;
+	}
+
+	/** @return how long a cached response is fresh, or -1 if the cache should decide */
+	public long cacheTtlNanos() {
+		return cacheTtlNanos;
+	}
+
+	/** Put back any Optional parameters stripped by the client */
+	public Request restore(final Request request) {
+		if (optionalParameterTypes == null)
+			return request;
+
+		return request.withArgs(OptionalHack.restore(request.args(), optionalParameterTypes));
+	}
+
+	/** Put the request body in place of the InputStream parameter, if there is one */
+	public Request withStream(final Request request, final InputStream body) {
+		if (streamParameter < 0)
+			return request;
+
+		final Object[] args = request.args().clone();
+		args[streamParameter] = body;
+		return request.withArgs(args);
+	}
+
+	/** Strip the Optional off the result if appropriate */
+	public Response strip(final Response response) {
+		if (!optionalReturn)
+			return response;
+
+		return OptionalHack.strip(response, Optional.class);
+	}
+
+	/** @return true if the service class previously passed the access check */
+	public boolean isAllowed(final Class<?> serviceClass) {
+		return allowedServiceClasses.contains(serviceClass);
+	}
+
+	/** Remember that the service class passed the access check */
+	public void allow(final Class<?> serviceClass) {
+		allowedServiceClasses.add(serviceClass);
+	}
+}
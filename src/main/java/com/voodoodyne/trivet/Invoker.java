@@ -0,0 +1,36 @@
+package com.voodoodyne.trivet;
+
+import java.lang.reflect.Method;
+
+/**
+ * Strategy for calling a resolved service method. The server creates one of these per remote
+ * method and reuses it for every call; see {@code TrivetServer.createInvoker()} if you want to
+ * plug in your own.
+ */
+public interface Invoker {
+	/**
+	 * Call the method.
+	 *
+	 * @param service is the local implementation of the remote interface
+	 * @param args may be null if the method has no parameters
+	 * @throws Throwable whatever the method itself threw, not wrapped in InvocationTargetException
+	 */
+	Object invoke(final Object service, final Object[] args) throws Throwable;
+
+	/**
+	 * Classic {@code Method.invoke()}. Works everywhere, but is slower.
+	 */
+	static Invoker reflective(final Method method) {
+		return new ReflectiveInvoker(method);
+	}
+
+	/**
+	 * Uses a MethodHandle adapted to a generic signature, which avoids the access checks
+	 * and exception wrapping of reflection.
+	 *
+	 * @throws IllegalAccessException if the method isn't accessible to trivet
+	 */
+	static Invoker methodHandle(final Method method) throws IllegalAccessException {
+		return new MethodHandleInvoker(method);
+	}
+}
@@ -1,23 +1,36 @@
 package com.voodoodyne.trivet;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  * An endpoint implementation that uses the java.net.http facility introduced
  * with Java 11. You can subclass this to customize request builders, or supply
- * a configured HttpClient to customize proxies, timeouts, and other client behavior.
+ * a configured HttpClient to customize proxies, timeouts, and other client behavior. If a
+ * {@code Deadline} is in scope, the time remaining becomes the request timeout.
  */
 public class JavaHttpEndpoint implements Endpoint {
+	/** Buffer between the thread writing a streaming body and the HttpClient reading it */
+	private static final int PIPE_SIZE = 64 * 1024;
+
 	private final URI endpoint;
 	private final HttpClient httpClient;
 
+	/** Negative means never compress requests */
+	private int requestCompressionThreshold = -1;
+
 	public JavaHttpEndpoint(final URI endpoint) {
 		this(endpoint, HttpClient.newHttpClient());
 	}
@@ -27,6 +40,15 @@ public class JavaHttpEndpoint implements Endpoint {
 		this.httpClient = httpClient;
 	}
 
+	/**
+	 * Compress requests at least this many bytes long with gzip; streaming requests are always compressed when
+	 * this is enabled, since their size isn't known up front. The server must be running a version of trivet
+	 * which understands compressed requests. Off (negative) by default. Compressed responses are always accepted.
+	 */
+	public void setRequestCompressionThreshold(final int requestCompressionThreshold) {
+		this.requestCompressionThreshold = requestCompressionThreshold;
+	}
+
 	@Override
 	public String toString() {
 		return this.getClass().getSimpleName() + "(" + endpoint + ")";
@@ -34,12 +56,7 @@ public class JavaHttpEndpoint implements Endpoint {
 
 	@Override
 	public InputStream post(final String contentType, final byte[] body, final Class<?> iface) throws IOException {
-
-		final HttpRequest.Builder httpRequestBuilder = HttpRequest.newBuilder(endpoint)
-			.header("Content-Type", contentType)
-			.POST(BodyPublishers.ofByteArray(body));
-		this.munge(httpRequestBuilder, iface);
-		final HttpRequest httpRequest = httpRequestBuilder.build();
+		final HttpRequest httpRequest = httpRequest(contentType, body, iface);
 
 		final HttpResponse<InputStream> httpResponse;
 		try {
@@ -48,11 +65,115 @@ public class JavaHttpEndpoint implements Endpoint {
 			throw new RuntimeException(e);
 		}
 
+		return body(httpResponse);
+	}
+
+	@Override
+	public CompletableFuture<InputStream> postAsync(final String contentType, final byte[] body, final Class<?> iface) {
+		final HttpRequest httpRequest;
+		try {
+			httpRequest = httpRequest(contentType, body, iface);
+		} catch (final IOException ex) {
+			return CompletableFuture.failedFuture(ex);
+		}
+
+		// The whole body is collected before completing, so decoding never blocks on the network
+		final CompletableFuture<HttpResponse<byte[]>> exchange = httpClient.sendAsync(httpRequest, BodyHandlers.ofByteArray());
+		return Futures.cancelsSource(exchange.thenApply(httpResponse -> {
+			try {
+				return body(httpResponse, new ByteArrayInputStream(httpResponse.body()));
+			} catch (final IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}), exchange);
+	}
+
+	/**
+	 * The body is piped to the HttpClient, which reads it on its own thread while this thread writes it.
+	 * The request is sent with chunked encoding since we don't know the length up front.
+	 */
+	@Override
+	public InputStream postStreaming(final String contentType, final BodyWriter body, final Class<?> iface) throws IOException {
+		final Pipe pipe = new Pipe(PIPE_SIZE);
+		final InputStream pipeIn = pipe.input();
+		final OutputStream pipeOut = pipe.output();
+
+		final String encoding = requestCompressionThreshold >= 0 ? Compression.GZIP : null;
+		final HttpRequest httpRequest = httpRequest(contentType, encoding, BodyPublishers.ofInputStream(() -> pipeIn), iface);
+		final CompletableFuture<HttpResponse<InputStream>> httpResponse = httpClient.sendAsync(httpRequest, BodyHandlers.ofInputStream());
+
+		// If the exchange fails, nobody will drain the pipe; closing it makes the writer fail instead of hanging
+		httpResponse.whenComplete((response, ex) -> {
+			if (ex != null)
+				closeQuietly(pipeIn);
+		});
+
+		try (final OutputStream output = encoding != null ? Compression.encode(encoding, pipeOut) : pipeOut) {
+			body.writeTo(output);
+		} catch (final IOException ex) {
+			httpResponse.cancel(true);
+			throw ex;
+		}
+
+		try {
+			return body(httpResponse.get());
+		} catch (final InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException io)
+				throw io;
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private HttpRequest httpRequest(final String contentType, final byte[] body, final Class<?> iface) throws IOException {
+		if (requestCompressionThreshold >= 0 && body.length >= requestCompressionThreshold) {
+			return httpRequest(contentType, Compression.GZIP, BodyPublishers.ofByteArray(Compression.encode(Compression.GZIP, body)), iface);
+		} else {
+			return httpRequest(contentType, null, BodyPublishers.ofByteArray(body), iface);
+		}
+	}
+
+	/**
+	 * @param encoding the Content-Encoding of the body, or null if it isn't compressed
+	 */
+	private HttpRequest httpRequest(final String contentType, final String encoding, final HttpRequest.BodyPublisher body, final Class<?> iface) {
+		final HttpRequest.Builder httpRequestBuilder = HttpRequest.newBuilder(endpoint)
+			.header("Content-Type", contentType)
+			.header("Accept-Encoding", Compression.ACCEPT_ENCODING)
+			.POST(body);
+
+		if (encoding != null)
+			httpRequestBuilder.header("Content-Encoding", encoding);
+
+		final Deadline deadline = Deadline.current();
+		if (deadline != null)
+			httpRequestBuilder.timeout(Duration.ofNanos(Math.max(1, deadline.remainingNanos())));
+
+		this.munge(httpRequestBuilder, iface);
+		return httpRequestBuilder.build();
+	}
+
+	/** Checks the status and undoes any compression */
+	private InputStream body(final HttpResponse<InputStream> httpResponse) throws IOException {
+		return body(httpResponse, httpResponse.body());
+	}
+
+	/** Checks the status and undoes any compression of {@code body}, which holds the response's content */
+	private InputStream body(final HttpResponse<?> httpResponse, final InputStream body) throws IOException {
 		if (httpResponse.statusCode() != 200) {
+			body.close();
 			throw new IllegalStateException("HTTP response code " + httpResponse.statusCode() + " from server at " + endpoint);
 		}
 
-		return httpResponse.body();
+		return Compression.decode(httpResponse.headers().firstValue("Content-Encoding").orElse(null), body);
+	}
+
+	private static void closeQuietly(final InputStream stream) {
+		try {
+			stream.close();
+		} catch (final IOException ignored) {
+		}
 	}
 
 	/**
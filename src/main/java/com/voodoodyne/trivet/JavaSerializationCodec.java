@@ -0,0 +1,61 @@
+package com.voodoodyne.trivet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Standard java serialization, the default codec. Missing exception classes in responses are handled
+ * by the ExceptionalObjectInputStream; requests are read without that.
+ */
+public class JavaSerializationCodec implements Codec {
+
+	/** Null for no filtering beyond the JVM-wide filter */
+	private final ObjectInputFilter filter;
+
+	/** */
+	public JavaSerializationCodec() {
+		this(null);
+	}
+
+	/**
+	 * @param filter decides which classes may be deserialized, in addition to the JVM-wide filter
+	 */
+	public JavaSerializationCodec(final ObjectInputFilter filter) {
+		this.filter = filter;
+	}
+
+	/** @return the filter, or null if there isn't one */
+	public ObjectInputFilter filter() {
+		return filter;
+	}
+
+	@Override
+	public String contentType() {
+		return Client.APPLICATION_JAVA_SERIALIZED_OBJECT;
+	}
+
+	@Override
+	public void write(final Object value, final OutputStream out) throws IOException {
+		final ObjectOutputStream objectStream = new ObjectOutputStream(out);
+		objectStream.writeObject(value);
+		objectStream.flush();
+	}
+
+	@Override
+	public Object read(final InputStream in) throws IOException, ClassNotFoundException {
+		return new ExceptionalObjectInputStream(in, filter).readValue();
+	}
+
+	@Override
+	public Object readRequest(final InputStream in, final ObjectInputFilter requestFilter) throws IOException, ClassNotFoundException {
+		return new FilteredObjectInputStream(in, FilteredObjectInputStream.merge(filter, requestFilter)).readObject();
+	}
+
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName();
+	}
+}
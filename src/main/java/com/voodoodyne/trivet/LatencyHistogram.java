@@ -0,0 +1,97 @@
+package com.voodoodyne.trivet;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values (usually nanoseconds) with roughly 12% precision.
+ * Values are counted in log-linear buckets: 8 buckets per power of two. Recording is a couple of
+ * atomic increments, and memory use is fixed at about 4KB no matter how many values are recorded.
+ */
+public class LatencyHistogram {
+
+	/** 2^SUB_BITS buckets per power of two */
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/** Values below SUB_BUCKETS get a bucket each; then SUB_BUCKETS for each power of two up to 2^62 */
+	private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/** Negative values are recorded as zero */
+	public void record(final long value) {
+		final long v = Math.max(0, value);
+
+		counts.incrementAndGet(bucket(v));
+		count.increment();
+		sum.add(v);
+
+		long currentMax;
+		while (v > (currentMax = max.get()) && !max.compareAndSet(currentMax, v)) {
+			// retry
+		}
+	}
+
+	public long count() {
+		return count.sum();
+	}
+
+	public long max() {
+		return max.get();
+	}
+
+	/** @return the mean, or 0 if nothing has been recorded */
+	public double mean() {
+		final long n = count.sum();
+		return n == 0 ? 0 : (double)sum.sum() / n;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return an upper bound on the value at that percentile, or 0 if nothing has been recorded
+	 */
+	public long percentile(final double percentile) {
+		final long n = count.sum();
+		if (n == 0)
+			return 0;
+
+		final long rank = Math.max(1, (long)Math.ceil(n * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(upperBound(i), max.get());
+		}
+
+		return max.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.0f p50=%d p99=%d max=%d", count(), mean(), percentile(50), percentile(99), max());
+	}
+
+	static int bucket(final long value) {
+		if (value < SUB_BUCKETS)
+			return (int)value;
+
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int sub = (int)(value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + sub;
+	}
+
+	static long upperBound(final int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+
+		final int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+		final long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		final long next = (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS);
+		return next < 0 ? Long.MAX_VALUE : next - 1;
+	}
+}
@@ -0,0 +1,358 @@
+package com.voodoodyne.trivet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * <p>Spreads calls over several replicas of a server, each with its own Endpoint. A Policy picks the
+ * replica for each call. Replicas which fail several calls in a row, or whose average latency is too
+ * high, are ejected for a while and then given another chance. If every replica is ejected, calls go to
+ * all of them anyway; a struggling server is better than none.</p>
+ *
+ * <p>Failed calls are not retried on another replica, since the server may have executed them.</p>
+ */
+public class LoadBalancingEndpoint implements Endpoint {
+	private static final Logger log = LoggerFactory.getLogger(LoadBalancingEndpoint.class);
+
+	/** Weight of the newest sample in the moving average of latency is 1/LATENCY_DECAY */
+	private static final int LATENCY_DECAY = 5;
+
+	/** Replicas which already have the hedged call being sent on this thread */
+	private static final ThreadLocal<Set<Replica>> TRIED = new ThreadLocal<>();
+
+	/**
+	 * Picks which replica gets a call.
+	 */
+	@FunctionalInterface
+	public interface Policy {
+		/**
+		 * @param candidates the healthy replicas; never empty. Must be thread-safe.
+		 */
+		Replica choose(List<Replica> candidates);
+
+		/** Each replica in turn */
+		static Policy roundRobin() {
+			final AtomicInteger next = new AtomicInteger();
+			return candidates -> candidates.get(Math.floorMod(next.getAndIncrement(), candidates.size()));
+		}
+
+		/** The replica with the fewest calls in flight; ties are broken randomly */
+		static Policy leastOutstanding() {
+			return candidates -> {
+				final int start = ThreadLocalRandom.current().nextInt(candidates.size());
+				Replica best = null;
+				for (int i = 0; i < candidates.size(); i++) {
+					final Replica replica = candidates.get((start + i) % candidates.size());
+					if (best == null || replica.outstanding() < best.outstanding())
+						best = replica;
+				}
+				return best;
+			};
+		}
+
+		/**
+		 * Pick two replicas at random and take the one with the lower average latency, weighted by its calls
+		 * in flight. Replicas without a latency yet are preferred, so they get measured.
+		 */
+		static Policy powerOfTwoChoices() {
+			return candidates -> {
+				if (candidates.size() == 1)
+					return candidates.get(0);
+
+				final ThreadLocalRandom random = ThreadLocalRandom.current();
+				final int first = random.nextInt(candidates.size());
+				final int second = (first + 1 + random.nextInt(candidates.size() - 1)) % candidates.size();
+
+				final Replica a = candidates.get(first);
+				final Replica b = candidates.get(second);
+				return a.load() <= b.load() ? a : b;
+			};
+		}
+	}
+
+	/**
+	 * One server, and what we have observed about it.
+	 */
+	public static class Replica {
+		private final Endpoint endpoint;
+		private final AtomicInteger outstanding = new AtomicInteger();
+		private final AtomicLong latencyNanos = new AtomicLong();
+		private final AtomicInteger consecutiveFailures = new AtomicInteger();
+		private final LongAdder ejections = new LongAdder();
+
+		/** Ejected until System.nanoTime() passes this; only meaningful while ejected is true */
+		private volatile long ejectedUntil;
+		private volatile boolean ejected;
+
+		/** */
+		Replica(final Endpoint endpoint) {
+			this.endpoint = endpoint;
+		}
+
+		public Endpoint endpoint() {
+			return endpoint;
+		}
+
+		/** @return the number of calls in flight */
+		public int outstanding() {
+			return outstanding.get();
+		}
+
+		/** @return the moving average of call latency, or 0 if there isn't one yet */
+		public long latencyNanos() {
+			return latencyNanos.get();
+		}
+
+		public boolean isEjected() {
+			return ejected;
+		}
+
+		/** @return the number of times this replica has been ejected */
+		public long ejections() {
+			return ejections.sum();
+		}
+
+		/** Lower is better */
+		long load() {
+			return latencyNanos.get() * (outstanding.get() + 1);
+		}
+
+		/** @return true if the replica should get calls; readmits it if its ejection is over */
+		boolean isAvailable(final long now) {
+			if (!ejected)
+				return true;
+
+			if (now - ejectedUntil < 0)
+				return false;
+
+			// Start over with a clean slate
+			latencyNanos.set(0);
+			consecutiveFailures.set(0);
+			ejected = false;
+			log.info("Readmitting {}", endpoint);
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return "Replica(" + endpoint + ", outstanding=" + outstanding() + ", latencyNanos=" + latencyNanos() + ", ejected=" + ejected + ")";
+		}
+	}
+
+	private final List<Replica> replicas;
+	private final Policy policy;
+
+	/** Eject after this many failures in a row */
+	private int failureThreshold = 5;
+
+	/** Eject if average latency exceeds this; zero means never */
+	private long slowThresholdNanos;
+
+	private long ejectionNanos = Duration.ofSeconds(30).toNanos();
+
+	/**
+	 * Replicas talking HTTP to each of the URIs, sharing a default HttpClient.
+	 */
+	public static LoadBalancingEndpoint of(final Policy policy, final List<URI> uris) {
+		final HttpClient httpClient = HttpClient.newHttpClient();
+
+		final List<Endpoint> endpoints = new ArrayList<>();
+		for (final URI uri : uris)
+			endpoints.add(new JavaHttpEndpoint(uri, httpClient));
+
+		return new LoadBalancingEndpoint(policy, endpoints);
+	}
+
+	/**
+	 * @param endpoints are typically JavaHttpEndpoints for each replica, but can be anything
+	 */
+	public LoadBalancingEndpoint(final Policy policy, final List<? extends Endpoint> endpoints) {
+		if (endpoints.isEmpty())
+			throw new IllegalArgumentException("There must be at least one endpoint");
+
+		final List<Replica> replicas = new ArrayList<>();
+		for (final Endpoint endpoint : endpoints)
+			replicas.add(new Replica(endpoint));
+
+		this.replicas = Collections.unmodifiableList(replicas);
+		this.policy = policy;
+	}
+
+	/** Eject a replica after this many failed calls in a row. Default 5. */
+	public void setFailureThreshold(final int failureThreshold) {
+		this.failureThreshold = failureThreshold;
+	}
+
+	/** Eject a replica if its average latency gets above this. Off by default. */
+	public void setSlowThreshold(final Duration slowThreshold) {
+		this.slowThresholdNanos = slowThreshold.toNanos();
+	}
+
+	/** How long an ejected replica gets no calls. Default 30 seconds. */
+	public void setEjectionTime(final Duration ejectionTime) {
+		this.ejectionNanos = ejectionTime.toNanos();
+	}
+
+	/** @return every replica, ejected or not, for monitoring */
+	public List<Replica> replicas() {
+		return replicas;
+	}
+
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName() + replicas;
+	}
+
+	@Override
+	public InputStream post(final String contentType, final byte[] body, final Class<?> iface) throws IOException {
+		final Replica replica = choose();
+		final long start = begin(replica);
+		try {
+			final InputStream result = replica.endpoint().post(contentType, body, iface);
+			succeeded(replica, start);
+			return result;
+		} catch (final IOException | RuntimeException ex) {
+			failed(replica, ex);
+			throw ex;
+		}
+	}
+
+	@Override
+	public CompletableFuture<InputStream> postAsync(final String contentType, final byte[] body, final Class<?> iface) {
+		final Replica replica = choose();
+		final long start = begin(replica);
+
+		final CompletableFuture<InputStream> result;
+		try {
+			result = replica.endpoint().postAsync(contentType, body, iface);
+		} catch (final RuntimeException ex) {
+			failed(replica, ex);
+			return CompletableFuture.failedFuture(ex);
+		}
+
+		return result.whenComplete((stream, ex) -> {
+			if (ex == null)
+				succeeded(replica, start);
+			else
+				failed(replica, Futures.unwrap(ex));
+		});
+	}
+
+	@Override
+	public InputStream postStreaming(final String contentType, final BodyWriter body, final Class<?> iface) throws IOException {
+		final Replica replica = choose();
+		final long start = begin(replica);
+		try {
+			final InputStream result = replica.endpoint().postStreaming(contentType, body, iface);
+			succeeded(replica, start);
+			return result;
+		} catch (final IOException | RuntimeException ex) {
+			failed(replica, ex);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Send an attempt of a hedged call, which goes to a replica not already in tried (if there is one).
+	 * The replica it goes to is added to tried, so the next attempt goes somewhere else again.
+	 */
+	static <T> T avoiding(final Set<Replica> tried, final Supplier<T> attempt) {
+		final Set<Replica> previous = TRIED.get();
+		TRIED.set(tried);
+		try {
+			return attempt.get();
+		} finally {
+			if (previous == null)
+				TRIED.remove();
+			else
+				TRIED.set(previous);
+		}
+	}
+
+	/** Pick a replica and note it for any later attempts of a hedged call */
+	private Replica choose() {
+		final Set<Replica> tried = TRIED.get();
+		final Replica replica = choose(tried);
+		if (tried != null)
+			tried.add(replica);
+
+		return replica;
+	}
+
+	/**
+	 * Ask the policy, offering only the replicas which aren't ejected and haven't been tried (unless
+	 * that leaves none).
+	 */
+	private Replica choose(final Set<Replica> tried) {
+		if (replicas.size() == 1)
+			return replicas.get(0);
+
+		final long now = System.nanoTime();
+		List<Replica> available = null;
+		for (int i = 0; i < replicas.size(); i++) {
+			final Replica replica = replicas.get(i);
+			if (!replica.isAvailable(now) || (tried != null && tried.contains(replica))) {
+				// Only copy the list when something is actually ejected, which is rare
+				if (available == null)
+					available = new ArrayList<>(replicas.subList(0, i));
+			} else if (available != null) {
+				available.add(replica);
+			}
+		}
+
+		if (available == null)
+			return policy.choose(replicas);
+
+		return policy.choose(available.isEmpty() ? replicas : available);
+	}
+
+	private long begin(final Replica replica) {
+		replica.outstanding.incrementAndGet();
+		return System.nanoTime();
+	}
+
+	private void succeeded(final Replica replica, final long start) {
+		replica.outstanding.decrementAndGet();
+		replica.consecutiveFailures.set(0);
+
+		final long sample = System.nanoTime() - start;
+		final long average = replica.latencyNanos.accumulateAndGet(sample, (old, latest) -> old == 0 ? latest : old + (latest - old) / LATENCY_DECAY);
+
+		if (slowThresholdNanos > 0 && average > slowThresholdNanos)
+			eject(replica, "average latency " + Duration.ofNanos(average).toMillis() + "ms");
+	}
+
+	private void failed(final Replica replica, final Throwable ex) {
+		replica.outstanding.decrementAndGet();
+
+		final int failures = replica.consecutiveFailures.incrementAndGet();
+		if (failures >= failureThreshold)
+			eject(replica, failures + " consecutive failures, most recently " + ex);
+	}
+
+	private void eject(final Replica replica, final String reason) {
+		if (replica.ejected || replicas.size() == 1)
+			return;
+
+		replica.ejectedUntil = System.nanoTime() + ejectionNanos;
+		replica.ejected = true;
+		replica.ejections.increment();
+		log.warn("Ejecting {} for {}ms: {}", replica.endpoint(), Duration.ofNanos(ejectionNanos).toMillis(), reason);
+	}
+}
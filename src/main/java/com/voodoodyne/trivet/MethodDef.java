@@ -2,6 +2,7 @@ package com.voodoodyne.trivet;
 
 import java.io.Serializable;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 
 /**
  * A serializable definition of a Method; the java Method itself is not serializable.
@@ -27,6 +28,48 @@ public record MethodDef(
 		return clazz.getMethod(name, parameterTypes);
 	}
 
+	/**
+	 * A stable 64-bit identifier derived from the signature, the same in every JVM. Used by compact
+	 * requests in place of the full definition. This is computed each time, so cache it.
+	 */
+	public long id() {
+		// FNV-1a over the signature
+		long hash = 0xcbf29ce484222325L;
+
+		final StringBuilder signature = new StringBuilder(clazz.getName()).append('#').append(name).append('(');
+		for (final Class<?> parameterType : parameterTypes)
+			signature.append(parameterType.getName()).append(',');
+		signature.append(')');
+
+		for (int i = 0; i < signature.length(); i++) {
+			hash ^= signature.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+
+		// Zero means "no id" in a Request
+		return hash == 0 ? 1 : hash;
+	}
+
+	/**
+	 * The record default would compare the parameterTypes array by identity, which makes
+	 * deserialized instances useless as map keys.
+	 */
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o)
+			return true;
+
+		return o instanceof MethodDef other
+			&& clazz == other.clazz
+			&& name.equals(other.name)
+			&& Arrays.equals(parameterTypes, other.parameterTypes);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * clazz.hashCode() + name.hashCode()) + Arrays.hashCode(parameterTypes);
+	}
+
 	@Override
 	public String toString() {
 		return clazz.getName() + "#" + name;
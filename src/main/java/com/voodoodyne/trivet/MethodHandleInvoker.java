@@ -0,0 +1,36 @@
+package com.voodoodyne.trivet;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * Invokes through a MethodHandle which has been adapted to {@code (Object, Object[])Object}
+ * so that we can use invokeExact() regardless of the real signature.
+ */
+class MethodHandleInvoker implements Invoker {
+	private static final MethodType GENERIC = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+	private final MethodHandle handle;
+	private final Method method;
+
+	/** */
+	MethodHandleInvoker(final Method method) throws IllegalAccessException {
+		this.method = method;
+		this.handle = MethodHandles.lookup().unreflect(method)
+			.asFixedArity()
+			.asSpreader(Object[].class, method.getParameterCount())
+			.asType(GENERIC);
+	}
+
+	@Override
+	public Object invoke(final Object service, final Object[] args) throws Throwable {
+		return (Object)handle.invokeExact(service, args);
+	}
+
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName() + "(" + method + ")";
+	}
+}
@@ -0,0 +1,108 @@
+package com.voodoodyne.trivet;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A CallListener which keeps latency histograms and counters for every method, separately for the
+ * client and server sides. Everything is lock-free. Read the numbers with {@code get()} or {@code all()}
+ * and export them to whatever metrics system you use.
+ */
+public class MetricsListener implements CallListener {
+
+	/**
+	 * Everything we know about one method on one side.
+	 */
+	public static class MethodMetrics {
+		private final Map<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+		private final Map<Phase, LongAdder> bytes = new EnumMap<>(Phase.class);
+		private final LatencyHistogram total = new LatencyHistogram();
+		private final LongAdder errors = new LongAdder();
+
+		/** */
+		MethodMetrics() {
+			// Fully populated up front, so the maps are never modified after construction
+			for (final Phase phase : Phase.values()) {
+				phases.put(phase, new LatencyHistogram());
+				bytes.put(phase, new LongAdder());
+			}
+		}
+
+		/** @return nanoseconds spent in the phase, per call */
+		public LatencyHistogram phase(final Phase phase) {
+			return phases.get(phase);
+		}
+
+		/** @return total bytes encoded or decoded in the phase; zero for other phases */
+		public long bytes(final Phase phase) {
+			return bytes.get(phase).sum();
+		}
+
+		/** @return nanoseconds per completed call */
+		public LatencyHistogram total() {
+			return total;
+		}
+
+		public long calls() {
+			return total.count();
+		}
+
+		public long errors() {
+			return errors.sum();
+		}
+
+		@Override
+		public String toString() {
+			return "calls=" + calls() + " errors=" + errors() + " total(" + total + ")";
+		}
+	}
+
+	private final ConcurrentMap<MethodDef, MethodMetrics> client = new ConcurrentHashMap<>();
+	private final ConcurrentMap<MethodDef, MethodMetrics> server = new ConcurrentHashMap<>();
+
+	@Override
+	public void phase(final Side side, final MethodDef method, final Phase phase, final long nanos, final long bytes) {
+		final MethodMetrics metrics = metrics(side, method);
+		metrics.phase(phase).record(nanos);
+		if (bytes >= 0)
+			metrics.bytes.get(phase).add(bytes);
+	}
+
+	@Override
+	public void completed(final Side side, final MethodDef method, final long nanos, final Throwable thrown) {
+		final MethodMetrics metrics = metrics(side, method);
+		metrics.total.record(nanos);
+		if (thrown != null)
+			metrics.errors.increment();
+	}
+
+	/** @return the metrics for the method, or null if it hasn't been called */
+	public MethodMetrics get(final Side side, final MethodDef method) {
+		return map(side).get(method);
+	}
+
+	/** @return a live, read-only view of the metrics for every method called so far */
+	public Map<MethodDef, MethodMetrics> all(final Side side) {
+		return Collections.unmodifiableMap(map(side));
+	}
+
+	private ConcurrentMap<MethodDef, MethodMetrics> map(final Side side) {
+		return side == Side.CLIENT ? client : server;
+	}
+
+	private MethodMetrics metrics(final Side side, final MethodDef method) {
+		final ConcurrentMap<MethodDef, MethodMetrics> map = map(side);
+
+		final MethodMetrics existing = map.get(method);
+		if (existing != null)
+			return existing;
+
+		final MethodMetrics created = new MethodMetrics();
+		final MethodMetrics raced = map.putIfAbsent(method, created);
+		return raced != null ? raced : created;
+	}
+}
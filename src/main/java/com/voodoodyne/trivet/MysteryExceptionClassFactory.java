@@ -1,7 +1,9 @@
 package com.voodoodyne.trivet;
 
 import java.io.ObjectStreamClass;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
 
 import net.bytebuddy.ByteBuddy;
 import net.bytebuddy.description.modifier.FieldManifestation;
@@ -10,31 +12,102 @@ import net.bytebuddy.description.modifier.Visibility;
 import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
 import net.bytebuddy.dynamic.scaffold.subclass.ConstructorStrategy.Default;
 
-class MysteryExceptionClassFactory {
+/**
+ * Generates the MysteryException subclasses that stand in for exception classes missing on the client.
+ * Each generated class gets its own ClassLoader, so the same name can be generated with different
+ * serialVersionUIDs, and classes evicted from the (bounded) cache can be unloaded once nothing uses them.
+ */
+public class MysteryExceptionClassFactory {
     private static final ByteBuddy BUILDER = new ByteBuddy();
-    private static final ClassLoader LOADER = new ClassLoader(MysteryException.class.getClassLoader()) {};
 
-    private static ConcurrentHashMap<String, Class<?>> CACHE = new ConcurrentHashMap<>();
+    /** Enough for every exception class of a good many servers */
+    private static final int MAX_CLASSES = 1000;
 
-    public static Class<?> get(final ObjectStreamClass desc) {
-        return CACHE.computeIfAbsent(desc.getName(), key -> create(desc));
+    private static final MysteryExceptionClassFactory INSTANCE = new MysteryExceptionClassFactory(MAX_CLASSES);
+
+    /**
+     * @param generated the number of classes generated so far; more than the cache size suggests thrashing
+     * @param generationNanos total time spent generating them
+     * @param cache the state of the cache of generated classes
+     */
+    public record Stats(long generated, long generationNanos, CacheStats cache) {}
+
+    /** Identifies a missing class; the same name can have a different serialVersionUID on different servers */
+    private record ClassKey(String name, long serialVersionUID) {}
+
+    private final BoundedCache<ClassKey, Class<?>> cache;
+
+    /**
+     * Only one thread generates any given class. This isn't computeIfAbsent() because generation is slow,
+     * and computeIfAbsent() holds a monitor which would pin virtual threads.
+     */
+    private final SingleFlight<ClassKey, Class<?>> generating = new SingleFlight<>();
+
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder generationNanos = new LongAdder();
+
+    /** */
+    MysteryExceptionClassFactory(final int maxClasses) {
+        this.cache = new BoundedCache<>(maxClasses);
+    }
+
+    /** @return a MysteryException subclass with the name and serialVersionUID of the missing class */
+    static Class<?> get(final ObjectStreamClass desc) {
+        return INSTANCE.get(desc.getName(), desc.getSerialVersionUID());
     }
 
-    private static Class<?> create(final ObjectStreamClass desc) {
-        final String originalName = desc.getName();
-        final long serialVersionUID = desc.getSerialVersionUID();
+    /** @return statistics for the shared factory used when deserializing */
+    public static Stats stats() {
+        return INSTANCE.instanceStats();
+    }
 
-        return BUILDER
+    Class<?> get(final String name, final long serialVersionUID) {
+        final ClassKey key = new ClassKey(name, serialVersionUID);
+
+        final Class<?> existing = cache.get(key);
+        if (existing != null)
+            return existing;
+
+        try {
+            return generating.execute(key, () -> {
+                // Someone may have finished generating it between our lookup and now
+                final Class<?> raced = cache.get(key);
+                final Class<?> clazz = raced != null ? raced : create(key);
+                cache.put(key, clazz);
+                return CompletableFuture.completedFuture(clazz);
+            }).join();
+        } catch (final CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException runtime)
+                throw runtime;
+            if (ex.getCause() instanceof Error error)
+                throw error;
+            throw ex;
+        }
+    }
+
+    Stats instanceStats() {
+        return new Stats(generated.sum(), generationNanos.sum(), cache.stats());
+    }
+
+    private Class<?> create(final ClassKey key) {
+        final long start = System.nanoTime();
+
+        final Class<?> created = BUILDER
             .subclass(MysteryException.class, Default.DEFAULT_CONSTRUCTOR)
-            .name(originalName)
+            .name(key.name())
             .defineField("serialVersionUID", long.class,
                 Visibility.PRIVATE,
                 Ownership.STATIC,
                 FieldManifestation.FINAL
             )
-            .value(serialVersionUID)
+            .value(key.serialVersionUID())
             .make()
-            .load(LOADER, ClassLoadingStrategy.Default.INJECTION)
+            // WRAPPER puts each class in a new ClassLoader of its own
+            .load(MysteryException.class.getClassLoader(), ClassLoadingStrategy.Default.WRAPPER)
             .getLoaded();
+
+        generated.increment();
+        generationNanos.add(System.nanoTime() - start);
+        return created;
     }
-}
\ No newline at end of file
+}
@@ -102,11 +102,16 @@ public class OptionalHack {
 
 	/** Remove optional from the result if appropriate */
 	public static Response strip(final Response original, final Method method) {
+		return strip(original, method.getReturnType());
+	}
+
+	/** Remove optional from the result if appropriate */
+	public static Response strip(final Response original, final Class<?> resultType) {
 		if (original.isThrown())
 			return original;
 
 		try {
-			final Object result = strip(original.result(), method.getReturnType());
+			final Object result = strip(original.result(), resultType);
 			return original.withResult(result);
 		} catch (final Exception e) {
 			return new Response(null, e);
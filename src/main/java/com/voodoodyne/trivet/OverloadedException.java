@@ -0,0 +1,17 @@
+package com.voodoodyne.trivet;
+
+
+import java.io.Serial;
+
+/**
+ * Sent back by the server when a call is rejected because its Bulkhead is full. The call was never
+ * started, so it is always safe to retry, preferably after backing off or against another server.
+ */
+public class OverloadedException extends RuntimeException {
+	@Serial
+	private static final long serialVersionUID = 1L;
+
+	public OverloadedException(final String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,149 @@
+package com.voodoodyne.trivet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded byte pipe between one writing thread and one reading thread. This replaces
+ * PipedInputStream/PipedOutputStream, which wait inside synchronized methods (pinning virtual
+ * threads to their carriers) and poll once a second for the other side to die.
+ */
+final class Pipe {
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	/** Circular buffer; all guarded by lock */
+	private final byte[] buffer;
+	private int readPos;
+	private int count;
+	private boolean writerClosed;
+	private boolean readerClosed;
+
+	private final InputStream input = new InputStream() {
+		@Override
+		public int read() throws IOException {
+			final byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (len == 0)
+				return 0;
+
+			lock.lock();
+			try {
+				while (count == 0 && !writerClosed && !readerClosed)
+					notEmpty.await();
+
+				if (readerClosed)
+					throw new IOException("Pipe closed");
+
+				if (count == 0)
+					return -1;
+
+				final int n = Math.min(len, Math.min(count, buffer.length - readPos));
+				System.arraycopy(buffer, readPos, b, off, n);
+				readPos = (readPos + n) % buffer.length;
+				count -= n;
+
+				notFull.signal();
+				return n;
+			} catch (final InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int available() {
+			lock.lock();
+			try {
+				return count;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void close() {
+			lock.lock();
+			try {
+				readerClosed = true;
+				notFull.signalAll();
+				notEmpty.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	};
+
+	private final OutputStream output = new OutputStream() {
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte)b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				lock.lock();
+				try {
+					while (count == buffer.length && !readerClosed)
+						notFull.await();
+
+					if (readerClosed || writerClosed)
+						throw new IOException("Pipe closed");
+
+					final int writePos = (readPos + count) % buffer.length;
+					final int n = Math.min(len, Math.min(buffer.length - count, buffer.length - writePos));
+					System.arraycopy(b, off, buffer, writePos, n);
+					count += n;
+					off += n;
+					len -= n;
+
+					notEmpty.signal();
+				} catch (final InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+			lock.lock();
+			try {
+				writerClosed = true;
+				notEmpty.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	};
+
+	/** */
+	Pipe(final int size) {
+		this.buffer = new byte[size];
+	}
+
+	/** The reading end; closing it makes further writes fail */
+	public InputStream input() {
+		return input;
+	}
+
+	/** The writing end; closing it gives the reader end-of-stream once the buffer drains */
+	public OutputStream output() {
+		return output;
+	}
+}
@@ -0,0 +1,30 @@
+package com.voodoodyne.trivet;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * The fallback invoker, using plain old reflection.
+ */
+class ReflectiveInvoker implements Invoker {
+	private final Method method;
+
+	/** */
+	ReflectiveInvoker(final Method method) {
+		this.method = method;
+	}
+
+	@Override
+	public Object invoke(final Object service, final Object[] args) throws Throwable {
+		try {
+			return method.invoke(service, args);
+		} catch (final InvocationTargetException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName() + "(" + method + ")";
+	}
+}
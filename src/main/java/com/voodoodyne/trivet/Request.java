@@ -2,26 +2,80 @@ package com.voodoodyne.trivet;
 
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The serialized request that is posted to the servlet.
  *
- * @param method Which method to call. Must be on an interface.
+ * @param method Which method to call. Must be on an interface. Null if this is a compact request.
  * @param args Arguments to the method; must match the method def parameter types
+ * @param methodId The {@code MethodDef.id()} of the method in a compact request, otherwise 0.
+ *                 Older servers ignore this field, so only send compact requests to servers that understand them.
+ * @param timeout Milliseconds the server has to start the call, counting from when it reads the request;
+ *                0 means forever. Older servers ignore this field. The name is short because BinaryCodec
+ *                puts it on the wire.
  */
 public record Request(
 		MethodDef method,
-		Object[] args
+		Object[] args,
+		long methodId,
+		long timeout
 ) implements Serializable {
+
+	/** A normal request which describes the method in full */
+	public Request(final MethodDef method, final Object[] args) {
+		this(method, args, 0, 0);
+	}
+
+	/** Without a timeout */
+	public Request(final MethodDef method, final Object[] args, final long methodId) {
+		this(method, args, methodId, 0);
+	}
+
+	/** A request which identifies the method only by its id */
+	public static Request compact(final long methodId, final Object[] args) {
+		return new Request(null, args, methodId);
+	}
+
+	/**
+	 * The timeout counts from when the request is read, so call this once, as soon as it has been decoded.
+	 * @return the deadline for the call, counting from now, or null if there is none
+	 */
+	public Deadline deadline() {
+		return timeout > 0 ? Deadline.afterNanos(TimeUnit.MILLISECONDS.toNanos(timeout)) : null;
+	}
+
+	/** @return true if the method must be looked up by methodId */
+	public boolean isCompact() {
+		return method == null;
+	}
+
 	@Override
 	public String toString() {
-		return "Request[method=" + method + ", args=" + Arrays.toString(args) + ']';
+		final String methodStr = isCompact() ? ("#" + Long.toHexString(methodId)) : String.valueOf(method);
+		final String timeoutStr = timeout > 0 ? ", timeout=" + timeout + "ms" : "";
+		return "Request[method=" + methodStr + ", args=" + Arrays.toString(args) + timeoutStr + ']';
 	}
 
 	public Request withArgs(final Object[] args) {
 		if (this.args == args)
 			return this;
 
-		return new Request(method, args);
+		return new Request(method, args, methodId, timeout);
+	}
+
+	public Request withMethod(final MethodDef method) {
+		if (this.method == method)
+			return this;
+
+		return new Request(method, args, methodId, timeout);
+	}
+
+	/** @param timeout in milliseconds */
+	public Request withTimeout(final long timeout) {
+		if (this.timeout == timeout)
+			return this;
+
+		return new Request(method, args, methodId, timeout);
 	}
 }
@@ -0,0 +1,146 @@
+package com.voodoodyne.trivet;
+
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>The server's request filtering, with a SignatureFilter for each registered interface, so that one
+ * interface with an Object parameter doesn't open up all the others.</p>
+ *
+ * <p>While a message is being decoded, which interface it calls isn't known yet (Java serialization writes
+ * a Request's args before its method), so a class gets in if any interface allows it. Afterwards the message
+ * is checked again: a class which some interfaces don't allow must be allowed by one the message calls.</p>
+ */
+final class RequestFilter {
+
+	/** The filters, with what we've learned from them; replaced (never modified) when an interface is added */
+	private volatile Registered registered = new Registered(Map.of());
+
+	private final ReentrantLock addLock = new ReentrantLock();
+
+	/**
+	 * @param partial has the interfaces which allow each class, when that's some but not all of them
+	 * @param universal has the classes which every interface allows
+	 */
+	private record Registered(
+			Map<Class<?>, SignatureFilter> byInterface,
+			ConcurrentMap<Class<?>, Set<Class<?>>> partial,
+			Set<Class<?>> universal
+	) {
+		/** */
+		Registered(final Map<Class<?>, SignatureFilter> byInterface) {
+			this(byInterface, new ConcurrentHashMap<>(), ConcurrentHashMap.newKeySet());
+		}
+
+		/**
+		 * @return the interfaces which allow the class, all of them (as null) or none (as an empty set)
+		 */
+		Set<Class<?>> allowedBy(final Class<?> type) {
+			if (universal.contains(type))
+				return null;
+
+			final Set<Class<?>> known = partial.get(type);
+			if (known != null)
+				return known;
+
+			final Set<Class<?>> ifaces = new HashSet<>();
+			for (final Map.Entry<Class<?>, SignatureFilter> entry : byInterface.entrySet()) {
+				if (entry.getValue().isAllowed(type))
+					ifaces.add(entry.getKey());
+			}
+
+			if (ifaces.size() == byInterface.size()) {
+				universal.add(type);
+				return null;
+			}
+
+			// Rejected classes aren't remembered; anyone can send us names
+			if (!ifaces.isEmpty())
+				partial.putIfAbsent(type, Set.copyOf(ifaces));
+
+			return ifaces;
+		}
+	}
+
+	/** Allow the parameters of the interface's methods, in calls to that interface */
+	void add(final Class<?> iface) {
+		addLock.lock();
+		try {
+			if (registered.byInterface().containsKey(iface))
+				return;
+
+			final SignatureFilter filter = SignatureFilter.forRequests();
+			filter.addRequests(iface);
+
+			final Map<Class<?>, SignatureFilter> next = new LinkedHashMap<>(registered.byInterface());
+			next.put(iface, filter);
+			registered = new Registered(Map.copyOf(next));
+		} finally {
+			addLock.unlock();
+		}
+	}
+
+	/** @return a filter for reading one message, which must then be checked with {@code verify()} */
+	Message forMessage() {
+		return new Message(registered);
+	}
+
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName() + registered.byInterface().keySet();
+	}
+
+	/** The filter for one message, which remembers what it let in on behalf of only some interfaces */
+	static final class Message implements ObjectInputFilter {
+		private final Registered registered;
+
+		/** Classes let in which some interfaces would have rejected, with the ones which allow them */
+		private Map<Class<?>, Set<Class<?>>> restricted;
+
+		/** */
+		private Message(final Registered registered) {
+			this.registered = registered;
+		}
+
+		@Override
+		public Status checkInput(final FilterInfo filterInfo) {
+			final Class<?> type = filterInfo.serialClass();
+			if (type == null)
+				return Status.UNDECIDED;
+
+			final Set<Class<?>> ifaces = registered.allowedBy(type);
+			if (ifaces == null)
+				return Status.ALLOWED;
+			if (ifaces.isEmpty())
+				return Status.REJECTED;
+
+			if (restricted == null)
+				restricted = new LinkedHashMap<>();
+
+			restricted.put(type, ifaces);
+			return Status.ALLOWED;
+		}
+
+		/**
+		 * @param called are the interfaces of the calls in the message which will be invoked
+		 * @throws InvalidClassException if the message contained a class none of them could have sent
+		 */
+		void verify(final Collection<Class<?>> called) throws InvalidClassException {
+			if (restricted == null)
+				return;
+
+			for (final Map.Entry<Class<?>, Set<Class<?>>> entry : restricted.entrySet()) {
+				if (called.stream().noneMatch(entry.getValue()::contains))
+					throw new InvalidClassException(entry.getKey().getName(), "Not allowed by " + called);
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.voodoodyne.trivet;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+/**
+ * <p>Server-side cache of the encoded responses of {@code @Idempotent} methods, keyed by method, arguments,
+ * and codec. Give one to {@code TrivetServer.setResponseCache()}. A hit costs neither the invocation nor the
+ * encoding of the response; the cached bytes are written as they are. Concurrent identical requests which
+ * miss run the method only once. Exceptions are not cached.</p>
+ *
+ * <p>Responses are fresh for the TTL given here, or for the method's {@code @Cacheable} TTL if it has one.
+ * Only idempotent methods which don't change anything (reads, really) should be cached; an idempotent write
+ * repeated within the TTL would be skipped.</p>
+ *
+ * <p>Responses are shared between callers, including different authenticated users, so cached methods must
+ * depend on nothing but their arguments. A method which reads the current user or any other per-request
+ * context will hand one caller's response to another.</p>
+ */
+public class ResponseCache {
+
+	/** Responses in different formats are different bytes */
+	record Key(String contentType, CallKey call) {}
+
+	private final BoundedCache<Key, byte[]> cache;
+	private final SingleFlight<Key, byte[]> loading = new SingleFlight<>();
+	private final long ttlNanos;
+
+	/**
+	 * @param maxBytes the total size of the cached responses; responses bigger than this aren't cached
+	 * @param ttl how long responses stay fresh, unless the method says otherwise with {@code @Cacheable}
+	 */
+	public ResponseCache(final long maxBytes, final Duration ttl) {
+		this.cache = new BoundedCache<>(maxBytes, bytes -> bytes.length);
+		this.ttlNanos = ttl.toNanos();
+	}
+
+	/** Forget everything, say because the data behind it changed */
+	public void invalidateAll() {
+		cache.clear();
+	}
+
+	/** Forget all responses of methods on the interface */
+	public void invalidate(final Class<?> iface) {
+		cache.removeIf(key -> key.call().method().clazz() == iface);
+	}
+
+	/** The size in bytes of the cached responses is the weight */
+	public CacheStats stats() {
+		return cache.stats();
+	}
+
+	long ttlNanos() {
+		return ttlNanos;
+	}
+
+	/**
+	 * @param respond encodes a fresh response, and caches it if it should be; only called if nothing is
+	 *                cached and nobody else is already responding to the same request
+	 */
+	CompletableFuture<byte[]> get(final Key key, final Supplier<? extends CompletionStage<byte[]>> respond) {
+		final byte[] cached = cache.get(key);
+		if (cached != null)
+			return CompletableFuture.completedFuture(cached);
+
+		return loading.execute(key, respond);
+	}
+
+	void put(final Key key, final byte[] response, final long ttlNanos) {
+		cache.put(key, response, ttlNanos);
+	}
+}
@@ -0,0 +1,60 @@
+package com.voodoodyne.trivet;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Client-side cache of the results of {@code @Cacheable} methods, keyed by method and arguments. Give
+ * one to {@code ClientFactory.setResultCache()}. Arguments are compared with equals() (arrays by
+ * content), so they should be values which aren't modified after the call. Cached results are shared
+ * between callers, so they should be immutable too.
+ *
+ * The cache doesn't know which server a result came from; don't share one between factories that talk
+ * to different servers.
+ */
+public class ResultCache {
+
+	/** Results are wrapped so null can be cached */
+	record Cached(Object result) {}
+
+	private final BoundedCache<CallKey, Cached> cache;
+
+	/**
+	 * Hold at most this many results.
+	 */
+	public ResultCache(final long maxEntries) {
+		this.cache = new BoundedCache<>(maxEntries);
+	}
+
+	/**
+	 * Hold results up to a total weight, for example an estimate of their size in bytes.
+	 * @param weigher is given each result as the caller sees it (possibly null, never a future)
+	 */
+	public ResultCache(final long maxWeight, final ToLongFunction<Object> weigher) {
+		this.cache = new BoundedCache<>(maxWeight, value -> weigher.applyAsLong(value.result()));
+	}
+
+	/** Forget everything, say because the server told you its data changed */
+	public void invalidateAll() {
+		cache.clear();
+	}
+
+	/** Forget all results of methods on the interface */
+	public void invalidate(final Class<?> iface) {
+		cache.removeIf(key -> key.method().clazz() == iface);
+	}
+
+	public CacheStats stats() {
+		return cache.stats();
+	}
+
+	/**
+	 * @return the cached result (which may itself be null), or null if nothing fresh is cached
+	 */
+	Cached get(final MethodDef method, final Object[] args) {
+		return cache.get(new CallKey(method, args));
+	}
+
+	void put(final MethodDef method, final Object[] args, final Object result, final long ttlNanos) {
+		cache.put(new CallKey(method, args), new Cached(result), ttlNanos);
+	}
+}
@@ -0,0 +1,264 @@
+package com.voodoodyne.trivet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Java serialization for one session between a TcpEndpoint and a TcpListener, which sends each class
+ * descriptor (the class name, serialVersionUID, and every field name and type) only once per session.
+ * After that, a descriptor is just a number. For small calls the descriptors are most of the bytes, and
+ * most of the work of reading them.</p>
+ *
+ * <p>Both sides keep a dictionary of the descriptors they have sent and received. Messages can be decoded
+ * in any order, so a descriptor is only referred to by number once the other side has acknowledged it;
+ * until then, it's sent in full (with its number) every time. Each message starts with the session id and
+ * the numbers of descriptors received since the last message, which is how acknowledgements travel.</p>
+ *
+ * <p>Descriptor numbers are handed out in order, so the receiving side only accepts numbers a little
+ * ahead of what it already has (messages can overtake each other), and no more than MAX_DESCRIPTORS
+ * in all. Otherwise the other side could make us remember as much as it liked.</p>
+ *
+ * <p>The server forgets a session when its last connection closes, which the client may not notice (a
+ * restart, or a peer which vanished). The server tells each new connection whether it had to start the
+ * session afresh; if so, and the client's side has history, the client retires the session and starts
+ * another.</p>
+ */
+final class SessionCodec implements Codec {
+
+	/** Only understood by TcpListener */
+	static final String CONTENT_TYPE = "application/x-java-serialized-object-session";
+
+	private static final byte DEFINITION = 0;
+	private static final byte REFERENCE = 1;
+
+	/** Acknowledgements beyond this wait for the next message */
+	private static final int MAX_ACKS = 1024;
+
+	/** The most descriptors one side of a session may define */
+	private static final int MAX_DESCRIPTORS = 8192;
+
+	/** How far beyond the descriptors received so far a new one's number may be */
+	private static final int MAX_AHEAD = 1024;
+
+	/** A descriptor we have sent */
+	private static final class Sent {
+		final int id;
+		volatile boolean acknowledged;
+
+		/** */
+		Sent(final int id) {
+			this.id = id;
+		}
+	}
+
+	private final long id;
+
+	private final AtomicInteger nextId = new AtomicInteger();
+	private final Map<Class<?>, Sent> sent = new ConcurrentHashMap<>();
+	private final Map<Integer, Sent> sentById = new ConcurrentHashMap<>();
+
+	private final Map<Integer, ObjectStreamClass> received = new ConcurrentHashMap<>();
+
+	/** Received but not yet acknowledged, in order and as a set so that repeated definitions are acked once */
+	private final Queue<Integer> unacknowledged = new ConcurrentLinkedQueue<>();
+	private final Set<Integer> pendingAcks = ConcurrentHashMap.newKeySet();
+
+	/** Open connections using this session */
+	private final AtomicInteger connections = new AtomicInteger();
+	private volatile boolean joined;
+
+	/** Set when the server turns out to have forgotten the session; a new one must be started */
+	private volatile boolean retired;
+
+	/** */
+	SessionCodec(final long id) {
+		this.id = id;
+	}
+
+	long id() {
+		return id;
+	}
+
+	/** @return true if this is the first connection to use the session */
+	boolean join() {
+		connections.incrementAndGet();
+		final boolean first = !joined;
+		joined = true;
+		return first;
+	}
+
+	/** @return the number of connections still using the session */
+	int leave() {
+		return connections.decrementAndGet();
+	}
+
+	/** @return true if the session has had connections, but they have all closed */
+	boolean isAbandoned() {
+		return joined && connections.get() == 0;
+	}
+
+	/** Stop using the session, because the other side no longer has the same dictionaries */
+	void retire() {
+		retired = true;
+	}
+
+	boolean isRetired() {
+		return retired;
+	}
+
+	/**
+	 * @return true if messages depend on the other side remembering this session: it has acknowledged a
+	 * descriptor we sent, or sent us one which it will refer to by number.
+	 */
+	boolean hasHistory() {
+		if (!received.isEmpty())
+			return true;
+
+		for (final Sent entry : sent.values())
+			if (entry.acknowledged)
+				return true;
+
+		return false;
+	}
+
+	@Override
+	public String contentType() {
+		return CONTENT_TYPE;
+	}
+
+	@Override
+	public void write(final Object value, final OutputStream out) throws IOException {
+		final DataOutputStream data = new DataOutputStream(out);
+		data.writeLong(id);
+
+		final int[] acks = new int[Math.min(MAX_ACKS, unacknowledged.size())];
+		int count = 0;
+		Integer ack;
+		while (count < acks.length && (ack = unacknowledged.poll()) != null) {
+			pendingAcks.remove(ack);
+			acks[count++] = ack;
+		}
+
+		data.writeShort(count);
+		for (int i = 0; i < count; i++)
+			data.writeInt(acks[i]);
+
+		final ObjectOutputStream objectStream = new SessionOutputStream(out);
+		objectStream.writeObject(value);
+		objectStream.flush();
+	}
+
+	@Override
+	public Object read(final InputStream in) throws IOException, ClassNotFoundException {
+		return read(in, null, true);
+	}
+
+	@Override
+	public Object readRequest(final InputStream in, final ObjectInputFilter filter) throws IOException, ClassNotFoundException {
+		return read(in, filter, false);
+	}
+
+	/**
+	 * @param filter can be null
+	 * @param standIns whether missing classes become MysteryExceptions
+	 */
+	private Object read(final InputStream in, final ObjectInputFilter filter, final boolean standIns) throws IOException, ClassNotFoundException {
+		final DataInputStream data = new DataInputStream(in);
+
+		final long session = data.readLong();
+		if (session != id)
+			throw new StreamCorruptedException("Message is for session " + session + ", not " + id);
+
+		final int count = data.readUnsignedShort();
+		for (int i = 0; i < count; i++) {
+			final Sent acknowledged = sentById.get(data.readInt());
+			if (acknowledged != null)
+				acknowledged.acknowledged = true;
+		}
+
+		return new SessionInputStream(in, filter, standIns).readValue();
+	}
+
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName() + "(" + id + ", sent=" + sent.size() + ", received=" + received.size() + ")";
+	}
+
+	private Sent sent(final Class<?> type) {
+		final Sent existing = sent.get(type);
+		if (existing != null)
+			return existing;
+
+		// Ids must not be skipped, or the other side would reject the ones after the gap
+		return sent.computeIfAbsent(type, ignored -> {
+			final Sent created = new Sent(nextId.getAndIncrement());
+			sentById.put(created.id, created);
+			return created;
+		});
+	}
+
+	private class SessionOutputStream extends ObjectOutputStream {
+		/** */
+		SessionOutputStream(final OutputStream out) throws IOException {
+			super(out);
+		}
+
+		@Override
+		protected void writeClassDescriptor(final ObjectStreamClass desc) throws IOException {
+			final Sent entry = sent(desc.forClass());
+			if (entry.acknowledged) {
+				writeByte(REFERENCE);
+				writeInt(entry.id);
+			} else {
+				writeByte(DEFINITION);
+				writeInt(entry.id);
+				super.writeClassDescriptor(desc);
+			}
+		}
+	}
+
+	private class SessionInputStream extends FilteredObjectInputStream {
+		/** */
+		SessionInputStream(final InputStream in, final ObjectInputFilter filter, final boolean standIns) throws IOException {
+			super(in, filter, standIns);
+		}
+
+		@Override
+		protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+			final byte kind = readByte();
+			final int descId = readInt();
+
+			if (kind == DEFINITION) {
+				if (descId < 0 || descId >= MAX_DESCRIPTORS || descId >= received.size() + MAX_AHEAD)
+					throw new StreamCorruptedException("Class descriptor " + descId + " out of sequence in session " + id + " (have " + received.size() + ")");
+
+				final ObjectStreamClass desc = super.readClassDescriptor();
+				received.putIfAbsent(descId, desc);
+				// Even if we've seen it before; the last acknowledgement may have been lost
+				if (pendingAcks.add(descId))
+					unacknowledged.add(descId);
+				return desc;
+			}
+
+			// The parsed descriptor is only ever read from, so it can be shared between streams
+			final ObjectStreamClass known = received.get(descId);
+			if (known == null)
+				throw new StreamCorruptedException("Unknown class descriptor " + descId + " in session " + id);
+
+			return known;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.voodoodyne.trivet;
+
+import java.io.ObjectInputFilter;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Only lets Java serialization create objects which the remote interfaces could plausibly be sending:
+ * the types in the method signatures (including generic type arguments), anything assignable to them, and
+ * whatever the fields of those classes declare in turn, along with the basics from java.lang, java.util,
+ * java.time and java.math. Anything else is rejected as soon as its class descriptor is read, before any
+ * part of the object graph is built.</p>
+ *
+ * <p>Subclasses can't be known in advance, so the field types of each class are declared when that class is
+ * first allowed. Signatures mentioning Object (or a raw generic type like {@code List}) allow everything.</p>
+ */
+final class SignatureFilter implements ObjectInputFilter {
+
+	private static final Set<String> SAFE_PACKAGES = Set.of(
+		"java.lang", "java.util", "java.util.concurrent", "java.util.concurrent.atomic", "java.time", "java.math");
+
+	/** Types anything assignable to which is allowed */
+	private final Set<Class<?>> declared = ConcurrentHashMap.newKeySet();
+
+	/** Classes which have passed, so that we don't search declared again */
+	private final Set<Class<?>> allowed = ConcurrentHashMap.newKeySet();
+
+	/** */
+	private SignatureFilter() {
+		allowExactly(Request.class);
+		allowExactly(Response.class);
+		allowExactly(BatchRequest.class);
+		allowExactly(BatchResponse.class);
+		allowExactly(MethodDef.class);
+	}
+
+	/** For the server: the parameters of the methods, which must be added with {@code addRequests()} */
+	static SignatureFilter forRequests() {
+		return new SignatureFilter();
+	}
+
+	/** For the client: the return types of the interface's methods, and exceptions */
+	static SignatureFilter forResponses(final Class<?> iface) {
+		final SignatureFilter filter = new SignatureFilter();
+		filter.declare(Throwable.class);
+		for (final Method method : iface.getMethods())
+			filter.declare(method.getGenericReturnType());
+
+		return filter;
+	}
+
+	/** Allow the parameters of the interface's methods */
+	void addRequests(final Class<?> iface) {
+		// MethodDef contains the interface and parameter types as Class objects
+		allowExactly(iface);
+		for (final Method method : iface.getMethods()) {
+			for (final Type parameter : method.getGenericParameterTypes())
+				declare(parameter);
+		}
+	}
+
+	@Override
+	public Status checkInput(final FilterInfo filterInfo) {
+		final Class<?> type = filterInfo.serialClass();
+		if (type == null)
+			return Status.UNDECIDED;
+
+		return isAllowed(type) ? Status.ALLOWED : Status.REJECTED;
+	}
+
+	boolean isAllowed(final Class<?> type) {
+		Class<?> element = type;
+		while (element.isArray())
+			element = element.getComponentType();
+
+		if (element.isPrimitive() || allowed.contains(element))
+			return true;
+
+		if (SAFE_PACKAGES.contains(element.getPackageName())) {
+			allowed.add(element);
+			return true;
+		}
+
+		for (final Class<?> declaredType : declared) {
+			if (declaredType.isAssignableFrom(element)) {
+				allowed.add(element);
+				declareFields(element);
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private void allowExactly(final Class<?> type) {
+		allowed.add(type);
+	}
+
+	private void declare(final Type type) {
+		if (type instanceof Class<?> clazz) {
+			if (clazz.isArray()) {
+				declare(clazz.getComponentType());
+			} else if (clazz.getTypeParameters().length > 0) {
+				// Used raw, so we don't know what's inside
+				declared.add(Object.class);
+			} else if (declared.add(clazz)) {
+				declareFields(clazz);
+			}
+		} else if (type instanceof ParameterizedType parameterized) {
+			final Class<?> raw = (Class<?>)parameterized.getRawType();
+			if (declared.add(raw))
+				declareFields(raw);
+
+			for (final Type argument : parameterized.getActualTypeArguments())
+				declare(argument);
+		} else if (type instanceof GenericArrayType array) {
+			declare(array.getGenericComponentType());
+		} else if (type instanceof WildcardType wildcard) {
+			for (final Type bound : wildcard.getUpperBounds())
+				declare(bound);
+			for (final Type bound : wildcard.getLowerBounds())
+				declare(bound);
+		} else if (type instanceof TypeVariable<?> variable) {
+			for (final Type bound : variable.getBounds())
+				declare(bound);
+		}
+	}
+
+	/** What an object of the class can contain; the JDK's own classes are trusted to mind themselves */
+	private void declareFields(final Class<?> clazz) {
+		for (Class<?> current = clazz; current != null && !SAFE_PACKAGES.contains(current.getPackageName()); current = current.getSuperclass()) {
+			for (final Field field : current.getDeclaredFields()) {
+				final int modifiers = field.getModifiers();
+				if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers))
+					declare(field.getGenericType());
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName() + declared;
+	}
+}
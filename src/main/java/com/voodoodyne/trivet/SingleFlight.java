@@ -0,0 +1,55 @@
+package com.voodoodyne.trivet;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent callers with the same key share one execution of an operation. The first caller
+ * starts the operation; anyone who arrives with the same key before it finishes gets its result.
+ * Once it finishes, the next caller starts a new one. Nothing is cached beyond that.
+ */
+final class SingleFlight<K, V> {
+
+	private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Join the operation in flight for the key, or start one by calling the supplier on this thread.
+	 * The supplier isn't called under any lock.
+	 * @return a future of the operation's result; each caller gets its own copy, so completing or
+	 *         cancelling it doesn't affect the others
+	 */
+	CompletableFuture<V> execute(final K key, final Supplier<? extends CompletionStage<V>> operation) {
+		final CompletableFuture<V> promise = new CompletableFuture<>();
+		final CompletableFuture<V> existing = inFlight.putIfAbsent(key, promise);
+		if (existing != null)
+			return existing.copy();
+
+		CompletionStage<V> stage;
+		try {
+			stage = operation.get();
+		} catch (final RuntimeException | Error ex) {
+			// Fail everyone who joined, rather than leaving them waiting forever
+			stage = CompletableFuture.failedFuture(ex);
+		}
+
+		stage.whenComplete((value, ex) -> {
+			// Leave before completing, so anyone who sees the result and calls again starts afresh
+			inFlight.remove(key, promise);
+
+			if (ex != null)
+				promise.completeExceptionally(Futures.unwrap(ex));
+			else
+				promise.complete(value);
+		});
+
+		return promise.copy();
+	}
+
+	/** @return the number of distinct operations in flight right now */
+	int size() {
+		return inFlight.size();
+	}
+}
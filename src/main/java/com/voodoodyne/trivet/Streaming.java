@@ -0,0 +1,110 @@
+package com.voodoodyne.trivet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * <p>Framing for methods with an InputStream parameter or result. The body of a streaming request is the
+ * encoded Request, prefixed by its length, followed by the raw bytes of the InputStream parameter (if any).
+ * The body of a streaming response is the encoded Response, prefixed by its length, followed by the raw
+ * bytes of the InputStream result (if any).</p>
+ *
+ * <p>The length prefix is necessary because codecs are free to read ahead. Streaming requests are marked
+ * by a parameter on the Content-Type, eg {@code application/x-java-serialized-object; stream=true}.</p>
+ */
+final class Streaming {
+
+	private static final String CONTENT_TYPE_PARAM = "; stream=true";
+
+	/**
+	 * The encoded Request or Response around the stream; the stream itself can be any size. Anything bigger
+	 * is assumed to be garbage, rather than allocating whatever the length says.
+	 */
+	static final int MAX_FRAME = 16 * 1024 * 1024;
+
+	/** Put in place of the InputStream result when the raw bytes follow the Response */
+	static final Boolean STREAM_FOLLOWS = Boolean.TRUE;
+
+	private Streaming() {}
+
+	/** @return the Content-Type for streaming requests with this codec */
+	static String contentType(final Codec codec) {
+		return codec.contentType() + CONTENT_TYPE_PARAM;
+	}
+
+	/** @return true if the Content-Type header marks a streaming request */
+	static boolean isStreaming(final String contentType) {
+		return contentType != null && contentType.replace(" ", "").contains(CONTENT_TYPE_PARAM.replace(" ", ""));
+	}
+
+	/** @return true if the type is passed as raw bytes rather than encoded */
+	static boolean isStream(final Class<?> type) {
+		return type == InputStream.class;
+	}
+
+	/**
+	 * @return the index of the InputStream parameter, or -1 if there isn't one
+	 * @throws IllegalArgumentException if there is more than one
+	 */
+	static int streamParameter(final Class<?>[] parameterTypes) {
+		int found = -1;
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (isStream(parameterTypes[i])) {
+				if (found >= 0)
+					throw new IllegalArgumentException("Methods can have at most one InputStream parameter");
+
+				found = i;
+			}
+		}
+
+		return found;
+	}
+
+	/** Write an encoded object prefixed by its length */
+	static void writeFrame(final Codec codec, final Object object, final OutputStream output) throws IOException {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		codec.write(object, buffer);
+		if (buffer.size() > MAX_FRAME)
+			throw new IOException("Encoded " + object.getClass().getSimpleName() + " is " + buffer.size() + " bytes; streaming allows at most " + MAX_FRAME);
+
+		final DataOutputStream data = new DataOutputStream(output);
+		data.writeInt(buffer.size());
+		buffer.writeTo(data);
+		data.flush();
+	}
+
+	/** Read a response written by writeFrame(), leaving the input positioned just after it */
+	static Object readFrame(final Codec codec, final InputStream input) throws IOException, ClassNotFoundException {
+		return codec.read(new ByteArrayInputStream(readFrame(input)));
+	}
+
+	/**
+	 * Read a request written by writeFrame(), leaving the input positioned just after it
+	 * @param filter can be null
+	 */
+	static Object readRequestFrame(final Codec codec, final InputStream input, final ObjectInputFilter filter) throws IOException, ClassNotFoundException {
+		return codec.readRequest(new ByteArrayInputStream(readFrame(input)), filter);
+	}
+
+	private static byte[] readFrame(final InputStream input) throws IOException {
+		final DataInputStream data = new DataInputStream(input);
+		final int length = data.readInt();
+		if (length < 0 || length > MAX_FRAME)
+			throw new StreamCorruptedException("Bad frame length " + length);
+
+		// Allocates as the bytes arrive, so a truncated body doesn't cost the full length
+		final byte[] frame = data.readNBytes(length);
+		if (frame.length < length)
+			throw new EOFException("Expected " + length + " bytes but got " + frame.length);
+
+		return frame;
+	}
+}
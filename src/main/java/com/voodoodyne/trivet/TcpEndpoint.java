@@ -0,0 +1,500 @@
+package com.voodoodyne.trivet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Talks to a TcpListener over a few persistent connections, rather than making an HTTP request per call.
+ * Any number of calls can be in flight on a connection at once, and their responses come back in whatever
+ * order the server finishes them. Connections are opened when first needed, and reopened if they break.
+ * A {@code Deadline} in scope fails the call with a SocketTimeoutException when it passes, including while
+ * waiting for a connection to open; opening one gives up after the connect timeout regardless.</p>
+ *
+ * <p>Each Content-Type (codec, streaming or not) gets its own connections, since the server decides how to
+ * read a connection when it is opened.</p>
+ *
+ * <p>For smaller messages, use {@code sessionCodec()}.</p>
+ */
+public class TcpEndpoint implements Endpoint, AutoCloseable {
+
+	/** How long opening a connection may take, unless {@code setConnectTimeout()} says otherwise */
+	public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+	private final InetSocketAddress address;
+	private final int connectionsPerType;
+
+	/**
+	 * Content-Type to its connections, which are opened on the executor; slots are null until first used.
+	 * Whoever swaps in a new future starts the connecting, so a broken connection is only replaced once.
+	 */
+	private final Map<String, AtomicReferenceArray<CompletableFuture<Connection>>> pools = new ConcurrentHashMap<>();
+
+	private final AtomicInteger next = new AtomicInteger();
+	private final AtomicLong ids = new AtomicLong();
+
+	/** Held while replacing the session */
+	private final ReentrantLock sessionLock = new ReentrantLock();
+
+	private volatile Duration connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+	/** Runs the connection readers, and completes the futures so callbacks don't hold up the readers */
+	private final ExecutorService executor = VirtualThreads.newPerTaskExecutor();
+
+	private volatile boolean closed;
+
+	/**
+	 * Used by connections with the session Content-Type; replaced when none of them are left open, or when
+	 * a new connection finds that the server has forgotten it
+	 */
+	private volatile SessionCodec session;
+
+	/** Session ids should be hard to guess, since they let a connection join a session */
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	/** One connection per Content-Type */
+	public TcpEndpoint(final InetSocketAddress address) {
+		this(address, 1);
+	}
+
+	/**
+	 * @param connectionsPerType calls are spread round-robin over this many connections for each Content-Type.
+	 *                           One is often enough; more helps when responses are large.
+	 */
+	public TcpEndpoint(final InetSocketAddress address, final int connectionsPerType) {
+		if (connectionsPerType < 1)
+			throw new IllegalArgumentException("Need at least one connection");
+
+		this.address = address;
+		this.connectionsPerType = connectionsPerType;
+	}
+
+	/**
+	 * <p>Java serialization which only sends each class descriptor once for as long as there is a connection
+	 * open, rather than in every request and response; after that, descriptors are sent as a number. This
+	 * makes small calls considerably smaller and cheaper to decode. Use it like any other codec:</p>
+	 *
+	 * <pre>factory.setCodec(endpoint.sessionCodec());</pre>
+	 *
+	 * <p>The codec only works with this endpoint and a TcpListener.</p>
+	 */
+	public Codec sessionCodec() {
+		return new Codec() {
+			@Override
+			public String contentType() {
+				return SessionCodec.CONTENT_TYPE;
+			}
+
+			@Override
+			public void write(final Object value, final OutputStream out) throws IOException {
+				sessionForWriting().write(value, out);
+			}
+
+			@Override
+			public Object read(final InputStream in) throws IOException, ClassNotFoundException {
+				return currentSession().read(in);
+			}
+
+			@Override
+			public String toString() {
+				return "SessionCodec(" + address + ")";
+			}
+		};
+	}
+
+	/**
+	 * @param timeout is how long connecting to the server may take. Calls waiting for the connection give
+	 *                up sooner if their Deadline passes.
+	 */
+	public void setConnectTimeout(final Duration timeout) {
+		if (timeout.isNegative() || timeout.isZero())
+			throw new IllegalArgumentException("Connect timeout must be positive");
+
+		this.connectTimeout = timeout;
+	}
+
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName() + "(" + address + ")";
+	}
+
+	@Override
+	public InputStream post(final String contentType, final byte[] body, final Class<?> iface) throws IOException {
+		try {
+			return postAsync(contentType, body, iface).get();
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (final ExecutionException ex) {
+			final Throwable cause = ex.getCause();
+			if (cause instanceof IOException io)
+				throw io;
+			if (cause instanceof RuntimeException runtime)
+				throw runtime;
+			throw new IOException(cause);
+		}
+	}
+
+	@Override
+	public CompletableFuture<InputStream> postAsync(final String contentType, final byte[] body, final Class<?> iface) {
+		final Connection connection;
+		try {
+			connection = connection(contentType);
+		} catch (final IOException ex) {
+			return CompletableFuture.failedFuture(ex);
+		}
+
+		// Encoded before the connection was chosen, so the session may have been replaced in between
+		if (connection.session != null && sessionOf(contentType, body) != connection.session.id())
+			return CompletableFuture.failedFuture(new IOException("Request was encoded for a session which the server has since forgotten"));
+
+		return connection.send(body, Deadline.current());
+	}
+
+	/**
+	 * Close every connection, failing the calls in flight. Calls made afterwards fail.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (final AtomicReferenceArray<CompletableFuture<Connection>> pool : pools.values()) {
+			for (int i = 0; i < pool.length(); i++) {
+				// Connections still opening close themselves when they see closed
+				final Connection connection = connected(pool.get(i));
+				if (connection != null)
+					connection.close(new IOException("Endpoint closed"));
+			}
+		}
+		executor.shutdown();
+	}
+
+	/** An open connection for the Content-Type, opening one if necessary */
+	private Connection connection(final String contentType) throws IOException {
+		final AtomicReferenceArray<CompletableFuture<Connection>> pool = pools.computeIfAbsent(contentType, type -> new AtomicReferenceArray<>(connectionsPerType));
+		return connection(contentType, pool, Math.floorMod(next.getAndIncrement(), connectionsPerType));
+	}
+
+	private Connection connection(final String contentType, final AtomicReferenceArray<CompletableFuture<Connection>> pool, final int slot) throws IOException {
+		while (true) {
+			final CompletableFuture<Connection> existing = pool.get(slot);
+			if (existing != null && !existing.isDone()) {
+				await(existing);
+				continue;
+			}
+
+			final Connection connection = connected(existing);
+			if (connection != null && connection.isUsable())
+				return connection;
+
+			if (closed)
+				throw new IOException("Endpoint closed");
+
+			final CompletableFuture<Connection> connecting = new CompletableFuture<>();
+			if (!pool.compareAndSet(slot, existing, connecting))
+				continue;
+
+			// The server forgot its session, so whatever it's connected to isn't listening any more
+			if (connection != null)
+				connection.close(new IOException("Session with " + address + " was reset"));
+
+			// Not on this thread, so that callers only wait as long as their own deadlines allow
+			executor.execute(() -> {
+				try {
+					final Connection opened = connect(contentType);
+					if (closed)
+						opened.close(new IOException("Endpoint closed"));
+					connecting.complete(opened);
+				} catch (final IOException | RuntimeException ex) {
+					connecting.completeExceptionally(ex);
+				}
+			});
+		}
+	}
+
+	/** Wait for a connection to open, for no longer than the Deadline in scope */
+	private void await(final CompletableFuture<Connection> connecting) throws IOException {
+		final Deadline deadline = Deadline.current();
+		try {
+			if (deadline == null)
+				connecting.get();
+			else
+				connecting.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (final ExecutionException ex) {
+			throw new IOException("Could not connect to " + address, ex.getCause());
+		} catch (final TimeoutException ex) {
+			throw new SocketTimeoutException("Deadline passed waiting to connect to " + address);
+		}
+	}
+
+	/** @return the connection, or null if there isn't one (yet) */
+	private static Connection connected(final CompletableFuture<Connection> connecting) {
+		return connecting != null && connecting.isDone() && !connecting.isCompletedExceptionally() ? connecting.join() : null;
+	}
+
+	/**
+	 * Start a session if there isn't one yet, or if the server will have forgotten the last one because
+	 * its connections all closed (or it told us so). Requests are encoded before they are given a connection,
+	 * so this must happen here rather than when connecting; postAsync() catches the ones which lose the race.
+	 */
+	private SessionCodec currentSession() {
+		final SessionCodec current = session;
+		if (current != null && !current.isAbandoned() && !current.isRetired())
+			return current;
+
+		sessionLock.lock();
+		try {
+			if (session == null || session.isAbandoned() || session.isRetired())
+				session = newSession();
+			return session;
+		} finally {
+			sessionLock.unlock();
+		}
+	}
+
+	/**
+	 * The session to encode a request with. Any session connection which has closed is reopened first: if
+	 * the server has forgotten the session, we find out now, rather than after encoding descriptor numbers
+	 * it doesn't know.
+	 */
+	private SessionCodec sessionForWriting() throws IOException {
+		for (final Map.Entry<String, AtomicReferenceArray<CompletableFuture<Connection>>> entry : pools.entrySet()) {
+			if (!entry.getKey().startsWith(SessionCodec.CONTENT_TYPE))
+				continue;
+
+			final AtomicReferenceArray<CompletableFuture<Connection>> pool = entry.getValue();
+			for (int slot = 0; slot < pool.length(); slot++) {
+				final CompletableFuture<Connection> existing = pool.get(slot);
+				final Connection connection = connected(existing);
+				if (existing != null && (connection == null || !connection.isUsable()))
+					connection(entry.getKey(), pool, slot);
+			}
+		}
+
+		return currentSession();
+	}
+
+	/** @return the session id a request body was encoded for; streaming bodies start with a length */
+	private static long sessionOf(final String contentType, final byte[] body) {
+		final int offset = Streaming.isStreaming(contentType) ? 4 : 0;
+		return body.length < offset + 8 ? 0 : ByteBuffer.wrap(body, offset, 8).getLong();
+	}
+
+	private static SessionCodec newSession() {
+		long id;
+		do {
+			id = RANDOM.nextLong();
+		} while (id == 0);
+
+		return new SessionCodec(id);
+	}
+
+	/** Runs on the executor; see connection() */
+	private Connection connect(final String contentType) throws IOException {
+		if (!contentType.startsWith(SessionCodec.CONTENT_TYPE))
+			return connect(contentType, null);
+
+		final SessionCodec current = currentSession();
+		final Connection connection = connect(contentType, current);
+		if (!connection.freshSession || !current.hasHistory())
+			return connection;
+
+		// The server restarted, or dropped our other connections without us noticing. It knows none of the
+		// descriptors we would refer to by number, and would reuse numbers we already have, so start over.
+		connection.close(new IOException("Session with " + address + " was reset"));
+		current.retire();
+		return connect(contentType, currentSession());
+	}
+
+	/** @param connectionSession can be null if the connection doesn't use one */
+	private Connection connect(final String contentType, final SessionCodec connectionSession) throws IOException {
+		final SocketChannel socket = SocketChannel.open();
+
+		// Blocking channels don't time out, so one which takes too long to connect or answer the handshake is closed
+		final CompletableFuture<Void> connected = new CompletableFuture<>();
+		CompletableFuture.delayedExecutor(connectTimeout.toNanos(), TimeUnit.NANOSECONDS).execute(() -> {
+			if (connected.completeExceptionally(new SocketTimeoutException("Timed out connecting to " + address)))
+				closeQuietly(socket);
+		});
+
+		try {
+			socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			socket.connect(address);
+
+			final FrameChannel channel = new FrameChannel(socket);
+			channel.writeHandshake(new FrameChannel.Handshake(contentType, connectionSession == null ? 0 : connectionSession.id()));
+			final boolean freshSession = connectionSession != null && channel.readSessionReply();
+
+			if (!connected.complete(null))
+				throw new SocketTimeoutException("Timed out connecting to " + address);
+
+			final Connection connection = new Connection(channel, connectionSession, freshSession);
+			executor.execute(connection::read);
+			return connection;
+		} catch (final IOException | RuntimeException ex) {
+			socket.close();
+			if (!connected.complete(null) && connected.isCompletedExceptionally() && !(ex instanceof SocketTimeoutException))
+				throw new SocketTimeoutException("Timed out connecting to " + address);
+			throw ex;
+		}
+	}
+
+	private static void closeQuietly(final SocketChannel socket) {
+		try {
+			socket.close();
+		} catch (final IOException ex) {
+			// Nothing more to do
+		}
+	}
+
+	/**
+	 * One socket, and the calls waiting for a response on it.
+	 */
+	private class Connection {
+		private final FrameChannel channel;
+		private final SessionCodec session;
+		/** Whether the server started the session when this connected */
+		private final boolean freshSession;
+		private final Map<Long, CompletableFuture<InputStream>> pending = new ConcurrentHashMap<>();
+		/** Why the connection was closed; null while it's open */
+		private final AtomicReference<Throwable> closedBy = new AtomicReference<>();
+
+		/**
+		 * @param session can be null if the connection doesn't use one
+		 */
+		Connection(final FrameChannel channel, final SessionCodec session, final boolean freshSession) {
+			this.channel = channel;
+			this.session = session;
+			this.freshSession = freshSession;
+			if (session != null)
+				session.join();
+		}
+
+		boolean isOpen() {
+			return closedBy.get() == null;
+		}
+
+		/** @return true if open, and not using a session the server has forgotten */
+		boolean isUsable() {
+			return isOpen() && (session == null || !session.isRetired());
+		}
+
+		CompletableFuture<InputStream> send(final byte[] body, final Deadline deadline) {
+			if (body.length > FrameChannel.MAX_PAYLOAD)
+				return CompletableFuture.failedFuture(new IOException("Request of " + body.length + " bytes is bigger than the " + FrameChannel.MAX_PAYLOAD + " a frame can carry"));
+
+			final long id = ids.incrementAndGet();
+			final CompletableFuture<InputStream> response = new CompletableFuture<>();
+			pending.put(id, response);
+
+			// The reader may have given up on the connection before we got in
+			if (!isOpen()) {
+				pending.remove(id);
+				return CompletableFuture.failedFuture(closedException());
+			}
+
+			try {
+				channel.write(id, FrameChannel.REQUEST, body);
+			} catch (final IOException ex) {
+				pending.remove(id);
+				close(ex);
+				return CompletableFuture.failedFuture(closedException());
+			}
+
+			if (deadline != null) {
+				// If the response turns up later, the reader just drops it
+				CompletableFuture.delayedExecutor(Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS).execute(() -> {
+					if (pending.remove(id) != null)
+						response.completeExceptionally(new SocketTimeoutException("Deadline passed waiting for " + address));
+				});
+			}
+
+			return response;
+		}
+
+		/** Runs on its own thread until the connection closes */
+		void read() {
+			try {
+				FrameChannel.Frame frame;
+				while ((frame = channel.read()) != null) {
+					if (frame.kind() == FrameChannel.ERROR && frame.id() == 0) {
+						// The server rejected the whole connection
+						close(new IOException(message(frame)));
+						return;
+					}
+
+					final CompletableFuture<InputStream> response = pending.remove(frame.id());
+					if (response == null)
+						continue;
+
+					final FrameChannel.Frame received = frame;
+					executor.execute(() -> {
+						if (received.kind() == FrameChannel.RESPONSE)
+							response.complete(new ByteArrayInputStream(received.payload()));
+						else
+							response.completeExceptionally(new IOException("Server error: " + message(received)));
+					});
+				}
+
+				close(new IOException("Connection closed by " + address));
+			} catch (final IOException | RuntimeException ex) {
+				close(ex);
+			}
+		}
+
+		/** Fail everything in flight; the next call opens a new connection */
+		void close(final Throwable reason) {
+			if (!closedBy.compareAndSet(null, reason))
+				return;
+
+			if (session != null)
+				session.leave();
+
+			try {
+				channel.close();
+			} catch (final IOException ex) {
+				// Already broken
+			}
+
+			for (final Long id : pending.keySet()) {
+				final CompletableFuture<InputStream> response = pending.remove(id);
+				if (response != null)
+					response.completeExceptionally(reason);
+			}
+		}
+
+		/** Explains the failure of a call that was too late for the connection */
+		private IOException closedException() {
+			final Throwable reason = closedBy.get();
+			return new IOException("Connection to " + address + " closed: " + reason.getMessage(), reason);
+		}
+
+		private String message(final FrameChannel.Frame frame) {
+			return new String(frame.payload(), StandardCharsets.UTF_8);
+		}
+	}
+}
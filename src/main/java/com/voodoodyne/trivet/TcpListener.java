@@ -0,0 +1,279 @@
+package com.voodoodyne.trivet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Serves a TrivetServer over persistent TCP connections instead of HTTP; the client side is TcpEndpoint.
+ * Each connection carries many calls at once, and responses go back as soon as they are ready, in whatever
+ * order. See {@code FrameChannel} for the protocol.</p>
+ *
+ * <p>Every connection gets a thread which reads requests, and every request runs on a thread of its own,
+ * which is cheap with virtual threads (Java 21+). A connection which already has its limit of calls in
+ * flight isn't read from until one of them finishes, so a client can't pile up unbounded work; TCP flow
+ * control pushes back on it. Listening starts as soon as this is constructed.</p>
+ */
+public class TcpListener implements AutoCloseable {
+	private static final Logger log = LoggerFactory.getLogger(TcpListener.class);
+
+	/** Calls in flight per connection, unless the constructor says otherwise */
+	public static final int DEFAULT_MAX_IN_FLIGHT = 128;
+
+	private final TrivetServer server;
+	private final ServerSocketChannel serverChannel;
+	private final ExecutorService executor = VirtualThreads.newPerTaskExecutor();
+	private final Set<FrameChannel> connections = ConcurrentHashMap.newKeySet();
+	private final LongAdder accepted = new LongAdder();
+	private final int maxInFlight;
+
+	/** A connection's session, and whether the connection started it */
+	private record Joined(SessionCodec session, boolean fresh) {}
+
+	/** SessionCodecs by id, while any connection is using them */
+	private final Map<Long, SessionCodec> sessions = new HashMap<>();
+	private final ReentrantLock sessionsLock = new ReentrantLock();
+
+	/**
+	 * Listen on all interfaces.
+	 * @param port can be 0 to pick any free port; see {@code port()}
+	 */
+	public TcpListener(final TrivetServer server, final int port) throws IOException {
+		this(server, new InetSocketAddress(port));
+	}
+
+	/** */
+	public TcpListener(final TrivetServer server, final InetSocketAddress address) throws IOException {
+		this(server, address, DEFAULT_MAX_IN_FLIGHT);
+	}
+
+	/**
+	 * @param maxInFlight is how many calls each connection can have in progress at once; the rest wait
+	 *                    in the client's socket buffer. TcpEndpoint spreads calls over several connections.
+	 */
+	public TcpListener(final TrivetServer server, final InetSocketAddress address, final int maxInFlight) throws IOException {
+		if (maxInFlight < 1)
+			throw new IllegalArgumentException("maxInFlight must be at least 1");
+
+		this.server = server;
+		this.maxInFlight = maxInFlight;
+		this.serverChannel = ServerSocketChannel.open().bind(address);
+		executor.execute(this::accept);
+	}
+
+	/** @return the port actually listened on */
+	public int port() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/** @return the number of connections accepted so far */
+	public long acceptedConnections() {
+		return accepted.sum();
+	}
+
+	/**
+	 * Stop listening and drop every connection, abandoning any calls in progress.
+	 */
+	@Override
+	public void close() throws IOException {
+		serverChannel.close();
+
+		for (final FrameChannel connection : connections)
+			connection.close();
+
+		executor.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName() + "(" + port() + ")";
+	}
+
+	private void accept() {
+		while (serverChannel.isOpen()) {
+			final SocketChannel socket;
+			try {
+				socket = serverChannel.accept();
+				socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			} catch (final ClosedChannelException ex) {
+				return;
+			} catch (final IOException ex) {
+				log.warn("Error accepting connection", ex);
+				continue;
+			}
+
+			accepted.increment();
+			try {
+				executor.execute(() -> serve(new FrameChannel(socket)));
+			} catch (final RejectedExecutionException ex) {
+				// We're closing
+				closeQuietly(socket);
+				return;
+			}
+		}
+	}
+
+	/** Read requests until the client goes away */
+	private void serve(final FrameChannel connection) {
+		connections.add(connection);
+		SessionCodec session = null;
+		try (connection) {
+			final FrameChannel.Handshake handshake = connection.readHandshake();
+			final String contentType = handshake.contentType();
+			if (handshake.session() != 0) {
+				final Joined joined = join(handshake.session());
+				session = joined.session();
+				// If we've forgotten the session, the client mustn't refer to descriptors by number
+				connection.writeSessionReply(joined.fresh());
+			}
+
+			final Codec codec = session != null ? session : server.codecFor(contentType);
+			if (codec == null) {
+				connection.writeError(0, "Unsupported Content-Type " + contentType + "; try " + Client.APPLICATION_JAVA_SERIALIZED_OBJECT);
+				return;
+			}
+
+			final boolean streaming = server.isStreaming(contentType);
+			final Semaphore inFlight = new Semaphore(maxInFlight);
+
+			while (true) {
+				// Stop reading until there's room for another call
+				inFlight.acquire();
+
+				final FrameChannel.Frame request = connection.read();
+				if (request == null)
+					break;
+
+				try {
+					executor.execute(() -> respond(connection, codec, streaming, request, inFlight));
+				} catch (final RejectedExecutionException ex) {
+					inFlight.release();
+					throw ex;
+				}
+			}
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (final IOException | RejectedExecutionException ex) {
+			log.debug("Dropping connection {}: {}", connection, ex.toString());
+		} finally {
+			connections.remove(connection);
+			if (session != null)
+				leave(session);
+		}
+	}
+
+	/** The session, which may already be in use by other connections from the same client */
+	private Joined join(final long id) {
+		sessionsLock.lock();
+		try {
+			final SessionCodec session = sessions.computeIfAbsent(id, key -> new SessionCodec(key));
+			return new Joined(session, session.join());
+		} finally {
+			sessionsLock.unlock();
+		}
+	}
+
+	/** Forget the session once nothing is using it; the client starts a new one when it reconnects */
+	private void leave(final SessionCodec session) {
+		sessionsLock.lock();
+		try {
+			if (session.leave() == 0)
+				sessions.remove(session.id());
+		} finally {
+			sessionsLock.unlock();
+		}
+	}
+
+	/** @return the number of sessions in use */
+	int sessions() {
+		sessionsLock.lock();
+		try {
+			return sessions.size();
+		} finally {
+			sessionsLock.unlock();
+		}
+	}
+
+	/** @param inFlight is released once the response has been sent */
+	private void respond(final FrameChannel connection, final Codec codec, final boolean streaming, final FrameChannel.Frame request, final Semaphore inFlight) {
+		if (request.kind() != FrameChannel.REQUEST) {
+			sendError(connection, request.id(), "Unexpected frame kind " + request.kind());
+			inFlight.release();
+			return;
+		}
+
+		final InputStream input = new ByteArrayInputStream(request.payload());
+		final Buffers.Output output = new Buffers.Output();
+
+		CompletableFuture<Void> done;
+		try {
+			if (streaming) {
+				// The whole stream goes back in one frame
+				server.executeStreaming(codec, input, output);
+				done = CompletableFuture.completedFuture(null);
+			} else {
+				done = server.executeAsync(codec, input, output);
+			}
+		} catch (final IOException | RuntimeException ex) {
+			done = CompletableFuture.failedFuture(ex);
+		}
+
+		done.whenComplete((ignored, ex) -> {
+			if (ex == null) {
+				send(connection, request.id(), output);
+			} else {
+				log.error("Error processing trivet request", ex);
+				sendError(connection, request.id(), Futures.unwrap(ex).toString());
+			}
+			output.release();
+			inFlight.release();
+		});
+	}
+
+	private void send(final FrameChannel connection, final long id, final Buffers.Output response) {
+		if (response.size() > FrameChannel.MAX_PAYLOAD) {
+			sendError(connection, id, "Response of " + response.size() + " bytes is bigger than the " + FrameChannel.MAX_PAYLOAD + " a frame can carry");
+			return;
+		}
+
+		try {
+			connection.write(id, FrameChannel.RESPONSE, response.buffer(), response.size());
+		} catch (final IOException ex) {
+			log.debug("Could not respond on {}: {}", connection, ex.toString());
+		}
+	}
+
+	private void sendError(final FrameChannel connection, final long id, final String message) {
+		try {
+			connection.writeError(id, message);
+		} catch (final IOException ex) {
+			log.debug("Could not respond on {}: {}", connection, ex.toString());
+		}
+	}
+
+	private static void closeQuietly(final SocketChannel socket) {
+		try {
+			socket.close();
+		} catch (final IOException ex) {
+			// Nothing more to do
+		}
+	}
+}
@@ -1,15 +1,31 @@
 package com.voodoodyne.trivet;
 
+import com.voodoodyne.trivet.CallListener.Phase;
+import com.voodoodyne.trivet.CallListener.Side;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InvalidClassException;
 import java.io.OutputStream;
+import java.io.Serial;
+import java.io.UncheckedIOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 /**
@@ -19,9 +35,48 @@ import java.util.function.Function;
 public class TrivetServer {
 	private static final Logger log = LoggerFactory.getLogger(TrivetServer.class);
 
+	/** Default for setMaxBatchSize() */
+	public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
 	/** This is how we get an instance of the interface, likely through injection */
 	private final Function<Class<?>, Object> instanceMapper;
 
+	/** Supported wire formats, keyed by mime type */
+	private final ConcurrentMap<String, Codec> codecs = new ConcurrentHashMap<>();
+
+	/** If not null, executeAsync() invokes blocking methods on this */
+	private Executor executor;
+
+	/** Concurrency limits for whole interfaces */
+	private final ConcurrentMap<Class<?>, Bulkhead> interfaceBulkheads = new ConcurrentHashMap<>();
+
+	/** Concurrency limits for individual methods; these take precedence over the interface */
+	private final ConcurrentMap<Method, Bulkhead> methodBulkheads = new ConcurrentHashMap<>();
+
+	/** If not null, the requests in a batch are executed in parallel */
+	private Executor batchExecutor;
+
+	/** Batches with more requests than this are rejected outright */
+	private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+	/** Null unless someone is watching */
+	private CallListener listener;
+
+	/** Null unless responses of @Idempotent methods are cached */
+	private ResponseCache responseCache;
+
+	/** Null until interfaces are registered; then codecs only accept what they could send */
+	private volatile RequestFilter requestFilter;
+
+	/** Resolved invocations, so we only have to do the reflection once per method */
+	private final ConcurrentMap<MethodDef, InvocationPlan> plans = new ConcurrentHashMap<>();
+
+	/** Every method we have resolved, so we can understand compact requests */
+	private final ConcurrentMap<Long, MethodDef> methodIds = new ConcurrentHashMap<>();
+
+	private final LongAdder planCacheHits = new LongAdder();
+	private final LongAdder planCacheMisses = new LongAdder();
+
 	/**
 	 * @param instanceMapper should be something like guice's Injector::getInstance or
 	 *                       spring's ApplicationContext::getBean. Maps a remote interface
@@ -30,25 +85,137 @@ public class TrivetServer {
 	 */
 	public TrivetServer(final Function<Class<?>, Object> instanceMapper) {
 		this.instanceMapper = instanceMapper;
+
+		addCodec(new JavaSerializationCodec());
 	}
 
 	/**
-	 * Execute, reading a request off the input and writing the response to output.
-	 * @param input will contain a serialized Request object
-	 * @param output will have a serialized Response object written to it
+	 * Normally executeAsync() invokes methods which don't return futures on the calling thread. With an
+	 * executor, each such invocation runs on the executor instead, and the calling thread is released as
+	 * soon as the request has been read. Responses are written on the executor too, rather than on whatever
+	 * thread completes a future. {@code VirtualThreads.newPerTaskExecutor()} gives every invocation its own
+	 * virtual thread. execute() always invokes on the calling thread.
+	 */
+	public void setExecutor(final Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Allow at most this many concurrent invocations of methods on the interface; further calls wait for
+	 * a slot, however long it takes. Waiting is cheap on virtual threads. Same as setting a fixed Bulkhead
+	 * with an unbounded queue.
+	 */
+	public void setConcurrencyLimit(final Class<?> iface, final int maxConcurrent) {
+		setBulkhead(iface, Bulkhead.fixed(maxConcurrent, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Limit concurrent invocations of methods on the interface. Calls rejected by the bulkhead get an
+	 * OverloadedException. For methods which return futures, a slot is held until the future completes.
+	 */
+	public void setBulkhead(final Class<?> iface, final Bulkhead bulkhead) {
+		interfaceBulkheads.put(iface, bulkhead);
+	}
+
+	/**
+	 * Limit concurrent invocations of a single interface method. Calls to this method go through this bulkhead
+	 * instead of any bulkhead set for the whole interface.
+	 */
+	public void setBulkhead(final Method method, final Bulkhead bulkhead) {
+		methodBulkheads.put(method, bulkhead);
+	}
+
+	/**
+	 * By default, requests in a batch are executed one after another on the calling thread. Provide an
+	 * executor to execute them in parallel. Responses are always returned in the order of the requests.
+	 */
+	public void setBatchExecutor(final Executor batchExecutor) {
+		this.batchExecutor = batchExecutor;
+	}
+
+	/**
+	 * Batches with more requests than this are rejected without executing any of them, so that one
+	 * POST can't fan out into unbounded work. Default is {@value #DEFAULT_MAX_BATCH_SIZE}.
+	 */
+	public void setMaxBatchSize(final int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Report the phases of every call to the listener, for metrics or tracing. Decoding and encoding are
+	 * reported only by execute() and executeAsync(), for requests which aren't batched. None by default.
+	 */
+	public void setListener(final CallListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Cache the encoded responses of {@code @Idempotent} methods, so repeated requests don't run the method or
+	 * encode the response again. Cache hits aren't reported to the listener as invocations. None by default.
+	 * Responses are shared between all callers, so cached methods must not depend on who is calling; anything
+	 * read from the servlet request, the authenticated user, or thread-locals isn't part of the cache key.
+	 */
+	public void setResponseCache(final ResponseCache responseCache) {
+		this.responseCache = responseCache;
+	}
+
+	/**
+	 * Add support for another codec, or replace the existing codec for a content type. Only Java serialization
+	 * is supported out of the box; add the BinaryCodec here if your clients use it.
+	 */
+	public void addCodec(final Codec codec) {
+		codecs.put(codec.contentType(), codec);
+	}
+
+	/**
+	 * @param contentType is the Content-Type header of a request; parameters like charset are ignored.
+	 * @return the codec which handles the content type, or null if it is not supported
+	 */
+	public Codec codecFor(final String contentType) {
+		if (contentType == null)
+			return null;
+
+		final int semicolon = contentType.indexOf(';');
+		final String mimeType = semicolon < 0 ? contentType : contentType.substring(0, semicolon);
+		return codecs.get(mimeType.trim());
+	}
+
+	/**
+	 * Execute, reading a request off the input and writing the response to output, using java serialization.
+	 * @param input will contain a serialized Request or BatchRequest object
+	 * @param output will have a serialized Response or BatchResponse object written to it
 	 */
 	public void execute(final InputStream input, final OutputStream output) throws IOException {
+		execute(codecFor(Client.APPLICATION_JAVA_SERIALIZED_OBJECT), input, output);
+	}
+
+	/**
+	 * Execute, reading a request off the input and writing the response to output.
+	 * @param codec determines the format of both the input and the output
+	 * @param input will contain an encoded Request or BatchRequest object
+	 * @param output will have an encoded Response or BatchResponse object written to it
+	 */
+	public void execute(final Codec codec, final InputStream input, final OutputStream output) throws IOException {
+		final CallListener listener = this.listener;
+		if (listener != null) {
+			executeObserved(listener, codec, input, output);
+			return;
+		}
+
 		try {
-			final Request requestWithoutOptionals = (Request)new ObjectInputStream(input).readObject();
-			final Request request = OptionalHack.restore(requestWithoutOptionals);
-			log.debug("Invoking request: {}", request);
+			final Object wireRequest = readRequest(codec, input);
+
+			final CompletableFuture<byte[]> memoized = memoized(codec, wireRequest, false);
+			if (memoized != null) {
+				writeBytes(await(memoized), output);
+				return;
+			}
 
-			final Response responseWithOptionals = invoke(request);
-			log.debug("Returning response: {}", responseWithOptionals);
-			final Response response = OptionalHack.strip(responseWithOptionals, request.method().method());
+			final Object response = wireRequest instanceof BatchRequest batch
+				? respondBatch(batch)
+				: respond((Request)wireRequest);
 
-			final ObjectOutputStream out = new ObjectOutputStream(output);
-			out.writeObject(response);
+			codec.write(response, output);
 
 			// Let the caller close the streams, it created them
 		} catch (final ClassNotFoundException | NoSuchMethodException ex) {
@@ -56,38 +223,852 @@ public class TrivetServer {
 		}
 	}
 
+	/**
+	 * Execute without blocking on service methods which return futures. The response is written to the output
+	 * on the executor (see {@code setExecutor()}), or if there isn't one, by whichever thread completes the
+	 * future. Reading the request still blocks.
+	 * @param codec determines the format of both the input and the output
+	 * @param input will contain an encoded Request or BatchRequest object
+	 * @param output will have an encoded Response or BatchResponse object written to it
+	 * @return a future which completes after the response has been written
+	 */
+	public CompletableFuture<Void> executeAsync(final Codec codec, final InputStream input, final OutputStream output) throws IOException {
+		return executeAsync(codec, input, output, executor);
+	}
+
+	/**
+	 * Same as the other executeAsync(), but the response is written on the writer. Use this when writing to the
+	 * output blocks, so that it doesn't happen on whatever thread completes the service's future, which might
+	 * belong to an event loop or a timer. Responses which are ready straight away are written on the calling thread.
+	 * @param writer can be null to write on whichever thread completes the future
+	 */
+	public CompletableFuture<Void> executeAsync(final Codec codec, final InputStream input, final OutputStream output, final Executor writer) throws IOException {
+		final CallListener listener = this.listener;
+		if (listener != null)
+			return executeAsyncObserved(listener, codec, input, output, writer);
+
+		try {
+			final Object wireRequest = readRequest(codec, input);
+
+			final CompletableFuture<byte[]> memoized = memoized(codec, wireRequest, true);
+			if (memoized != null)
+				return thenWrite(memoized, writer, bytes -> writeBytes(bytes, output));
+
+			final CompletionStage<?> responseStage = wireRequest instanceof BatchRequest batch
+				? respondBatchAsync(batch)
+				: respondAsync((Request)wireRequest);
+
+			return thenWrite(responseStage, writer, response -> write(codec, response, output));
+		} catch (final ClassNotFoundException | NoSuchMethodException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Same as execute(), but tells the listener how long decoding and encoding took.
+	 */
+	private void executeObserved(final CallListener listener, final Codec codec, final InputStream input, final OutputStream output) throws IOException {
+		try {
+			final long start = System.nanoTime();
+			final CountingStreams.Input countedInput = new CountingStreams.Input(input);
+			final Object wireRequest = readRequest(codec, countedInput);
+			final long decoded = System.nanoTime();
+
+			final CompletableFuture<byte[]> memoized = memoized(codec, wireRequest, false);
+			if (memoized != null) {
+				final byte[] bytes = await(memoized);
+				final long responded = System.nanoTime();
+				writeBytes(bytes, output);
+
+				reportCodec(listener, (Request)wireRequest, decoded - start, countedInput.count(), System.nanoTime() - responded, bytes.length);
+				return;
+			}
+
+			if (wireRequest instanceof BatchRequest batch) {
+				codec.write(respondBatch(batch), output);
+				return;
+			}
+
+			final Request request = (Request)wireRequest;
+			final Response response = respond(request);
+
+			final long responded = System.nanoTime();
+			final CountingStreams.Output countedOutput = new CountingStreams.Output(output);
+			codec.write(response, countedOutput);
+
+			reportCodec(listener, request, decoded - start, countedInput.count(), System.nanoTime() - responded, countedOutput.count());
+		} catch (final ClassNotFoundException | NoSuchMethodException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Same as executeAsync(), but tells the listener how long decoding and encoding took.
+	 */
+	private CompletableFuture<Void> executeAsyncObserved(final CallListener listener, final Codec codec, final InputStream input, final OutputStream output, final Executor writer) throws IOException {
+		try {
+			final long start = System.nanoTime();
+			final CountingStreams.Input countedInput = new CountingStreams.Input(input);
+			final Object wireRequest = readRequest(codec, countedInput);
+			final long decoded = System.nanoTime();
+
+			final CompletableFuture<byte[]> memoized = memoized(codec, wireRequest, true);
+			if (memoized != null) {
+				return thenWrite(memoized, writer, bytes -> {
+					final long responded = System.nanoTime();
+					writeBytes(bytes, output);
+
+					reportCodec(listener, (Request)wireRequest, decoded - start, countedInput.count(), System.nanoTime() - responded, bytes.length);
+				});
+			}
+
+			if (wireRequest instanceof BatchRequest batch) {
+				return thenWrite(respondBatchAsync(batch), writer, response -> write(codec, response, output));
+			}
+
+			final Request request = (Request)wireRequest;
+			return thenWrite(respondAsync(request), writer, response -> {
+				final long responded = System.nanoTime();
+				final CountingStreams.Output countedOutput = new CountingStreams.Output(output);
+				write(codec, response, countedOutput);
+
+				reportCodec(listener, request, decoded - start, countedInput.count(), System.nanoTime() - responded, countedOutput.count());
+			});
+		} catch (final ClassNotFoundException | NoSuchMethodException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/** Write on the writer, unless the response is already here and we can write it on this thread */
+	private static <T> CompletableFuture<Void> thenWrite(final CompletionStage<T> response, final Executor writer, final Consumer<? super T> write) {
+		final CompletableFuture<T> future = response.toCompletableFuture();
+		return writer == null || future.isDone()
+			? future.thenAccept(write)
+			: future.thenAcceptAsync(write, writer);
+	}
+
+	/** Report decoding and encoding, unless the request was for a method we don't know */
+	private void reportCodec(final CallListener listener, final Request request, final long decodeNanos, final long decodeBytes, final long encodeNanos, final long encodeBytes) {
+		final MethodDef def = request.isCompact() ? methodIds.get(request.methodId()) : request.method();
+		if (def != null) {
+			listener.phase(Side.SERVER, def, Phase.DECODE, decodeNanos, decodeBytes);
+			listener.phase(Side.SERVER, def, Phase.ENCODE, encodeNanos, encodeBytes);
+		}
+	}
+
+	/**
+	 * If the request is for an @Idempotent method and there is a ResponseCache, the encoded response: from the
+	 * cache, or from responding to the request just once for everyone who asks for it at the same time.
+	 * @param async if true, don't block on service methods which return futures
+	 * @return null if the response can't be cached
+	 */
+	private CompletableFuture<byte[]> memoized(final Codec codec, final Object wireRequest, final boolean async) throws NoSuchMethodException {
+		final ResponseCache cache = this.responseCache;
+
+		// Session encodings depend on what the session has seen, so the bytes can't be reused
+		if (cache == null || !(wireRequest instanceof Request request) || codec instanceof SessionCodec)
+			return null;
+
+		final MethodDef def = resolve(request);
+		if (def == null || !def.clazz().isInterface())
+			return null;
+
+		final InvocationPlan plan = plan(def);
+		if (!plan.isMemoizable())
+			return null;
+
+		final long ttlNanos = plan.cacheTtlNanos() >= 0 ? plan.cacheTtlNanos() : cache.ttlNanos();
+		final ResponseCache.Key key = new ResponseCache.Key(codec.contentType(), new CallKey(def, request.args()));
+		final Deadline deadline = request.deadline();
+
+		final CompletableFuture<byte[]> shared = cache.get(key, () -> {
+			final CompletionStage<Response> response;
+			try {
+				response = async ? respondAsync(request, deadline) : CompletableFuture.completedFuture(respond(request, deadline));
+			} catch (final NoSuchMethodException ex) {
+				// We just found the plan
+				throw new IllegalStateException(ex);
+			}
+
+			return response.thenApply(resp -> {
+				// That was the deadline of whoever got here first; everyone else might have longer
+				if (resp.throwable() instanceof DeadlineExceededException)
+					throw new LeaderExpired();
+
+				final byte[] encoded = encode(codec, resp);
+				if (!resp.isThrown())
+					cache.put(key, encoded, ttlNanos);
+				return encoded;
+			});
+		});
+
+		// Respond on our own, with our own deadline. If that has passed too, invocation is skipped anyway.
+		if (async) {
+			return shared.exceptionallyCompose(ex -> Futures.unwrap(ex) instanceof LeaderExpired
+				? respondUnshared(codec, request, deadline)
+				: CompletableFuture.failedFuture(Futures.unwrap(ex)));
+		}
+
+		try {
+			shared.join();
+			return shared;
+		} catch (final CompletionException ex) {
+			if (Futures.unwrap(ex) instanceof LeaderExpired)
+				return CompletableFuture.completedFuture(encode(codec, respond(request, deadline)));
+			return shared;
+		}
+	}
+
+	/** Same as the async path of memoized(), without the cache */
+	private CompletableFuture<byte[]> respondUnshared(final Codec codec, final Request request, final Deadline deadline) {
+		try {
+			return respondAsync(request, deadline).thenApply(resp -> encode(codec, resp)).toCompletableFuture();
+		} catch (final NoSuchMethodException ex) {
+			return CompletableFuture.failedFuture(new IllegalStateException(ex));
+		}
+	}
+
+	/** Fails a shared response whose deadline passed, so that callers fall back to responding on their own */
+	private static class LeaderExpired extends RuntimeException {
+		@Serial
+		private static final long serialVersionUID = 1L;
+
+		/** */
+		LeaderExpired() {
+			super(null, null, false, false);
+		}
+	}
+
+	private static byte[] encode(final Codec codec, final Object response) {
+		final Buffers.Output buffer = new Buffers.Output();
+		try {
+			codec.write(response, buffer);
+			return buffer.toByteArray();
+		} catch (final IOException ex) {
+			throw new UncheckedIOException(ex);
+		} finally {
+			buffer.release();
+		}
+	}
+
+	/** Wait for a memoized response, throwing whatever went wrong */
+	private static byte[] await(final CompletableFuture<byte[]> response) throws IOException {
+		try {
+			return response.join();
+		} catch (final CompletionException ex) {
+			final Throwable cause = Futures.unwrap(ex);
+			if (cause instanceof UncheckedIOException io)
+				throw io.getCause();
+			if (cause instanceof RuntimeException runtime)
+				throw runtime;
+			if (cause instanceof Error error)
+				throw error;
+			throw ex;
+		}
+	}
+
+	/** For use in lambdas; flushes like a codec would */
+	private static void writeBytes(final byte[] bytes, final OutputStream output) {
+		try {
+			output.write(bytes);
+			output.flush();
+		} catch (final IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/** For use in lambdas */
+	private void write(final Codec codec, final Object response, final OutputStream output) {
+		try {
+			codec.write(response, output);
+		} catch (final IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * Execute a streaming request, for methods with InputStream parameters or results. The InputStream
+	 * parameter reads directly from the input, so the service must consume it before returning. An
+	 * InputStream result is copied directly to the output and then closed. Neither is held in memory.
+	 * @param codec determines the format of both the input and the output
+	 * @param input will contain a Request framed as described in {@code Streaming}, followed by the stream
+	 * @param output will have a framed Response written to it, followed by the result stream
+	 */
+	public void executeStreaming(final Codec codec, final InputStream input, final OutputStream output) throws IOException {
+		try {
+			final RequestFilter.Message filter = messageFilter();
+			final Request wireRequest = (Request)Streaming.readRequestFrame(codec, input, filter);
+			verify(filter, wireRequest);
+			final Deadline deadline = wireRequest.deadline();
+
+			final MethodDef def = resolve(wireRequest);
+			if (def == null) {
+				Streaming.writeFrame(codec, new Response(null, new UnknownMethodException(wireRequest.methodId())), output);
+				return;
+			}
+
+			if (!def.clazz().isInterface()) {
+				Streaming.writeFrame(codec, new Response(null, notAnInterface(def.clazz())), output);
+				return;
+			}
+
+			final CallListener listener = this.listener;
+			final long start = listener != null ? System.nanoTime() : 0;
+
+			final InvocationPlan plan = plan(def, true);
+			final Request request = plan.restore(plan.withStream(wireRequest.withMethod(def), input));
+			if (listener != null)
+				listener.phase(Side.SERVER, def, Phase.RESTORE, System.nanoTime() - start, -1);
+
+			log.debug("Invoking streaming request: {}", request);
+
+			final Response response = plan.strip(invokeWithin(deadline, request));
+			log.debug("Returning response: {}", response);
+
+			if (listener != null)
+				listener.completed(Side.SERVER, def, System.nanoTime() - start, response.throwable());
+
+			if (response.result() instanceof InputStream resultStream) {
+				Streaming.writeFrame(codec, response.withResult(Streaming.STREAM_FOLLOWS), output);
+				try (resultStream) {
+					resultStream.transferTo(output);
+				}
+			} else {
+				Streaming.writeFrame(codec, response, output);
+			}
+		} catch (final ClassNotFoundException | NoSuchMethodException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Execute a request without any encoding, for InProcessEndpoint's by-reference mode. The request
+	 * should have its Optionals stripped, and the response will too, just as they would be on the wire.
+	 */
+	Response executeLocal(final Request request) {
+		return respondInBatch(request, request.deadline());
+	}
+
+	/**
+	 * Same as executeLocal(), but doesn't block on methods which return futures.
+	 */
+	CompletionStage<Response> executeLocalAsync(final Request request) {
+		try {
+			return respondAsync(request);
+		} catch (final NoSuchMethodException | RuntimeException ex) {
+			return CompletableFuture.completedFuture(new Response(null, ex));
+		}
+	}
+
+	/**
+	 * Same as executeLocal(), for a batch.
+	 */
+	BatchResponse executeLocal(final BatchRequest batch) {
+		return respondBatch(batch);
+	}
+
+	/**
+	 * @return true if the Content-Type marks a request which should be passed to executeStreaming()
+	 */
+	public boolean isStreaming(final String contentType) {
+		return Streaming.isStreaming(contentType);
+	}
+
+	/**
+	 * Take a request as it came off the wire and produce the response to put back on the wire.
+	 * Only for requests which have just been decoded, since the deadline counts from now.
+	 */
+	private Response respond(final Request wireRequest) throws NoSuchMethodException {
+		return respond(wireRequest, wireRequest.deadline());
+	}
+
+	/**
+	 * @param deadline from when the request was decoded; can be null
+	 */
+	private Response respond(final Request wireRequest, final Deadline deadline) throws NoSuchMethodException {
+		final MethodDef def = resolve(wireRequest);
+		if (def == null)
+			return new Response(null, new UnknownMethodException(wireRequest.methodId()));
+
+		if (!def.clazz().isInterface())
+			return new Response(null, notAnInterface(def.clazz()));
+
+		final CallListener listener = this.listener;
+		final long start = listener != null ? System.nanoTime() : 0;
+
+		final InvocationPlan plan = plan(def, true);
+		final Request request = plan.restore(wireRequest.withMethod(def));
+		if (listener != null)
+			listener.phase(Side.SERVER, def, Phase.RESTORE, System.nanoTime() - start, -1);
+
+		log.debug("Invoking request: {}", request);
+
+		final Response responseWithOptionals = invokeWithin(deadline, request);
+		log.debug("Returning response: {}", responseWithOptionals);
+
+		if (listener != null)
+			listener.completed(Side.SERVER, def, System.nanoTime() - start, responseWithOptionals.throwable());
+
+		return plan.strip(responseWithOptionals);
+	}
+
+	/**
+	 * Same as respond(), but doesn't block on methods which return futures.
+	 */
+	private CompletionStage<Response> respondAsync(final Request wireRequest) throws NoSuchMethodException {
+		return respondAsync(wireRequest, wireRequest.deadline());
+	}
+
+	/**
+	 * @param deadline from when the request was decoded; can be null
+	 */
+	private CompletionStage<Response> respondAsync(final Request wireRequest, final Deadline deadline) throws NoSuchMethodException {
+		final MethodDef def = resolve(wireRequest);
+		if (def == null)
+			return CompletableFuture.completedFuture(new Response(null, new UnknownMethodException(wireRequest.methodId())));
+
+		if (!def.clazz().isInterface())
+			return CompletableFuture.completedFuture(new Response(null, notAnInterface(def.clazz())));
+
+		final CallListener listener = this.listener;
+		final long start = listener != null ? System.nanoTime() : 0;
+
+		final InvocationPlan plan = plan(def, true);
+		final Request request = plan.restore(wireRequest.withMethod(def));
+		if (listener != null)
+			listener.phase(Side.SERVER, def, Phase.RESTORE, System.nanoTime() - start, -1);
+
+		log.debug("Invoking request: {}", request);
+
+		final CompletionStage<Response> responseWithOptionals;
+		if (plan.isFutureReturn()) {
+			responseWithOptionals = invokeAsyncWithin(deadline, request);
+		} else if (executor != null) {
+			responseWithOptionals = CompletableFuture.supplyAsync(() -> invokeWithin(deadline, request), executor);
+		} else {
+			responseWithOptionals = CompletableFuture.completedFuture(invokeWithin(deadline, request));
+		}
+
+		return responseWithOptionals.thenApply(response -> {
+			log.debug("Returning response: {}", response);
+
+			if (listener != null)
+				listener.completed(Side.SERVER, def, System.nanoTime() - start, response.throwable());
+
+			return plan.strip(response);
+		});
+	}
+
+	/**
+	 * Respond to every request in the batch, in parallel if there is a batch executor.
+	 */
+	private BatchResponse respondBatch(final BatchRequest batch) {
+		final Request[] requests = checkSize(batch);
+		final Deadline[] deadlines = deadlines(requests);
+		final Response[] responses = new Response[requests.length];
+
+		if (batchExecutor == null) {
+			for (int i = 0; i < requests.length; i++)
+				responses[i] = respondInBatch(requests[i], deadlines[i]);
+		} else {
+			final CompletableFuture<?>[] futures = new CompletableFuture<?>[requests.length];
+			for (int i = 0; i < requests.length; i++) {
+				final int index = i;
+				futures[i] = CompletableFuture.runAsync(() -> responses[index] = respondInBatch(requests[index], deadlines[index]), batchExecutor);
+			}
+
+			CompletableFuture.allOf(futures).join();
+		}
+
+		return new BatchResponse(responses);
+	}
+
+	/**
+	 * Same as respondBatch(), but doesn't block on methods which return futures.
+	 */
+	private CompletionStage<BatchResponse> respondBatchAsync(final BatchRequest batch) {
+		final Request[] requests = checkSize(batch);
+		final Deadline[] deadlines = deadlines(requests);
+
+		final List<CompletableFuture<Response>> futures = new ArrayList<>(requests.length);
+		for (int i = 0; i < requests.length; i++) {
+			final Request request = requests[i];
+			final Deadline deadline = deadlines[i];
+			futures.add(batchExecutor == null
+				? respondInBatchAsync(request, deadline)
+				: CompletableFuture.supplyAsync(() -> respondInBatchAsync(request, deadline), batchExecutor).thenCompose(Function.identity()));
+		}
+
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+			final Response[] responses = new Response[futures.size()];
+			for (int i = 0; i < responses.length; i++)
+				responses[i] = futures.get(i).join();
+
+			return new BatchResponse(responses);
+		});
+	}
+
+	/**
+	 * In a batch, a bad request shouldn't spoil the other requests. Same goes for local calls, where
+	 * there is no HTTP error to report it with.
+	 */
+	private Response respondInBatch(final Request wireRequest, final Deadline deadline) {
+		try {
+			return respond(wireRequest, deadline);
+		} catch (final NoSuchMethodException | RuntimeException ex) {
+			return new Response(null, ex);
+		}
+	}
+
+	/** Same as respondInBatch(), but doesn't block on methods which return futures */
+	private CompletableFuture<Response> respondInBatchAsync(final Request wireRequest, final Deadline deadline) {
+		try {
+			return respondAsync(wireRequest, deadline).toCompletableFuture();
+		} catch (final NoSuchMethodException | RuntimeException ex) {
+			return CompletableFuture.completedFuture(new Response(null, ex));
+		}
+	}
+
+	/**
+	 * Work out every deadline up front, so that requests which wait for the ones before them don't get
+	 * their whole budget again once they start.
+	 */
+	private static Deadline[] deadlines(final Request[] requests) {
+		final Deadline[] deadlines = new Deadline[requests.length];
+		for (int i = 0; i < requests.length; i++)
+			deadlines[i] = requests[i].deadline();
+
+		return deadlines;
+	}
+
+	/**
+	 * @return the batch's requests
+	 * @throws IllegalArgumentException if there are more than maxBatchSize of them
+	 */
+	private Request[] checkSize(final BatchRequest batch) {
+		final Request[] requests = batch.requests();
+		if (requests.length > maxBatchSize)
+			throw new IllegalArgumentException("Batch of " + requests.length + " requests is bigger than the limit of " + maxBatchSize);
+
+		return requests;
+	}
+
+	/** Read a request with the filter, if interfaces have been registered */
+	private Object readRequest(final Codec codec, final InputStream input) throws IOException, ClassNotFoundException {
+		final RequestFilter.Message filter = messageFilter();
+		final Object wireRequest = codec.readRequest(input, filter);
+		verify(filter, wireRequest);
+		return wireRequest;
+	}
+
+	/** @return null if interfaces haven't been registered */
+	private RequestFilter.Message messageFilter() {
+		final RequestFilter filter = requestFilter;
+		return filter != null ? filter.forMessage() : null;
+	}
+
+	/**
+	 * Make sure the message only contained classes which the interfaces it calls could send. Calls to methods
+	 * we don't recognize aren't invoked, so they don't count.
+	 * @param filter can be null
+	 */
+	private void verify(final RequestFilter.Message filter, final Object wireRequest) throws InvalidClassException {
+		if (filter == null)
+			return;
+
+		final Set<Class<?>> called = new HashSet<>();
+		final Request[] requests = wireRequest instanceof BatchRequest batch ? batch.requests() : new Request[] { (Request)wireRequest };
+		for (final Request request : requests) {
+			final MethodDef def = request.isCompact() ? methodIds.get(request.methodId()) : request.method();
+			if (def != null)
+				called.add(def.clazz());
+		}
+
+		filter.verify(called);
+	}
+
+	/**
+	 * @return the definition of the method being called, or null if it was a compact request we don't recognize
+	 */
+	private MethodDef resolve(final Request wireRequest) {
+		final MethodDef def = wireRequest.isCompact() ? methodIds.get(wireRequest.methodId()) : wireRequest.method();
+		if (def == null)
+			log.debug("Unknown method id in request: {}", wireRequest);
+
+		return def;
+	}
+
+	/**
+	 * Invoke with the deadline in scope, unless it has already passed.
+	 * @param deadline may be null, in which case this is just invoke()
+	 */
+	@SuppressWarnings("try")
+	private Response invokeWithin(final Deadline deadline, final Request request) {
+		if (deadline == null)
+			return invoke(request);
+
+		if (deadline.isExpired())
+			return new Response(null, expired(request.method()));
+
+		try (final Deadline.Scope ignored = deadline.apply()) {
+			return invoke(request);
+		}
+	}
+
+	/**
+	 * Same as invokeWithin(), for methods which return futures. If the future doesn't complete before the
+	 * deadline, we stop waiting for it and respond with a DeadlineExceededException; the bulkhead slot (if
+	 * any) is still held until the service's future completes.
+	 */
+	@SuppressWarnings("try")
+	private CompletionStage<Response> invokeAsyncWithin(final Deadline deadline, final Request request) {
+		if (deadline == null)
+			return invokeAsync(request);
+
+		if (deadline.isExpired())
+			return CompletableFuture.completedFuture(new Response(null, expired(request.method())));
+
+		final CompletionStage<Response> response;
+		try (final Deadline.Scope ignored = deadline.apply()) {
+			response = invokeAsync(request);
+		}
+
+		return response.toCompletableFuture().copy()
+			.completeOnTimeout(new Response(null, expired(request.method())), deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+	}
+
+	private DeadlineExceededException expired(final MethodDef def) {
+		log.debug("Deadline passed for {}", def);
+		return new DeadlineExceededException("Deadline passed for " + def);
+	}
+
 	/**
 	 * Execute a request and turn it into a response. If you would like, for example, to hide exceptions
 	 * from the client (say, in a production environment and your clients are untrusted Androids), you can
 	 * override this method and replace the Response with a generic exception.
 	 */
 	protected Response invoke(final Request request) {
+		Bulkhead bulkhead = null;
+		long start = 0;
 		try {
+			bulkhead = acquire(request.method());
+			start = System.nanoTime();
 			final Object result = invokeDirect(request);
-			return new Response(result, null);
+
+			// Futures can't go on the wire, only their values
+			final Object value = result instanceof CompletionStage<?> stage ? Futures.await(stage) : result;
+			return new Response(value, null);
 		} catch (final InvocationTargetException ex) {
 			return new Response(null, ex.getCause());
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return new Response(null, ex);
 		} catch (final Throwable ex) {
 			return new Response(null, ex);
+		} finally {
+			if (bulkhead != null)
+				bulkhead.release(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Like invoke(), but for methods which return futures; the response completes when the service's future
+	 * does, without tying up a thread. This is used only by executeAsync(). If you override invoke() to change
+	 * responses, you probably want to override this as well.
+	 */
+	protected CompletionStage<Response> invokeAsync(final Request request) {
+		final Bulkhead bulkhead;
+		try {
+			bulkhead = acquire(request.method());
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return CompletableFuture.completedFuture(new Response(null, ex));
+		} catch (final NoSuchMethodException | RuntimeException ex) {
+			return CompletableFuture.completedFuture(new Response(null, ex));
+		}
+
+		final long start = System.nanoTime();
+		final Object result;
+		try {
+			result = invokeDirect(request);
+		} catch (final Throwable ex) {
+			if (bulkhead != null)
+				bulkhead.release(System.nanoTime() - start);
+
+			return CompletableFuture.completedFuture(new Response(null, ex instanceof InvocationTargetException ? ex.getCause() : ex));
+		}
+
+		final CompletionStage<Response> response = result instanceof CompletionStage<?> stage
+			? stage.handle((value, ex) -> ex == null ? new Response(value, null) : new Response(null, Futures.unwrap(ex)))
+			: CompletableFuture.completedFuture(new Response(result, null));
+
+		if (bulkhead != null)
+			response.whenComplete((ignored, ex) -> bulkhead.release(System.nanoTime() - start));
+
+		return response;
+	}
+
+	/**
+	 * Wait for a slot if the method or its interface has a bulkhead.
+	 * @return the bulkhead to release when the invocation is done, or null if there is none
+	 * @throws OverloadedException if the bulkhead rejected the call
+	 */
+	private Bulkhead acquire(final MethodDef def) throws InterruptedException, NoSuchMethodException {
+		if (interfaceBulkheads.isEmpty() && methodBulkheads.isEmpty())
+			return null;
+
+		Bulkhead bulkhead = methodBulkheads.isEmpty() ? null : methodBulkheads.get(plan(def).method());
+		if (bulkhead == null)
+			bulkhead = interfaceBulkheads.get(def.clazz());
+
+		if (bulkhead != null) {
+			try {
+				bulkhead.acquire();
+			} catch (final OverloadedException ex) {
+				log.debug("Rejected {}: {}", def, ex.getMessage());
+				throw ex;
+			}
 		}
+
+		return bulkhead;
 	}
 
 	/**
-	 * Execute a request and return the result, possibly throwing nasty exceptions
+	 * Execute a request and return the result, possibly throwing nasty exceptions. For methods which
+	 * return futures, this is the future.
 	 */
-	private Object invokeDirect(final Request request) throws SecurityException, NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+	private Object invokeDirect(final Request request) throws Throwable {
 		// This is a quick sanity check; we don't want to let remotes instantiate any random class on the server
 		final Class<?> iface = request.method().clazz();
 		if (!iface.isInterface())
-			throw new IllegalArgumentException("Requests must be methods on interfaces; '" + iface.getName() + "' is not an interface");
+			throw notAnInterface(iface);
 
+		// We may have waited for a bulkhead
+		final Deadline deadline = Deadline.current();
+		if (deadline != null && deadline.isExpired())
+			throw expired(request.method());
+
+		final InvocationPlan plan = plan(request.method());
 		final Object service = instanceMapper.apply(iface);
 
-		checkAllowed(service, request.method());
+		final CallListener listener = this.listener;
+		final long start = listener != null ? System.nanoTime() : 0;
+
+		if (!plan.isAllowed(service.getClass())) {
+			checkAllowed(service, request.method());
+			plan.allow(service.getClass());
+		}
+
+		if (listener == null)
+			return plan.invoker().invoke(service, request.args());
+
+		final long checked = System.nanoTime();
+		listener.phase(Side.SERVER, request.method(), Phase.ACCESS_CHECK, checked - start, -1);
+		try {
+			return plan.invoker().invoke(service, request.args());
+		} finally {
+			listener.phase(Side.SERVER, request.method(), Phase.INVOKE, System.nanoTime() - checked, -1);
+		}
+	}
+
+	/**
+	 * Create the strategy used to call a particular method; this is called once per method and the
+	 * result is cached. The default uses a MethodHandle, falling back to reflection if the method
+	 * isn't accessible that way. Override this to plug in your own strategy.
+	 */
+	protected Invoker createInvoker(final Method method) {
+		try {
+			return Invoker.methodHandle(method);
+		} catch (final IllegalAccessException ex) {
+			log.debug("Falling back to reflection for {}: {}", method, ex.toString());
+			return Invoker.reflective(method);
+		}
+	}
+
+	/**
+	 * Get the cached plan for the method, resolving it if this is the first time we've seen it.
+	 * Resolution happens outside of the map so we don't hold a lock while reflecting.
+	 */
+	private InvocationPlan plan(final MethodDef def) throws NoSuchMethodException {
+		return plan(def, false);
+	}
+
+	/**
+	 * @param counted is true for the one lookup per request which planCacheHits() counts
+	 * @throws IllegalArgumentException if the method isn't on an interface, before resolving anything
+	 */
+	private InvocationPlan plan(final MethodDef def, final boolean counted) throws NoSuchMethodException {
+		final InvocationPlan existing = plans.get(def);
+		if (existing != null) {
+			if (counted)
+				planCacheHits.increment();
+			return existing;
+		}
+
+		// Plans and method ids are only for classes we would actually invoke
+		if (!def.clazz().isInterface())
+			throw notAnInterface(def.clazz());
+
+		planCacheMisses.increment();
+
+		final Method method = def.method();
+		final InvocationPlan plan = new InvocationPlan(method, createInvoker(method));
+		final InvocationPlan raced = plans.putIfAbsent(def, plan);
+		if (raced != null)
+			return raced;
+
+		final MethodDef collision = methodIds.putIfAbsent(def.id(), def);
+		if (collision != null && !collision.equals(def))
+			log.warn("Method id of {} collides with {}; compact requests will always go to the latter", def, collision);
+
+		return plan;
+	}
+
+	/** @return what a request for a method which isn't on an interface gets */
+	private static IllegalArgumentException notAnInterface(final Class<?> clazz) {
+		return new IllegalArgumentException("Requests must be methods on interfaces; '" + clazz.getName() + "' is not an interface");
+	}
 
-		final Method method = request.method().method();
+	/**
+	 * Resolve all the methods of the interfaces up front. This is optional, but it means the server
+	 * will understand compact requests for these methods without asking the client to retry. It also
+	 * means every codec (through {@code Codec.readRequest()}) will only deserialize classes that the parameters
+	 * of registered interfaces could plausibly contain, and rejects requests with anything else before
+	 * creating it. Once decoded, each call must only contain what its own interface's parameters could (see
+	 * {@code RequestFilter}). So once you register one interface, register them all. Until then, requests are not
+	 * filtered at all beyond the JVM-wide filter.
+	 */
+	public void register(final Class<?>... ifaces) {
+		final RequestFilter existing = requestFilter;
+		final RequestFilter filter = existing != null ? existing : new RequestFilter();
+
+		for (final Class<?> iface : ifaces) {
+			if (!iface.isInterface())
+				throw new IllegalArgumentException("'" + iface.getName() + "' is not an interface");
 
-		return method.invoke(service, request.args());
+			filter.add(iface);
+
+			for (final Method method : iface.getMethods()) {
+				try {
+					plan(new MethodDef(method));
+				} catch (final NoSuchMethodException ex) {
+					throw new IllegalStateException(ex);
+				}
+			}
+
+			// Only once it allows something, or every request would be rejected in the meantime
+			requestFilter = filter;
+		}
+	}
+
+	/** @return the number of requests whose invocation plan was already in the cache */
+	public long planCacheHits() {
+		return planCacheHits.sum();
+	}
+
+	/** @return the number of invocation plans which required reflection, including those made by register() */
+	public long planCacheMisses() {
+		return planCacheMisses.sum();
 	}
 
 	/**
@@ -95,6 +1076,9 @@ public class TrivetServer {
 	 * proxy that needs to be unwrapped in a Spring-specific manner. The default behavior is to call
 	 * {@code checkAllowedClass(service.getClass(), method)}.
 	 *
+	 * Once this passes for a particular method and service class, the verdict is cached and this will
+	 * not be called again for that combination. Your rules must depend only on the class of the service.
+	 *
 	 * @throws IllegalArgumentException if the service is not properly annotated to allow the interface to be called remotely
 	 */
 	protected void checkAllowed(final Object service, final MethodDef method) {
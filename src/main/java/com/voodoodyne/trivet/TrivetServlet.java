@@ -1,14 +1,26 @@
 package com.voodoodyne.trivet;
 
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.ServletException;
-import jakarta.servlet.ServletInputStream;
 import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serial;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 
 /**
@@ -20,8 +32,24 @@ public class TrivetServlet extends HttpServlet {
 	@Serial
 	private static final long serialVersionUID = 1L;
 
+	private static final Logger log = LoggerFactory.getLogger(TrivetServlet.class);
+
+	/** Below this, compression usually isn't worth the CPU */
+	public static final int DEFAULT_COMPRESSION_THRESHOLD = 2048;
+
+	/** How long an async request can take before it fails, unless changed */
+	public static final Duration DEFAULT_ASYNC_TIMEOUT = Duration.ofSeconds(60);
+
 	private final TrivetServer trivetServer;
 
+	/** If not null, requests are processed asynchronously on this executor */
+	private final Executor executor;
+
+	private long asyncTimeoutMillis = DEFAULT_ASYNC_TIMEOUT.toMillis();
+
+	/** Compress responses at least this big, if the client accepts it; negative to never compress */
+	private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
 	/**
 	 * @param instanceMapper should be something like guice's Injector::getInstance or
 	 *                       spring's ApplicationContext::getBean. Maps a remote interface
@@ -33,24 +61,272 @@ public class TrivetServlet extends HttpServlet {
 	}
 
 	/**
-	 * In case you want to customize the TrivetServer.
+	 * In case you want to customize the TrivetServer. Requests are processed synchronously.
 	 */
 	public TrivetServlet(final TrivetServer trivetServer) {
+		this(trivetServer, null);
+	}
+
+	/**
+	 * Process requests asynchronously, which frees up the container thread while the service method
+	 * runs on the executor. Methods that return futures complete the response when the future completes,
+	 * without holding any thread. {@code VirtualThreads.newPerTaskExecutor()} is a good choice of executor.
+	 * The servlet must be registered with async support enabled, otherwise requests are processed synchronously.
+	 *
+	 * @param executor can be null to process requests synchronously
+	 */
+	public TrivetServlet(final TrivetServer trivetServer, final Executor executor) {
 		this.trivetServer = trivetServer;
+		this.executor = executor;
+	}
+
+	/**
+	 * Fail async requests (with a 503) which haven't finished after this long, say because a service method
+	 * returned a future that never completes. Zero means never, which isn't recommended. The default is
+	 * {@code DEFAULT_ASYNC_TIMEOUT}.
+	 */
+	public void setAsyncTimeout(final Duration asyncTimeout) {
+		this.asyncTimeoutMillis = asyncTimeout.toMillis();
+	}
+
+	/**
+	 * Responses at least this many bytes long are compressed with gzip or deflate, if the client says it
+	 * accepts them. Compressed requests are always understood. Set to a negative number to disable response
+	 * compression entirely; the default is {@code DEFAULT_COMPRESSION_THRESHOLD}.
+	 */
+	public void setCompressionThreshold(final int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
 	}
 
 	@Override
 	protected void doPost(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
-		if (!Client.APPLICATION_JAVA_SERIALIZED_OBJECT.equals(req.getContentType()))
-			throw new ServletException("Content-Type must be " + Client.APPLICATION_JAVA_SERIALIZED_OBJECT);
+		final Codec codec = trivetServer.codecFor(req.getContentType());
+		if (codec == null)
+			throw new ServletException("Unsupported Content-Type " + req.getContentType() + "; try " + Client.APPLICATION_JAVA_SERIALIZED_OBJECT);
 
-		resp.setContentType(Client.APPLICATION_JAVA_SERIALIZED_OBJECT);
+		final boolean streaming = trivetServer.isStreaming(req.getContentType());
+		resp.setContentType(streaming ? Streaming.contentType(codec) : codec.contentType());
+
+		final String contentEncoding = req.getHeader("Content-Encoding");
+		if (!Compression.isSupported(contentEncoding)) {
+			resp.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Unsupported Content-Encoding " + contentEncoding);
+			return;
+		}
+
+		if (executor != null && req.isAsyncSupported()) {
+			final AsyncContext async = req.startAsync();
+			async.setTimeout(asyncTimeoutMillis);
+
+			// Whoever gets here first (the response or the timeout) completes the request
+			final AtomicBoolean finished = new AtomicBoolean();
+			async.addListener(new TimeoutListener(finished));
+
+			try {
+				executor.execute(() -> executeAsync(async, codec, streaming, finished));
+			} catch (final RejectedExecutionException ex) {
+				log.warn("Executor rejected request", ex);
+				if (finished.compareAndSet(false, true)) {
+					resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+					async.complete();
+				}
+			}
+			return;
+		}
 
 		try (
-			final ServletInputStream inputStream = req.getInputStream();
-			final ServletOutputStream outputStream = resp.getOutputStream()
+			final InputStream inputStream = input(req);
+			final OutputStream outputStream = output(req, resp, streaming)
 		) {
-			trivetServer.execute(inputStream, outputStream);
+			if (streaming) {
+				trivetServer.executeStreaming(codec, inputStream, outputStream);
+			} else {
+				trivetServer.execute(codec, inputStream, outputStream);
+			}
+		}
+	}
+
+	/**
+	 * Runs on the executor. Completes the async context when the response has been written, unless it
+	 * has timed out in the meantime.
+	 */
+	private void executeAsync(final AsyncContext async, final Codec codec, final boolean streaming, final AtomicBoolean finished) {
+		final HttpServletResponse resp = (HttpServletResponse)async.getResponse();
+
+		OutputStream output = null;
+		CompletableFuture<Void> done;
+		try {
+			final InputStream input = input((HttpServletRequest)async.getRequest());
+			output = output((HttpServletRequest)async.getRequest(), resp, streaming);
+
+			if (streaming) {
+				// Streams block no matter what, but at least we're on the executor
+				trivetServer.executeStreaming(codec, input, output);
+				done = CompletableFuture.completedFuture(null);
+			} else {
+				// Writing the response blocks, so it happens back on the executor
+				done = trivetServer.executeAsync(codec, input, output, executor);
+			}
+		} catch (final IOException | RuntimeException ex) {
+			done = CompletableFuture.failedFuture(ex);
+		}
+
+		final OutputStream finalOutput = output;
+		done.whenComplete((ignored, ex) -> {
+			if (finished.get()) {
+				log.warn("Trivet request finished after it timed out", ex);
+				return;
+			}
+
+			Throwable failure = ex;
+
+			// Finishes off any compression
+			if (failure == null && finalOutput != null) {
+				try {
+					finalOutput.close();
+				} catch (final IOException closeEx) {
+					failure = closeEx;
+				}
+			}
+
+			if (failure != null) {
+				log.error("Error processing trivet request", failure);
+				if (!resp.isCommitted())
+					resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+
+			if (finished.compareAndSet(false, true))
+				async.complete();
+		});
+	}
+
+	/**
+	 * Fails requests which time out. Without this, the container would dispatch them back to the servlet.
+	 */
+	private static class TimeoutListener implements AsyncListener {
+		private final AtomicBoolean finished;
+
+		/** */
+		TimeoutListener(final AtomicBoolean finished) {
+			this.finished = finished;
+		}
+
+		@Override
+		public void onTimeout(final AsyncEvent event) throws IOException {
+			if (!finished.compareAndSet(false, true))
+				return;
+
+			final HttpServletResponse resp = (HttpServletResponse)event.getAsyncContext().getResponse();
+			if (!resp.isCommitted())
+				resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Timed out");
+
+			event.getAsyncContext().complete();
+		}
+
+		@Override
+		public void onComplete(final AsyncEvent event) {}
+
+		@Override
+		public void onError(final AsyncEvent event) {}
+
+		@Override
+		public void onStartAsync(final AsyncEvent event) {}
+	}
+
+	/** The request body, decompressed if necessary */
+	private InputStream input(final HttpServletRequest req) throws IOException {
+		return Compression.decode(req.getHeader("Content-Encoding"), req.getInputStream());
+	}
+
+	/**
+	 * The response body, compressed if it's big enough and the client accepts it. Small responses (other
+	 * than streams, which must not be held back) are sent with a Content-Length instead of chunked.
+	 */
+	private OutputStream output(final HttpServletRequest req, final HttpServletResponse resp, final boolean streaming) throws IOException {
+		final OutputStream raw = streaming ? resp.getOutputStream() : new ContentLengthOutputStream(resp);
+		if (compressionThreshold < 0)
+			return raw;
+
+		resp.addHeader("Vary", "Accept-Encoding");
+
+		final String encoding = Compression.choose(req.getHeader("Accept-Encoding"));
+		if (encoding == null)
+			return raw;
+
+		return new Compression.ThresholdOutputStream(raw, compressionThreshold, () -> {
+			resp.setHeader("Content-Encoding", encoding);
+			return Compression.encode(encoding, raw);
+		});
+	}
+
+	/**
+	 * Holds the response in a pooled buffer until it's complete, so the length is known. Responses which
+	 * outgrow the buffer are sent chunked as usual. Flushes are ignored while buffering; codecs flush when
+	 * they finish writing, which would otherwise commit the response without a length.
+	 */
+	private static class ContentLengthOutputStream extends OutputStream {
+		private final HttpServletResponse resp;
+		private final ServletOutputStream raw;
+
+		/** Null once we've given up on buffering */
+		private Buffers.Output buffer = new Buffers.Output();
+
+		/** */
+		ContentLengthOutputStream(final HttpServletResponse resp) throws IOException {
+			this.resp = resp;
+			this.raw = resp.getOutputStream();
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			if (buffer != null) {
+				if (buffer.size() < Buffers.POOLED_SIZE) {
+					buffer.write(b);
+					return;
+				}
+
+				giveUpBuffering();
+			}
+
+			raw.write(b);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			if (buffer != null) {
+				if (buffer.size() + len <= Buffers.POOLED_SIZE) {
+					buffer.write(b, off, len);
+					return;
+				}
+
+				giveUpBuffering();
+			}
+
+			raw.write(b, off, len);
+		}
+
+		/** The response is too big to buffer; send what we have and write straight through from now on */
+		private void giveUpBuffering() throws IOException {
+			buffer.writeTo(raw);
+			buffer.release();
+			buffer = null;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (buffer == null)
+				raw.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (buffer != null) {
+				resp.setContentLength(buffer.size());
+				buffer.writeTo(raw);
+				buffer.release();
+				buffer = null;
+			}
+
+			raw.close();
 		}
 	}
 }
@@ -0,0 +1,17 @@
+package com.voodoodyne.trivet;
+
+
+import java.io.Serial;
+
+/**
+ * Sent back by the server when it receives a compact request for a method id it has not seen.
+ * The client handles this by retrying with the full method definition; you should never see it.
+ */
+public class UnknownMethodException extends RuntimeException {
+	@Serial
+	private static final long serialVersionUID = 1L;
+
+	public UnknownMethodException(final long methodId) {
+		super("Server does not recognize method id " + Long.toHexString(methodId));
+	}
+}
@@ -0,0 +1,54 @@
+package com.voodoodyne.trivet;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Trivet is built for Java 17, but will use virtual threads when running on Java 21+.
+ */
+public class VirtualThreads {
+
+	/** Executors.newVirtualThreadPerTaskExecutor(), or null if this JVM doesn't have it */
+	private static final MethodHandle NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findFactory();
+
+	private static MethodHandle findFactory() {
+		try {
+			return MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+		} catch (final NoSuchMethodException | IllegalAccessException ex) {
+			return null;
+		}
+	}
+
+	/** @return true if this JVM supports virtual threads */
+	public static boolean isAvailable() {
+		return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+	}
+
+	/**
+	 * @return an executor which starts a new virtual thread for each task. On JVMs without virtual
+	 *         threads, falls back to a cached pool of daemon platform threads.
+	 */
+	public static ExecutorService newPerTaskExecutor() {
+		if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null) {
+			try {
+				return (ExecutorService)NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invokeExact();
+			} catch (final Throwable ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+
+		final AtomicInteger count = new AtomicInteger();
+		final ThreadFactory factory = runnable -> {
+			final Thread thread = new Thread(runnable, "trivet-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+
+		return Executors.newCachedThreadPool(factory);
+	}
+}
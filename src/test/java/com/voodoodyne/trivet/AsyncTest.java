@@ -0,0 +1,138 @@
+package com.voodoodyne.trivet;
+
+import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
+import org.eclipse.jetty.ee10.servlet.ServletHolder;
+import org.eclipse.jetty.server.Server;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AsyncTest {
+	private Server server;
+
+	public interface Greeter {
+		CompletableFuture<String> hi(String name);
+		CompletionStage<Optional<String>> hiMaybe(Optional<String> name);
+		CompletableFuture<Void> fails();
+		String hiNow(String name);
+		CompletableFuture<String> never();
+	}
+
+	@Remote
+	private static class GreeterImpl implements Greeter {
+		@Override
+		public CompletableFuture<String> hi(final String name) {
+			return CompletableFuture.supplyAsync(() -> "Hi, " + name);
+		}
+
+		@Override
+		public CompletionStage<Optional<String>> hiMaybe(final Optional<String> name) {
+			return CompletableFuture.completedFuture(name.map(n -> "Hi, " + n));
+		}
+
+		@Override
+		public CompletableFuture<Void> fails() {
+			return CompletableFuture.failedFuture(new IllegalStateException("nope"));
+		}
+
+		@Override
+		public String hiNow(final String name) {
+			return "Hi, " + name;
+		}
+
+		@Override
+		public CompletableFuture<String> never() {
+			return new CompletableFuture<>();
+		}
+	}
+
+	@BeforeEach
+	void startServer() throws Exception {
+		server = new Server(7779);
+
+		final ServletContextHandler sch = new ServletContextHandler("/");
+		sch.addServlet(new ServletHolder(new TrivetServlet(iface -> new GreeterImpl())), "/greeter");
+
+		final TrivetServer trivetServer = new TrivetServer(iface -> new GreeterImpl());
+		final ServletHolder asyncHolder = new ServletHolder(new TrivetServlet(trivetServer, VirtualThreads.newPerTaskExecutor()));
+		asyncHolder.setAsyncSupported(true);
+		sch.addServlet(asyncHolder, "/greeter-async");
+
+		final TrivetServlet impatient = new TrivetServlet(new TrivetServer(iface -> new GreeterImpl()), VirtualThreads.newPerTaskExecutor());
+		impatient.setAsyncTimeout(Duration.ofMillis(200));
+		final ServletHolder impatientHolder = new ServletHolder(impatient);
+		impatientHolder.setAsyncSupported(true);
+		sch.addServlet(impatientHolder, "/greeter-impatient");
+		server.setHandler(sch);
+
+		server.start();
+	}
+
+	@AfterEach
+	void stopServer() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	void futuresAreCompletedFromResponses() throws Exception {
+		final Greeter client = Client.create("http://localhost:7779/greeter", Greeter.class);
+
+		assertThat(client.hi("Bob").get()).isEqualTo("Hi, Bob");
+		assertThat(client.hiMaybe(Optional.of("Bob")).toCompletableFuture().get()).contains("Hi, Bob");
+		assertThat(client.hiMaybe(Optional.empty()).toCompletableFuture().get()).isEmpty();
+	}
+
+	@Test
+	void exceptionsCompleteFuturesExceptionally() {
+		final Greeter client = Client.create("http://localhost:7779/greeter", Greeter.class);
+
+		assertThatThrownBy(() -> client.fails().get())
+			.isInstanceOf(ExecutionException.class)
+			.cause()
+			.isInstanceOf(RemoteException.class)
+			.hasCauseInstanceOf(IllegalStateException.class);
+	}
+
+	@Test
+	void asyncServletWorks() throws Exception {
+		final Greeter client = Client.create("http://localhost:7779/greeter-async", Greeter.class);
+
+		assertThat(client.hiNow("Alice")).isEqualTo("Hi, Alice");
+		assertThat(client.hi("Bob").get()).isEqualTo("Hi, Bob");
+		assertThat(client.hiMaybe(Optional.empty()).toCompletableFuture().get()).isEmpty();
+
+		assertThatThrownBy(() -> client.fails().get())
+			.isInstanceOf(ExecutionException.class)
+			.cause()
+			.isInstanceOf(RemoteException.class)
+			.hasCauseInstanceOf(IllegalStateException.class);
+	}
+
+	@Test
+	void asyncRequestsTimeOut() throws Exception {
+		final Greeter client = Client.create("http://localhost:7779/greeter-impatient", Greeter.class);
+
+		assertThat(client.hi("Bob").get()).isEqualTo("Hi, Bob");
+		assertThatThrownBy(() -> client.never().get(5, TimeUnit.SECONDS))
+			.isInstanceOf(ExecutionException.class)
+			.hasMessageContaining("503");
+	}
+
+	@Test
+	void clientCanUseAnExecutor() throws Exception {
+		final Greeter client = new ClientFactory("http://localhost:7779/greeter", VirtualThreads.newPerTaskExecutor()).create(Greeter.class);
+
+		assertThat(client.hi("Bob").get()).isEqualTo("Hi, Bob");
+		assertThat(client.hiNow("Alice")).isEqualTo("Hi, Alice");
+	}
+}
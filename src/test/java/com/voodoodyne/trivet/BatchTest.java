@@ -0,0 +1,296 @@
+package com.voodoodyne.trivet;
+
+import com.voodoodyne.trivet.FullIntegrationTest.Hello;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BatchTest {
+
+	@Remote
+	private static class HelloImpl implements Hello {
+		@Override
+		public String hi(final String name) {
+			return "Hi, " + name;
+		}
+
+		@Override
+		public Optional<String> hiMaybe(final Optional<String> name) {
+			return name.map(this::hi);
+		}
+
+		@Override
+		public void throwup() {
+			throw new NullPointerException("Hey this is annoying");
+		}
+
+		@Override
+		public Optional<String> badReturnsNull() {
+			return null;
+		}
+	}
+
+	/** Talks to the server in memory, counting round trips */
+	private static class CountingEndpoint extends InProcessEndpoint {
+		private final AtomicInteger posts = new AtomicInteger();
+
+		CountingEndpoint(final TrivetServer server) {
+			super(server);
+		}
+
+		@Override
+		public InputStream post(final String contentType, final byte[] body, final Class<?> iface) throws IOException {
+			posts.incrementAndGet();
+			return super.post(contentType, body, iface);
+		}
+
+		@Override
+		public CompletableFuture<InputStream> postAsync(final String contentType, final byte[] body, final Class<?> iface) {
+			posts.incrementAndGet();
+			return super.postAsync(contentType, body, iface);
+		}
+	}
+
+	@Test
+	void explicitBatchIsOneRoundTrip() throws Exception {
+		final CountingEndpoint endpoint = new CountingEndpoint(new TrivetServer(iface -> new HelloImpl()));
+		final Batch<Hello> batch = new ClientFactory(endpoint).batch(Hello.class);
+
+		final CompletableFuture<String> bob = batch.add(hello -> hello.hi("Bob"));
+		final CompletableFuture<Optional<String>> fred = batch.add(hello -> hello.hiMaybe(Optional.of("Fred")));
+		final CompletableFuture<Optional<String>> nobody = batch.add(hello -> hello.hiMaybe(Optional.empty()));
+		final CompletableFuture<Void> fails = batch.add(hello -> {
+			hello.throwup();
+			return null;
+		});
+
+		assertThat(batch.size()).isEqualTo(4);
+		batch.send().get();
+
+		assertThat(endpoint.posts.get()).isEqualTo(1);
+		assertThat(batch.size()).isZero();
+		assertThat(bob.get()).isEqualTo("Hi, Bob");
+		assertThat(fred.get()).contains("Hi, Fred");
+		assertThat(nobody.get()).isEmpty();
+		assertThatThrownBy(fails::get)
+			.isInstanceOf(ExecutionException.class)
+			.hasCauseInstanceOf(RemoteException.class);
+	}
+
+	@Test
+	void functionMustCallTheInterface() throws Exception {
+		final Batch<Hello> batch = new ClientFactory(new CountingEndpoint(new TrivetServer(iface -> new HelloImpl()))).batch(Hello.class);
+
+		assertThatThrownBy(() -> batch.add(hello -> "nothing")).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void serverCanRunBatchesInParallel() throws Exception {
+		final TrivetServer server = new TrivetServer(iface -> new HelloImpl());
+		server.setBatchExecutor(Executors.newFixedThreadPool(4));
+
+		final Batch<Hello> batch = new ClientFactory(new CountingEndpoint(server)).batch(Hello.class);
+
+		final List<CompletableFuture<String>> results = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			final String name = "Bob" + i;
+			results.add(batch.add(hello -> hello.hi(name)));
+		}
+		batch.send().get();
+
+		for (int i = 0; i < 20; i++)
+			assertThat(results.get(i).get()).isEqualTo("Hi, Bob" + i);
+	}
+
+	@Test
+	void asyncBatchesUseTheBatchExecutor() throws Exception {
+		final TrivetServer server = new TrivetServer(iface -> new HelloImpl());
+		final AtomicInteger executed = new AtomicInteger();
+		server.setBatchExecutor(task -> {
+			executed.incrementAndGet();
+			task.run();
+		});
+
+		final ByteArrayOutputStream requestBytes = new ByteArrayOutputStream();
+		final Codec codec = new JavaSerializationCodec();
+		final MethodDef def = new MethodDef(Hello.class.getMethod("hi", String.class));
+		codec.write(new BatchRequest(new Request[] { new Request(def, new Object[] { "Bob" }), new Request(def, new Object[] { "Fred" }) }), requestBytes);
+
+		final ByteArrayOutputStream responseBytes = new ByteArrayOutputStream();
+		server.executeAsync(codec, new ByteArrayInputStream(requestBytes.toByteArray()), responseBytes).get();
+
+		final BatchResponse response = (BatchResponse)codec.read(new ByteArrayInputStream(responseBytes.toByteArray()));
+		assertThat(response.responses()).extracting(Response::result).containsExactly("Hi, Bob", "Hi, Fred");
+		assertThat(executed.get()).isEqualTo(2);
+	}
+
+	@Test
+	void oversizedBatchesAreRejected() throws Exception {
+		final TrivetServer server = new TrivetServer(iface -> new HelloImpl());
+		server.setMaxBatchSize(2);
+
+		final Batch<Hello> batch = new ClientFactory(new CountingEndpoint(server)).batch(Hello.class);
+		final List<CompletableFuture<String>> results = new ArrayList<>();
+		for (int i = 0; i < 3; i++)
+			results.add(batch.add(hello -> hello.hi("Bob")));
+
+		batch.send().get();
+		for (final CompletableFuture<String> result : results)
+			assertThatThrownBy(result::get).hasStackTraceContaining("bigger than the limit of 2");
+	}
+
+	@Test
+	void bigBatchesAreSplit() throws Exception {
+		final CountingEndpoint endpoint = new CountingEndpoint(new TrivetServer(iface -> new HelloImpl()));
+		final Batch<Hello> batch = new ClientFactory(endpoint).batch(Hello.class);
+
+		final List<CompletableFuture<String>> results = new ArrayList<>();
+		for (int i = 0; i < 2500; i++) {
+			final String name = "Bob" + i;
+			results.add(batch.add(hello -> hello.hi(name)));
+		}
+		batch.send().get();
+
+		assertThat(endpoint.posts.get()).isEqualTo(3);
+		assertThat(results.get(2499).get()).isEqualTo("Hi, Bob2499");
+		assertThatThrownBy(() -> new ClientFactory(endpoint).setBatching(5000, Duration.ofMillis(1)))
+			.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	public interface Echo {
+		Object echo(Object thing);
+	}
+
+	@Remote
+	private static class EchoImpl implements Echo {
+		@Override
+		public Object echo(final Object thing) {
+			return thing;
+		}
+	}
+
+	@Test
+	void unencodableRequestsFailAlone() throws Exception {
+		final Batch<Echo> batch = new ClientFactory(new InProcessEndpoint(new TrivetServer(iface -> new EchoImpl()))).batch(Echo.class);
+
+		final CompletableFuture<Object> fine = batch.add(echo -> echo.echo("fine"));
+		final CompletableFuture<Object> broken = batch.add(echo -> echo.echo(new Object()));
+		batch.send().get();
+
+		assertThat(fine.get()).isEqualTo("fine");
+		assertThatThrownBy(broken::get).hasCauseInstanceOf(NotSerializableException.class);
+	}
+
+	@Test
+	void failedSendsFailEveryCaller() throws Exception {
+		final TrivetServer server = new TrivetServer(iface -> new HelloImpl());
+		server.setMaxBatchSize(2);
+
+		// By reference, so the server's rejection is thrown straight out of the send
+		final ClientFactory factory = new ClientFactory(new InProcessEndpoint(server, true));
+		factory.setBatching(3, Duration.ofSeconds(10));
+		final Hello hello = factory.create(Hello.class);
+
+		final ExecutorService threads = Executors.newFixedThreadPool(3);
+		final List<CompletableFuture<String>> results = new ArrayList<>();
+		for (int i = 0; i < 3; i++)
+			results.add(CompletableFuture.supplyAsync(() -> hello.hi("Bob"), threads));
+
+		for (final CompletableFuture<String> result : results)
+			assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS)).hasStackTraceContaining("bigger than the limit of 2");
+
+		threads.shutdown();
+	}
+
+	@Test
+	void compactRequestsWorkInBatches() throws Exception {
+		final TrivetServer server = new TrivetServer(iface -> new HelloImpl());	// doesn't know the ids yet
+		final ClientFactory factory = new ClientFactory(new CountingEndpoint(server));
+		factory.setCompactRequests(true);
+		final Batch<Hello> batch = factory.batch(Hello.class);
+
+		for (int round = 0; round < 3; round++) {
+			final CompletableFuture<String> result = batch.add(hello -> hello.hi("Bob"));
+			batch.send().get();
+			assertThat(result.get()).isEqualTo("Hi, Bob");
+		}
+	}
+
+	@Test
+	void callsAreBatchedAutomatically() throws Exception {
+		final CountingEndpoint endpoint = new CountingEndpoint(new TrivetServer(iface -> new HelloImpl()));
+		final ClientFactory factory = new ClientFactory(endpoint);
+		factory.setBatching(5, Duration.ofSeconds(10));
+		final Hello hello = factory.create(Hello.class);
+
+		// Five threads make one call each; the batch fills up and goes out without waiting
+		final ExecutorService threads = Executors.newFixedThreadPool(5);
+		final List<CompletableFuture<String>> results = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			final String name = "Bob" + i;
+			results.add(CompletableFuture.supplyAsync(() -> hello.hi(name), threads));
+		}
+
+		for (int i = 0; i < 5; i++)
+			assertThat(results.get(i).get()).isEqualTo("Hi, Bob" + i);
+
+		assertThat(endpoint.posts.get()).isEqualTo(1);
+		threads.shutdown();
+	}
+
+	@Test
+	@SuppressWarnings("try")
+	void batchesAreSentUnderTheDeadline() throws Exception {
+		final List<Deadline> deadlines = new CopyOnWriteArrayList<>();
+		final ClientFactory factory = new ClientFactory(new InProcessEndpoint(new TrivetServer(iface -> new HelloImpl())) {
+			@Override
+			public CompletableFuture<InputStream> postAsync(final String contentType, final byte[] body, final Class<?> iface) {
+				deadlines.add(Deadline.current());
+				return super.postAsync(contentType, body, iface);
+			}
+		});
+		factory.setBatching(100, Duration.ofMillis(100));
+		factory.setTimeout(Duration.ofSeconds(10));
+		final Hello hello = factory.create(Hello.class);
+
+		assertThat(hello.hi("Bob")).isEqualTo("Hi, Bob");
+		assertThat(deadlines).hasSize(1).doesNotContainNull();
+
+		// Runs out while waiting for the batch to go
+		try (final Deadline.Scope ignored = Deadline.within(Duration.ofMillis(30))) {
+			assertThatThrownBy(() -> hello.hi("Bob")).isInstanceOf(DeadlineExceededException.class);
+		}
+		assertThat(deadlines).hasSize(1);
+	}
+
+	@Test
+	void partialBatchesGoOutAfterTheDelay() throws Exception {
+		final CountingEndpoint endpoint = new CountingEndpoint(new TrivetServer(iface -> new HelloImpl()));
+		final ClientFactory factory = new ClientFactory(endpoint);
+		factory.setBatching(100, Duration.ofMillis(10));
+		final Hello hello = factory.create(Hello.class);
+
+		assertThat(hello.hi("Bob")).isEqualTo("Hi, Bob");
+		assertThat(hello.hiMaybe(Optional.empty())).isEmpty();
+		assertThatThrownBy(hello::throwup).isInstanceOf(RemoteException.class);
+		assertThat(endpoint.posts.get()).isEqualTo(3);
+	}
+}
@@ -0,0 +1,195 @@
+package com.voodoodyne.trivet;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputFilter;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class BinaryCodecTest {
+
+	enum Color { RED, GREEN }
+
+	private record Point(int x, int y) implements Serializable {}
+
+	private record Thing(String name, Point[] points, List<Point> pointList, Map<String, Color> colors, long count) implements Serializable {}
+
+	/** Not Serializable, so not allowed */
+	private record Plain(String name) {}
+
+	private final Codec codec = new BinaryCodec();
+
+	private Object roundTrip(final Object value) throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		codec.write(value, bytes);
+		return codec.read(new ByteArrayInputStream(bytes.toByteArray()));
+	}
+
+	@Test
+	void roundTripsSimpleValues() throws Exception {
+		for (final Object value : List.of("foo", "", "été", 0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MIN_VALUE, 3L,
+				true, false, 1.5d, 2.5f, (short)7, (byte)-3, 'x', Color.GREEN, int.class, String[].class, new BigDecimal("1.23"))) {
+			assertThat(roundTrip(value)).isEqualTo(value);
+		}
+
+		assertThat(roundTrip(null)).isNull();
+	}
+
+	@Test
+	void roundTripsArrays() throws Exception {
+		assertThat((byte[])roundTrip(new byte[]{1, 2, 3})).containsExactly(1, 2, 3);
+		assertThat((int[])roundTrip(new int[]{1, -2, 3})).containsExactly(1, -2, 3);
+		assertThat((Object[])roundTrip(new Object[]{"a", 1, null})).containsExactly("a", 1, null);
+	}
+
+	@Test
+	void roundTripsCollections() throws Exception {
+		assertThat(roundTrip(List.of(1, 2, 3))).isEqualTo(List.of(1, 2, 3));
+		assertThat(roundTrip(Set.of("a"))).isEqualTo(Set.of("a"));
+		assertThat(roundTrip(Arrays.asList("a", "b"))).isEqualTo(List.of("a", "b"));
+
+		final Map<String, Integer> map = new LinkedHashMap<>();
+		map.put("b", 2);
+		map.put("a", 1);
+		assertThat(roundTrip(map)).isEqualTo(map);
+
+		final TreeMap<String, Integer> sorted = new TreeMap<>(map);
+		assertThat(roundTrip(sorted)).isInstanceOf(TreeMap.class).isEqualTo(sorted);
+	}
+
+	@Test
+	void roundTripsRecords() throws Exception {
+		final Thing thing = new Thing("thing", new Point[]{new Point(1, 2), new Point(3, 4)},
+			List.of(new Point(5, 6)), Map.of("r", Color.RED), 99L);
+
+		final Thing back = (Thing)roundTrip(thing);
+		assertThat(back.name()).isEqualTo("thing");
+		assertThat(back.points()).containsExactly(new Point(1, 2), new Point(3, 4));
+		assertThat(back.pointList()).containsExactly(new Point(5, 6));
+		assertThat(back.colors()).containsEntry("r", Color.RED);
+		assertThat(back.count()).isEqualTo(99L);
+	}
+
+	@Test
+	void nonSerializableRecordsAreRejected() {
+		final Throwable thrown = catchThrowable(() -> roundTrip(new Plain("nope")));
+		assertThat(thrown).isInstanceOf(NotSerializableException.class);
+	}
+
+	@Test
+	void roundTripsRequestsAndResponses() throws Exception {
+		final MethodDef def = new MethodDef(FullIntegrationTest.Hello.class.getMethod("hi", String.class));
+		final Request request = (Request)roundTrip(new Request(def, new Object[]{"Bob"}));
+		assertThat(request.method()).isEqualTo(def);
+		assertThat(request.args()).containsExactly("Bob");
+
+		final Response response = (Response)roundTrip(new Response(null, new IllegalStateException("oops")));
+		assertThat(response.throwable()).isInstanceOf(IllegalStateException.class).hasMessage("oops");
+	}
+
+	@Test
+	void isSmallerThanJavaSerialization() throws Exception {
+		final MethodDef def = new MethodDef(FullIntegrationTest.Hello.class.getMethod("hi", String.class));
+		final Request request = new Request(def, new Object[]{"Bob"});
+
+		final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		codec.write(request, binary);
+
+		final ByteArrayOutputStream java = new ByteArrayOutputStream();
+		new JavaSerializationCodec().write(request, java);
+
+		assertThat(binary.size()).isLessThan(java.size() / 2);
+	}
+
+	@Test
+	void roundTripsLargeContainers() throws Exception {
+		final int[] ints = new int[5000];
+		Arrays.setAll(ints, i -> i);
+		assertThat((int[])roundTrip(ints)).isEqualTo(ints);
+
+		final List<Integer> list = Arrays.stream(ints).boxed().toList();
+		assertThat(roundTrip(list)).isEqualTo(list);
+	}
+
+	@Test
+	void lengthsAreNotTrusted() {
+		// Each claims about 2^31 elements, then ends
+		final byte[] hugeLength = { (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x07 };
+		final byte[][] bodies = {
+			concat(new byte[] { 11 }, hugeLength),	// BYTES
+			concat(new byte[] { 10 }, hugeLength),	// STRING
+			concat(new byte[] { 13 }, hugeLength),	// LIST
+			concat(new byte[] { 12, 0, 3, 'i', 'n', 't' }, hugeLength),	// ARRAY of int
+		};
+
+		for (final byte[] body : bodies) {
+			final Throwable thrown = catchThrowable(() -> codec.readRequest(new ByteArrayInputStream(body), null));
+			assertThat(thrown).isInstanceOf(EOFException.class);
+		}
+	}
+
+	@Test
+	void deepNestingIsRejected() {
+		// A LIST of one element, over and over; two bytes per level
+		final byte[] body = new byte[20_000];
+		for (int i = 0; i < body.length; i += 2) {
+			body[i] = 13;
+			body[i + 1] = 1;
+		}
+
+		final Throwable thrown = catchThrowable(() -> codec.readRequest(new ByteArrayInputStream(body), null));
+		assertThat(thrown).isInstanceOf(StreamCorruptedException.class);
+	}
+
+	@Test
+	void filterLimitsApply() throws Exception {
+		final List<Object> nested = List.of(List.of(List.of(List.of("deep"))));
+		final List<Object> many = List.of(List.of(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), List.of());
+		final ByteArrayOutputStream nestedBytes = new ByteArrayOutputStream();
+		codec.write(nested, nestedBytes);
+		final ByteArrayOutputStream manyBytes = new ByteArrayOutputStream();
+		codec.write(many, manyBytes);
+
+		for (final String limit : List.of("maxdepth=3", "maxrefs=5", "maxbytes=10")) {
+			final BinaryCodec limited = new BinaryCodec(ObjectInputFilter.Config.createFilter(limit));
+			final byte[] body = limit.startsWith("maxdepth") ? nestedBytes.toByteArray() : manyBytes.toByteArray();
+
+			final Throwable thrown = catchThrowable(() -> limited.read(new ByteArrayInputStream(body)));
+			assertThat(thrown).as(limit).isInstanceOf(InvalidClassException.class);
+		}
+
+		final BinaryCodec generous = new BinaryCodec(ObjectInputFilter.Config.createFilter("maxdepth=10;maxrefs=100;maxbytes=1000"));
+		assertThat(generous.read(new ByteArrayInputStream(nestedBytes.toByteArray()))).isEqualTo(nested);
+		assertThat(generous.read(new ByteArrayInputStream(manyBytes.toByteArray()))).isEqualTo(many);
+	}
+
+	@Test
+	void serversMustOptIn() {
+		final TrivetServer server = new TrivetServer(iface -> null);
+		assertThat(server.codecFor(BinaryCodec.CONTENT_TYPE)).isNull();
+
+		server.addCodec(codec);
+		assertThat(server.codecFor(BinaryCodec.CONTENT_TYPE)).isSameAs(codec);
+	}
+
+	private static byte[] concat(final byte[] first, final byte[] second) {
+		final byte[] both = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, both, first.length, second.length);
+		return both;
+	}
+}
@@ -0,0 +1,48 @@
+package com.voodoodyne.trivet;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BuffersTest {
+
+	@Test
+	void outputGrowsPastThePooledSize() throws Exception {
+		final byte[] data = new byte[Buffers.POOLED_SIZE * 3];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte)i;
+
+		final Buffers.Output output = new Buffers.Output();
+		output.write(data, 0, 10);
+		output.write(data, 10, data.length - 10);
+
+		assertThat(output.size()).isEqualTo(data.length);
+		assertThat(output.toByteArray()).isEqualTo(data);
+
+		final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+		output.writeTo(copy);
+		assertThat(copy.toByteArray()).isEqualTo(data);
+
+		output.release();
+	}
+
+	@Test
+	void sizeHintsTrackRecentMessages() {
+		final Buffers.SizeHint hint = new Buffers.SizeHint();
+		assertThat(hint.expected()).isZero();
+
+		hint.record(100_000);
+		assertThat(hint.expected()).isGreaterThanOrEqualTo(100_000);
+		assertThat(new Buffers.Output(hint).buffer().length).isGreaterThanOrEqualTo(100_000);
+
+		// One small message doesn't undo it
+		hint.record(10);
+		assertThat(hint.expected()).isGreaterThan(80_000);
+
+		for (int i = 0; i < 200; i++)
+			hint.record(10);
+		assertThat(new Buffers.Output(hint).buffer().length).isEqualTo(Buffers.POOLED_SIZE);
+	}
+}
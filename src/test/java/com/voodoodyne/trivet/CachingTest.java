@@ -0,0 +1,180 @@
+package com.voodoodyne.trivet;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CachingTest {
+
+	public interface Lookup {
+		@Cacheable(ttl = 1, unit = TimeUnit.HOURS)
+		String find(String key);
+
+		@Cacheable(ttl = 1, unit = TimeUnit.HOURS)
+		String sum(int[] values);
+
+		@Cacheable(ttl = 1, unit = TimeUnit.HOURS)
+		CompletableFuture<String> findLater(String key);
+
+		@Cacheable(ttl = 50, unit = TimeUnit.MILLISECONDS)
+		String briefly(String key);
+
+		@Cacheable(ttl = 1, unit = TimeUnit.HOURS)
+		String fails(String key);
+
+		String uncached(String key);
+	}
+
+	public interface Download {
+		@Cacheable(ttl = 1)
+		InputStream download(String name);
+	}
+
+	@Remote
+	private static class LookupImpl implements Lookup {
+		final AtomicInteger calls = new AtomicInteger();
+
+		@Override
+		public String find(final String key) {
+			calls.incrementAndGet();
+			return key + "!";
+		}
+
+		@Override
+		public String sum(final int[] values) {
+			calls.incrementAndGet();
+			int sum = 0;
+			for (final int value : values)
+				sum += value;
+			return Integer.toString(sum);
+		}
+
+		@Override
+		public CompletableFuture<String> findLater(final String key) {
+			return CompletableFuture.completedFuture(find(key));
+		}
+
+		@Override
+		public String briefly(final String key) {
+			return find(key);
+		}
+
+		@Override
+		public String fails(final String key) {
+			calls.incrementAndGet();
+			throw new IllegalStateException(key);
+		}
+
+		@Override
+		public String uncached(final String key) {
+			return find(key);
+		}
+	}
+
+	private LookupImpl impl;
+	private ResultCache cache;
+	private ClientFactory factory;
+
+	@BeforeEach
+	void setUp() {
+		impl = new LookupImpl();
+		cache = new ResultCache(100);
+		factory = new ClientFactory(new InProcessEndpoint(new TrivetServer(iface -> impl)));
+		factory.setResultCache(cache);
+	}
+
+	@Test
+	void repeatCallsComeFromTheCache() throws Exception {
+		final Lookup lookup = factory.create(Lookup.class);
+
+		assertThat(lookup.find("a")).isEqualTo("a!");
+		assertThat(lookup.find("a")).isEqualTo("a!");
+		assertThat(lookup.find("b")).isEqualTo("b!");
+		assertThat(lookup.sum(new int[] { 1, 2 })).isEqualTo("3");
+		assertThat(lookup.sum(new int[] { 1, 2 })).isEqualTo("3");
+		assertThat(lookup.findLater("c").get()).isEqualTo("c!");
+		assertThat(lookup.findLater("c").get()).isEqualTo("c!");
+
+		assertThat(impl.calls).hasValue(4);
+		assertThat(cache.stats().hits()).isEqualTo(3);
+		assertThat(cache.stats().misses()).isEqualTo(4);
+	}
+
+	@Test
+	void onlyCacheableMethodsAreCached() throws Exception {
+		final Lookup lookup = factory.create(Lookup.class);
+
+		lookup.uncached("a");
+		lookup.uncached("a");
+		assertThat(impl.calls).hasValue(2);
+	}
+
+	@Test
+	void exceptionsAreNotCached() throws Exception {
+		final Lookup lookup = factory.create(Lookup.class);
+
+		assertThatThrownBy(() -> lookup.fails("a")).isInstanceOf(RemoteException.class);
+		assertThatThrownBy(() -> lookup.fails("a")).isInstanceOf(RemoteException.class);
+		assertThat(impl.calls).hasValue(2);
+	}
+
+	@Test
+	void entriesExpire() throws Exception {
+		final Lookup lookup = factory.create(Lookup.class);
+
+		lookup.briefly("a");
+		lookup.briefly("a");
+		assertThat(impl.calls).hasValue(1);
+
+		Thread.sleep(100);
+		lookup.briefly("a");
+		assertThat(impl.calls).hasValue(2);
+		assertThat(cache.stats().expirations()).isEqualTo(1);
+	}
+
+	@Test
+	void invalidationForgetsResults() throws Exception {
+		final Lookup lookup = factory.create(Lookup.class);
+
+		lookup.find("a");
+		cache.invalidate(Lookup.class);
+		lookup.find("a");
+		cache.invalidateAll();
+		lookup.find("a");
+		assertThat(impl.calls).hasValue(3);
+	}
+
+	@Test
+	void streamsCannotBeCached() throws Exception {
+		final Download download = factory.create(Download.class);
+		assertThatThrownBy(() -> download.download("a")).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void leastRecentlyUsedEntriesAreEvicted() throws Exception {
+		final BoundedCache<String, String> bounded = new BoundedCache<>(10, String::length);
+		bounded.put("a", "aaaa");
+		bounded.put("b", "bbbb");
+		assertThat(bounded.get("a")).isEqualTo("aaaa");
+
+		bounded.put("c", "cccc");
+		assertThat(bounded.get("b")).isNull();
+		assertThat(bounded.get("a")).isEqualTo("aaaa");
+		assertThat(bounded.get("c")).isEqualTo("cccc");
+
+		bounded.put("huge", "x".repeat(11));
+		assertThat(bounded.get("huge")).isNull();
+
+		final CacheStats stats = bounded.stats();
+		assertThat(stats.evictions()).isEqualTo(1);
+		assertThat(stats.size()).isEqualTo(2);
+		assertThat(stats.weight()).isEqualTo(8);
+	}
+}
@@ -1,7 +1,10 @@
 package com.voodoodyne.trivet;
 
+import com.voodoodyne.trivet.FullIntegrationTest.Hello;
 import org.junit.jupiter.api.Test;
 
+import java.util.Optional;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class ClientTest {
@@ -12,4 +15,29 @@ public class ClientTest {
 		final String str = client.toString();
 		assertThat(str).isEqualTo("Client(JavaHttpEndpoint(http://localhost:7778/hello), interface java.lang.Runnable)");
 	}
+
+	@Test
+	void descriptorReusesMethodDef() throws Exception {
+		final CallDescriptor call = new CallDescriptor(Hello.class.getMethod("hi", String.class));
+
+		final Request first = call.request(new Object[]{"Bob"});
+		final Request second = call.request(new Object[]{"Alice"});
+		assertThat(first.method()).isSameAs(second.method());
+		assertThat(second.args()).containsExactly("Alice");
+		assertThat(call.isObjectMethod()).isFalse();
+	}
+
+	@Test
+	void descriptorHandlesOptionals() throws Exception {
+		final CallDescriptor call = new CallDescriptor(Hello.class.getMethod("hiMaybe", Optional.class));
+
+		assertThat(call.request(new Object[]{Optional.of("Bob")}).args()).containsExactly("Bob");
+		assertThat(call.restore(new Response("Hi", null)).result()).isEqualTo(Optional.of("Hi"));
+		assertThat(call.restore(new Response(null, null)).result()).isEqualTo(Optional.empty());
+	}
+
+	@Test
+	void descriptorRecognizesObjectMethods() throws Exception {
+		assertThat(new CallDescriptor(Object.class.getMethod("toString")).isObjectMethod()).isTrue();
+	}
 }
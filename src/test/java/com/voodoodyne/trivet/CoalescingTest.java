@@ -0,0 +1,151 @@
+package com.voodoodyne.trivet;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CoalescingTest {
+
+	public interface Lookup {
+		@Coalesce
+		String find(String key);
+
+		@Coalesce
+		CompletableFuture<String> findLater(String key);
+
+		CompletableFuture<String> findSeparately(String key);
+	}
+
+	@Remote
+	private static class LookupImpl implements Lookup {
+		final AtomicInteger calls = new AtomicInteger();
+
+		/** Completed by the test */
+		final CompletableFuture<String> pending = new CompletableFuture<>();
+
+		@Override
+		public String find(final String key) {
+			calls.incrementAndGet();
+			return key + "!";
+		}
+
+		@Override
+		public CompletableFuture<String> findLater(final String key) {
+			calls.incrementAndGet();
+			return pending.thenApply(value -> key + value);
+		}
+
+		@Override
+		public CompletableFuture<String> findSeparately(final String key) {
+			return findLater(key);
+		}
+	}
+
+	private LookupImpl impl;
+	private Lookup lookup;
+
+	@BeforeEach
+	void setUp() {
+		impl = new LookupImpl();
+		lookup = new ClientFactory(new InProcessEndpoint(new TrivetServer(iface -> impl))).create(Lookup.class);
+	}
+
+	@Test
+	void identicalConcurrentCallsShareARequest() throws Exception {
+		final List<CompletableFuture<String>> as = new ArrayList<>();
+		for (int i = 0; i < 10; i++)
+			as.add(lookup.findLater("a"));
+
+		final CompletableFuture<String> b = lookup.findLater("b");
+
+		impl.pending.complete("!");
+
+		for (final CompletableFuture<String> a : as)
+			assertThat(a.get()).isEqualTo("a!");
+
+		assertThat(b.get()).isEqualTo("b!");
+		assertThat(impl.calls).hasValue(2);
+	}
+
+	@Test
+	void eachCallerGetsItsOwnException() throws Exception {
+		final CompletableFuture<String> first = lookup.findLater("a");
+		final CompletableFuture<String> second = lookup.findLater("a");
+
+		impl.pending.completeExceptionally(new IllegalStateException("nope"));
+
+		final Throwable firstEx = catchCause(first);
+		final Throwable secondEx = catchCause(second);
+		assertThat(firstEx).isInstanceOf(RemoteException.class).isNotSameAs(secondEx);
+		assertThat(secondEx).isInstanceOf(RemoteException.class);
+		assertThat(firstEx.getCause()).isInstanceOf(IllegalStateException.class);
+		assertThat(impl.calls).hasValue(1);
+	}
+
+	@Test
+	void unmarkedMethodsAreNotCoalesced() throws Exception {
+		final CompletableFuture<String> first = lookup.findSeparately("a");
+		final CompletableFuture<String> second = lookup.findSeparately("a");
+		impl.pending.complete("!");
+
+		assertThat(first.get()).isEqualTo(second.get()).isEqualTo("a!");
+		assertThat(impl.calls).hasValue(2);
+	}
+
+	@Test
+	void sequentialCallsAreNotCoalesced() throws Exception {
+		assertThat(lookup.find("a")).isEqualTo("a!");
+		assertThat(lookup.find("a")).isEqualTo("a!");
+		assertThat(impl.calls).hasValue(2);
+	}
+
+	@Test
+	void singleFlightForgetsFinishedOperations() throws Exception {
+		final SingleFlight<String, String> flight = new SingleFlight<>();
+		final CompletableFuture<String> operation = new CompletableFuture<>();
+		final AtomicInteger started = new AtomicInteger();
+
+		final CompletableFuture<String> first = flight.execute("a", () -> {
+			started.incrementAndGet();
+			return operation;
+		});
+		final CompletableFuture<String> second = flight.execute("a", () -> {
+			started.incrementAndGet();
+			return CompletableFuture.completedFuture("other");
+		});
+
+		// Cancelling one caller's copy doesn't affect anyone else
+		second.cancel(true);
+		assertThat(flight.size()).isEqualTo(1);
+
+		operation.complete("done");
+		assertThat(first.get()).isEqualTo("done");
+		assertThat(flight.size()).isZero();
+		assertThat(started).hasValue(1);
+
+		assertThat(flight.execute("a", () -> CompletableFuture.completedFuture("again")).get()).isEqualTo("again");
+		assertThatThrownBy(() -> flight.execute("b", () -> { throw new IllegalStateException(); }).get())
+			.isInstanceOf(ExecutionException.class)
+			.hasCauseInstanceOf(IllegalStateException.class);
+		assertThat(flight.size()).isZero();
+	}
+
+	private static Throwable catchCause(final CompletableFuture<?> future) {
+		try {
+			future.get();
+			throw new AssertionError("Expected failure");
+		} catch (final ExecutionException ex) {
+			return ex.getCause();
+		} catch (final InterruptedException ex) {
+			throw new AssertionError(ex);
+		}
+	}
+}
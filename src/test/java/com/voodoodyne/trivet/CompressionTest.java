@@ -0,0 +1,67 @@
+package com.voodoodyne.trivet;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompressionTest {
+
+	@Test
+	void choosesAnAcceptableEncoding() throws Exception {
+		assertThat(Compression.choose(null)).isNull();
+		assertThat(Compression.choose("br")).isNull();
+		assertThat(Compression.choose("deflate, gzip")).isEqualTo("gzip");
+		assertThat(Compression.choose("GZIP;q=0.5")).isEqualTo("gzip");
+		assertThat(Compression.choose("gzip;q=0, deflate")).isEqualTo("deflate");
+	}
+
+	@Test
+	void smallOutputIsNotCompressed() throws Exception {
+		final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+		final AtomicBoolean compressed = new AtomicBoolean();
+
+		try (final OutputStream out = thresholdStream(raw, 100, compressed)) {
+			out.write(new byte[99]);
+			out.flush();
+		}
+
+		assertThat(compressed).isFalse();
+		assertThat(raw.size()).isEqualTo(99);
+	}
+
+	@Test
+	void bigOutputIsCompressed() throws Exception {
+		final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+		final AtomicBoolean compressed = new AtomicBoolean();
+
+		try (final OutputStream out = thresholdStream(raw, 100, compressed)) {
+			out.write(new byte[50]);
+			out.flush();
+			out.write(new byte[10_000]);
+		}
+
+		assertThat(compressed).isTrue();
+		assertThat(raw.size()).isLessThan(1000);
+		assertThat(Compression.decode("gzip", new ByteArrayInputStream(raw.toByteArray())).readAllBytes()).hasSize(10_050);
+	}
+
+	@Test
+	void unknownEncodingsAreRejected() throws Exception {
+		assertThat(Compression.isSupported("br")).isFalse();
+		assertThatThrownBy(() -> Compression.decode("br", new ByteArrayInputStream(new byte[0]))).isInstanceOf(IOException.class);
+	}
+
+	private OutputStream thresholdStream(final OutputStream raw, final int threshold, final AtomicBoolean compressed) {
+		return new Compression.ThresholdOutputStream(raw, threshold, () -> {
+			compressed.set(true);
+			return Compression.encode(Compression.GZIP, raw);
+		});
+	}
+}
@@ -0,0 +1,205 @@
+package com.voodoodyne.trivet;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ConcurrencyTest {
+
+	public interface Work {
+		int work();
+		String thread();
+	}
+
+	/** Records how many calls were in progress at once */
+	@Remote
+	private static class WorkImpl implements Work {
+		private final AtomicInteger current = new AtomicInteger();
+		private final AtomicInteger max = new AtomicInteger();
+
+		@Override
+		public int work() {
+			final int now = current.incrementAndGet();
+			max.accumulateAndGet(now, Math::max);
+			try {
+				Thread.sleep(20);
+			} catch (final InterruptedException ex) {
+				throw new RuntimeException(ex);
+			} finally {
+				current.decrementAndGet();
+			}
+			return now;
+		}
+
+		@Override
+		public String thread() {
+			return Thread.currentThread().getName();
+		}
+	}
+
+	@Test
+	void concurrencyIsLimitedPerInterface() throws Exception {
+		final WorkImpl impl = new WorkImpl();
+		final TrivetServer server = new TrivetServer(iface -> impl);
+		server.setConcurrencyLimit(Work.class, 2);
+
+		final Work client = new ClientFactory(new InProcessEndpoint(server)).create(Work.class);
+
+		final ExecutorService threads = VirtualThreads.newPerTaskExecutor();
+		final List<CompletableFuture<Integer>> results = new ArrayList<>();
+		for (int i = 0; i < 10; i++)
+			results.add(CompletableFuture.supplyAsync(client::work, threads));
+
+		CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).get();
+		assertThat(impl.max.get()).isEqualTo(2);
+		threads.shutdown();
+	}
+
+	@Test
+	void fullBulkheadsRejectCalls() throws Exception {
+		final TrivetServer server = new TrivetServer(iface -> new WorkImpl());
+		final Bulkhead bulkhead = Bulkhead.fixed(1, 0);
+		server.setBulkhead(Work.class, bulkhead);
+
+		final Work client = new ClientFactory(new InProcessEndpoint(server)).create(Work.class);
+		assertThat(client.thread()).isNotNull();
+
+		bulkhead.acquire();	// now it's full
+		assertThatThrownBy(client::thread)
+			.isInstanceOf(RemoteException.class)
+			.hasCauseInstanceOf(OverloadedException.class);
+		assertThat(bulkhead.rejected()).isEqualTo(1);
+
+		bulkhead.release(0);
+		assertThat(client.thread()).isNotNull();
+	}
+
+	@Test
+	void methodBulkheadsTakePrecedence() throws Exception {
+		final TrivetServer server = new TrivetServer(iface -> new WorkImpl());
+		final Bulkhead forInterface = Bulkhead.fixed(1, 0);
+		forInterface.acquire();	// nothing else can get in
+		server.setBulkhead(Work.class, forInterface);
+		server.setBulkhead(Work.class.getMethod("thread"), Bulkhead.fixed(1, 0));
+
+		final Work client = new ClientFactory(new InProcessEndpoint(server)).create(Work.class);
+
+		assertThat(client.thread()).isNotNull();
+		assertThatThrownBy(client::work).hasCauseInstanceOf(OverloadedException.class);
+	}
+
+	@Test
+	void adaptiveBulkheadsFollowLatency() throws Exception {
+		final Bulkhead bulkhead = Bulkhead.adaptive(2, 10, Duration.ofMillis(1), 0);
+		assertThat(bulkhead.limit()).isEqualTo(10);
+
+		// Slow calls shrink the limit, but not below the minimum
+		for (int i = 0; i < 50; i++) {
+			Thread.sleep(2);
+			bulkhead.acquire();
+			bulkhead.release(Duration.ofSeconds(1).toNanos());
+		}
+		assertThat(bulkhead.limit()).isEqualTo(2);
+
+		// Fast calls while busy grow it again
+		for (int i = 0; i < 50; i++) {
+			bulkhead.acquire();
+			bulkhead.acquire();
+			bulkhead.release(Duration.ofMillis(1).toNanos());
+			bulkhead.release(Duration.ofMillis(1).toNanos());
+		}
+		assertThat(bulkhead.limit()).isGreaterThan(2);
+	}
+
+	@Test
+	void slowCallsTogetherBackOffOnce() throws Exception {
+		final Bulkhead bulkhead = Bulkhead.adaptive(1, 10, Duration.ofSeconds(10), 0);
+
+		for (int i = 0; i < 10; i++)
+			bulkhead.acquire();
+		for (int i = 0; i < 10; i++)
+			bulkhead.release(Duration.ofSeconds(20).toNanos());
+
+		assertThat(bulkhead.limit()).isEqualTo(9);
+	}
+
+	@Test
+	@SuppressWarnings("try")
+	void queuedCallsGiveUp() throws Exception {
+		final Bulkhead bulkhead = Bulkhead.fixed(1, 10);
+		bulkhead.acquire();	// now it's full
+
+		bulkhead.setMaxWait(Duration.ofMillis(50));
+		assertThatThrownBy(bulkhead::acquire).isInstanceOf(OverloadedException.class);
+
+		bulkhead.setMaxWait(Duration.ofHours(1));
+		try (final Deadline.Scope ignored = Deadline.within(Duration.ofMillis(50))) {
+			assertThatThrownBy(bulkhead::acquire).isInstanceOf(DeadlineExceededException.class);
+		}
+
+		assertThat(bulkhead.rejected()).isEqualTo(2);
+		assertThat(bulkhead.inFlight()).isEqualTo(1);
+	}
+
+	@Test
+	void asyncInvocationsRunOnTheExecutor() throws Exception {
+		final TrivetServer server = new TrivetServer(iface -> new WorkImpl());
+		server.setExecutor(VirtualThreads.newPerTaskExecutor());
+
+		final Work client = new ClientFactory(new InProcessEndpoint(server)).create(Work.class);
+
+		// InProcessEndpoint.postAsync() is only used for future-returning methods, so go through executeAsync directly
+		final ByteArrayOutputStream requestBytes = new ByteArrayOutputStream();
+		final Codec codec = new JavaSerializationCodec();
+		codec.write(new Request(new MethodDef(Work.class.getMethod("thread")), null), requestBytes);
+
+		final ByteArrayOutputStream responseBytes = new ByteArrayOutputStream();
+		server.executeAsync(codec, new ByteArrayInputStream(requestBytes.toByteArray()), responseBytes).get();
+
+		final Response response = (Response)codec.read(new ByteArrayInputStream(responseBytes.toByteArray()));
+		assertThat(response.result()).isNotEqualTo(Thread.currentThread().getName());
+		assertThat(client.thread()).isEqualTo(Thread.currentThread().getName());
+	}
+
+	@Test
+	void pipesPassBytesBetweenThreads() throws Exception {
+		final Pipe pipe = new Pipe(16);
+		final byte[] data = new byte[10_000];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte)i;
+
+		final CompletableFuture<byte[]> read = CompletableFuture.supplyAsync(() -> {
+			try (final InputStream in = pipe.input()) {
+				return in.readAllBytes();
+			} catch (final Exception ex) {
+				throw new RuntimeException(ex);
+			}
+		});
+
+		try (final OutputStream out = pipe.output()) {
+			out.write(data);
+		}
+
+		assertThat(read.get()).isEqualTo(data);
+	}
+
+	@Test
+	void closingThePipeReaderFailsTheWriter() throws Exception {
+		final Pipe pipe = new Pipe(16);
+		pipe.input().close();
+
+		assertThatThrownBy(() -> pipe.output().write(new byte[100])).hasMessage("Pipe closed");
+	}
+}
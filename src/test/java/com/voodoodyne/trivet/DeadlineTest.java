@@ -0,0 +1,269 @@
+package com.voodoodyne.trivet;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DeadlineTest {
+
+	public interface Work {
+		long remainingMillis();
+		String blocking();
+		CompletableFuture<String> never();
+
+		@Idempotent
+		String slowOnce();
+
+		String slowOnceUnmarked();
+
+		int sleep(long millis);
+	}
+
+	@Remote
+	private static class WorkImpl implements Work {
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public long remainingMillis() {
+			final Deadline deadline = Deadline.current();
+			return deadline == null ? -1 : Duration.ofNanos(deadline.remainingNanos()).toMillis();
+		}
+
+		@Override
+		public String blocking() {
+			calls.incrementAndGet();
+			await();
+			return "done";
+		}
+
+		@Override
+		public CompletableFuture<String> never() {
+			return new CompletableFuture<>();
+		}
+
+		@Override
+		public String slowOnce() {
+			if (calls.incrementAndGet() == 1)
+				await();
+
+			return "fast";
+		}
+
+		@Override
+		public String slowOnceUnmarked() {
+			return slowOnce();
+		}
+
+		@Override
+		public int sleep(final long millis) {
+			try {
+				Thread.sleep(millis);
+			} catch (final InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+			return calls.incrementAndGet();
+		}
+
+		private void await() {
+			try {
+				release.await();
+			} catch (final InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+	}
+
+	private WorkImpl impl;
+	private TrivetServer server;
+	private ExecutorService executor;
+
+	@BeforeEach
+	void setUp() {
+		impl = new WorkImpl();
+		executor = Executors.newCachedThreadPool();
+		server = new TrivetServer(iface -> impl);
+		server.setExecutor(executor);
+	}
+
+	@AfterEach
+	void tearDown() {
+		impl.release.countDown();
+		executor.shutdownNow();
+	}
+
+	private Work client(final ClientFactory factory) {
+		return factory.create(Work.class);
+	}
+
+	private ClientFactory factory() {
+		return new ClientFactory(new InProcessEndpoint(server));
+	}
+
+	@Test
+	@SuppressWarnings("try")
+	void deadlinesReachTheService() throws Exception {
+		final ClientFactory factory = factory();
+		assertThat(client(factory).remainingMillis()).isEqualTo(-1);
+
+		factory.setTimeout(Duration.ofSeconds(10));
+		assertThat(client(factory).remainingMillis()).isBetween(1L, 10_000L);
+
+		// A scoped deadline which is earlier wins
+		try (final Deadline.Scope ignored = Deadline.within(Duration.ofSeconds(2))) {
+			assertThat(client(factory).remainingMillis()).isBetween(1L, 2_000L);
+		}
+
+		assertThat(Deadline.current()).isNull();
+	}
+
+	@Test
+	@SuppressWarnings("try")
+	void nestedScopesCanOnlyShortenTheDeadline() throws Exception {
+		try (final Deadline.Scope outer = Deadline.within(Duration.ofSeconds(1))) {
+			final Deadline deadline = Deadline.current();
+
+			try (final Deadline.Scope inner = Deadline.within(Duration.ofSeconds(10))) {
+				assertThat(Deadline.current()).isSameAs(deadline);
+			}
+
+			try (final Deadline.Scope inner = Deadline.within(Duration.ofMillis(10))) {
+				assertThat(Deadline.current()).isNotSameAs(deadline);
+			}
+
+			assertThat(Deadline.current()).isSameAs(deadline);
+		}
+	}
+
+	@Test
+	@SuppressWarnings("try")
+	void expiredCallsAreNotSent() throws Exception {
+		final Work work = client(factory());
+
+		try (final Deadline.Scope ignored = Deadline.within(Duration.ZERO)) {
+			assertThatThrownBy(work::blocking).isInstanceOf(DeadlineExceededException.class);
+			assertThatThrownBy(() -> work.never().get()).hasCauseInstanceOf(DeadlineExceededException.class);
+		}
+
+		assertThat(impl.calls).hasValue(0);
+	}
+
+	@Test
+	void serverSkipsCallsWhoseDeadlinePassedWhileQueued() throws Exception {
+		server.setConcurrencyLimit(Work.class, 1);
+
+		final Work unlimited = client(factory());
+		final Future<String> first = executor.submit(unlimited::blocking);
+		while (impl.calls.get() == 0)
+			Thread.sleep(1);
+
+		final ClientFactory factory = factory();
+		factory.setTimeout(Duration.ofMillis(50));
+		final Future<String> second = executor.submit(() -> client(factory).blocking());
+
+		Thread.sleep(100);
+		impl.release.countDown();
+
+		assertThat(first.get()).isEqualTo("done");
+		assertThatThrownBy(second::get)
+			.isInstanceOf(ExecutionException.class)
+			.cause().isInstanceOf(RemoteException.class)
+			.cause().isInstanceOf(DeadlineExceededException.class);
+		assertThat(impl.calls).hasValue(1);
+	}
+
+	@Test
+	void batchedCallsShareTheClock() throws Exception {
+		final MethodDef sleep = new MethodDef(Work.class.getMethod("sleep", long.class));
+		final Request[] requests = {
+			new Request(sleep, new Object[] { 150L }).withTimeout(100),
+			new Request(sleep, new Object[] { 0L }).withTimeout(100),
+		};
+
+		final Codec codec = new JavaSerializationCodec();
+		final ByteArrayOutputStream requestBytes = new ByteArrayOutputStream();
+		codec.write(new BatchRequest(requests), requestBytes);
+
+		final ByteArrayOutputStream responseBytes = new ByteArrayOutputStream();
+		server.execute(codec, new ByteArrayInputStream(requestBytes.toByteArray()), responseBytes);
+		final BatchResponse response = (BatchResponse)codec.read(new ByteArrayInputStream(responseBytes.toByteArray()));
+
+		// The second call waited for the first, which used up its budget
+		assertThat(response.responses()[0].result()).isEqualTo(1);
+		assertThat(response.responses()[1].throwable()).isInstanceOf(DeadlineExceededException.class);
+	}
+
+	@Test
+	void serverStopsWaitingForFutures() throws Exception {
+		final ClientFactory factory = factory();
+		factory.setTimeout(Duration.ofMillis(50));
+
+		assertThatThrownBy(() -> client(factory).never().get())
+			.cause().isInstanceOf(RemoteException.class)
+			.cause().isInstanceOf(DeadlineExceededException.class);
+	}
+
+	@Test
+	void slowIdempotentCallsAreHedged() throws Exception {
+		final ClientFactory factory = factory();
+		factory.setHedging(Duration.ofMillis(20));
+
+		assertThat(client(factory).slowOnce()).isEqualTo("fast");
+		assertThat(impl.calls).hasValue(2);
+	}
+
+	@Test
+	void hedgesKeepTheDeadlineAndCancelTheLoser() throws Exception {
+		final List<Deadline> deadlines = new CopyOnWriteArrayList<>();
+		final List<CompletableFuture<InputStream>> posts = new CopyOnWriteArrayList<>();
+		final ClientFactory factory = new ClientFactory(new InProcessEndpoint(server) {
+			@Override
+			public CompletableFuture<InputStream> postAsync(final String contentType, final byte[] body, final Class<?> iface) {
+				deadlines.add(Deadline.current());
+				final CompletableFuture<InputStream> post = super.postAsync(contentType, body, iface);
+				posts.add(post);
+				return post;
+			}
+		});
+		factory.setHedging(Duration.ofMillis(20));
+		factory.setTimeout(Duration.ofSeconds(10));
+
+		assertThat(client(factory).slowOnce()).isEqualTo("fast");
+		assertThat(deadlines).hasSize(2).doesNotContainNull();
+
+		// The caller can wake up before the loser is cancelled
+		for (int i = 0; i < 100 && !posts.get(0).isCancelled(); i++)
+			Thread.sleep(10);
+		assertThat(posts.get(0)).isCancelled();
+	}
+
+	@Test
+	void otherCallsAreNotHedged() throws Exception {
+		final ClientFactory factory = factory();
+		factory.setHedging(Duration.ofMillis(20));
+
+		final Future<String> result = executor.submit(() -> client(factory).slowOnceUnmarked());
+		Thread.sleep(100);
+		assertThat(impl.calls).hasValue(1);
+
+		impl.release.countDown();
+		assertThat(result.get()).isEqualTo("fast");
+	}
+}
@@ -6,9 +6,12 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Serial;
 import java.net.URI;
 import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -52,10 +55,16 @@ public class FullIntegrationTest {
 		private static final long serialVersionUID = 1L;
 
 		public ServerServlet() {
-			super(iface -> {
+			super(server());
+		}
+
+		private static TrivetServer server() {
+			final TrivetServer server = new TrivetServer(iface -> {
 				assert iface == Hello.class;
 				return new HelloImpl();
 			});
+			server.addCodec(new BinaryCodec());
+			return server;
 		}
 	}
 
@@ -114,4 +123,63 @@ public class FullIntegrationTest {
 		assertThat(client.hi("Alice")).isEqualTo("Hi, Alice");
 		assertThat(client.hi("Bob")).isEqualTo("Hi, Bob");
 	}
+
+	@Test
+	void compactRequestsWork() throws Exception {
+		final ClientFactory factory = new ClientFactory("http://localhost:7778/hello");
+		factory.setCompactRequests(true);
+		final Hello client = factory.create(Hello.class);
+
+		assertThat(client.hi("Alice")).isEqualTo("Hi, Alice");
+		assertThat(client.hi("Bob")).isEqualTo("Hi, Bob");
+		assertThat(client.hiMaybe(Optional.of("Bob"))).contains("Hi, Bob");
+		assertThat(client.hiMaybe(Optional.empty())).isEmpty();
+	}
+
+	@Test
+	void compressionWorks() throws Exception {
+		final JavaHttpEndpoint endpoint = new JavaHttpEndpoint(URI.create("http://localhost:7778/hello"));
+		endpoint.setRequestCompressionThreshold(0);
+		final Hello client = new ClientFactory(endpoint).create(Hello.class);
+
+		final String bigName = "Bob".repeat(10_000);
+		assertThat(client.hi(bigName)).isEqualTo("Hi, " + bigName);
+		assertThat(client.hi("Alice")).isEqualTo("Hi, Alice");
+	}
+
+	@Test
+	void binaryCodecWorks() throws Exception {
+		final ClientFactory factory = new ClientFactory("http://localhost:7778/hello");
+		factory.setCodec(new BinaryCodec());
+		final Hello client = factory.create(Hello.class);
+
+		assertThat(client.hi("Alice")).isEqualTo("Hi, Alice");
+		assertThat(client.hiMaybe(Optional.of("Bob"))).contains("Hi, Bob");
+		assertThat(client.hiMaybe(Optional.empty())).isEmpty();
+
+		assertThatThrownBy(() -> client.throwup())
+			.isInstanceOf(RemoteException.class)
+			.hasCauseInstanceOf(NullPointerException.class);
+	}
+
+	@Test
+	void smallResponsesHaveContentLength() throws Exception {
+		assertThat(post("Bob").headers().firstValueAsLong("Content-Length")).isPresent();
+		assertThat(post("Bob".repeat(100_000)).headers().firstValueAsLong("Content-Length")).isEmpty();
+	}
+
+	/** Call hi() by hand, so we can see the headers */
+	private HttpResponse<byte[]> post(final String name) throws Exception {
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		new JavaSerializationCodec().write(new Request(new MethodDef(Hello.class.getMethod("hi", String.class)), new Object[] { name }), body);
+
+		final HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:7778/hello"))
+			.header("Content-Type", Client.APPLICATION_JAVA_SERIALIZED_OBJECT)
+			.POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+			.build();
+
+		final HttpResponse<byte[]> response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofByteArray());
+		assertThat(response.statusCode()).isEqualTo(200);
+		return response;
+	}
 }
@@ -0,0 +1,96 @@
+package com.voodoodyne.trivet;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class InProcessEndpointTest {
+
+	public interface Echo {
+		List<String> echo(List<String> list);
+		Optional<String> maybe(Optional<String> value);
+		CompletableFuture<String> later(String value);
+		void fails();
+	}
+
+	@Remote
+	private static class EchoImpl implements Echo {
+		@Override
+		public List<String> echo(final List<String> list) {
+			return list;
+		}
+
+		@Override
+		public Optional<String> maybe(final Optional<String> value) {
+			return value;
+		}
+
+		@Override
+		public CompletableFuture<String> later(final String value) {
+			return CompletableFuture.completedFuture(value);
+		}
+
+		@Override
+		public void fails() {
+			throw new IllegalStateException("nope");
+		}
+	}
+
+	private Echo client(final boolean byReference) {
+		return new ClientFactory(new InProcessEndpoint(new TrivetServer(iface -> new EchoImpl()), byReference)).create(Echo.class);
+	}
+
+	@Test
+	void encodedCallsCopyArguments() throws Exception {
+		final Echo client = client(false);
+		final List<String> list = new ArrayList<>(List.of("a", "b"));
+
+		final List<String> result = client.echo(list);
+		assertThat(result).isEqualTo(list).isNotSameAs(list);
+	}
+
+	@Test
+	void byReferenceCallsShareArguments() throws Exception {
+		final Echo client = client(true);
+		final List<String> list = new ArrayList<>(List.of("a", "b"));
+
+		assertThat(client.echo(list)).isSameAs(list);
+	}
+
+	@Test
+	void bothModesBehaveLikeRemoteCalls() throws Exception {
+		for (final boolean byReference : new boolean[] { false, true }) {
+			final Echo client = client(byReference);
+
+			assertThat(client.maybe(Optional.of("a"))).contains("a");
+			assertThat(client.maybe(Optional.empty())).isEmpty();
+			assertThat(client.later("a").get()).isEqualTo("a");
+			assertThatThrownBy(client::fails)
+				.isInstanceOf(RemoteException.class)
+				.hasCauseInstanceOf(IllegalStateException.class);
+		}
+	}
+
+	@Test
+	void byReferenceBatchesWork() throws Exception {
+		final ClientFactory factory = new ClientFactory(new InProcessEndpoint(new TrivetServer(iface -> new EchoImpl()), true));
+		final Batch<Echo> batch = factory.batch(Echo.class);
+
+		final CompletableFuture<Optional<String>> maybe = batch.add(echo -> echo.maybe(Optional.of("a")));
+		final CompletableFuture<Void> fails = batch.add(echo -> {
+			echo.fails();
+			return null;
+		});
+		batch.send().get();
+
+		assertThat(maybe.get()).contains("a");
+		assertThatThrownBy(fails::get).isInstanceOf(ExecutionException.class).hasCauseInstanceOf(RemoteException.class);
+	}
+}
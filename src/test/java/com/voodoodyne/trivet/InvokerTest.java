@@ -0,0 +1,75 @@
+package com.voodoodyne.trivet;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class InvokerTest {
+
+	public interface Target {
+		int zero();
+		String one(String s);
+		String five(int a, long b, String c, Object d, boolean e);
+		void fails();
+	}
+
+	public static class TargetImpl implements Target {
+		@Override
+		public int zero() {
+			return 0;
+		}
+
+		@Override
+		public String one(final String s) {
+			return s;
+		}
+
+		@Override
+		public String five(final int a, final long b, final String c, final Object d, final boolean e) {
+			return a + "," + b + "," + c + "," + d + "," + e;
+		}
+
+		@Override
+		public void fails() {
+			throw new IllegalStateException("nope");
+		}
+	}
+
+	private List<Invoker> invokersFor(final String name, final Class<?>... parameterTypes) throws Exception {
+		final Method method = Target.class.getMethod(name, parameterTypes);
+		return List.of(Invoker.reflective(method), Invoker.methodHandle(method));
+	}
+
+	@Test
+	void invokesWithAnyNumberOfArgs() throws Throwable {
+		final Target target = new TargetImpl();
+
+		for (final Invoker invoker : invokersFor("zero")) {
+			assertThat(invoker.invoke(target, null)).isEqualTo(0);
+			assertThat(invoker.invoke(target, new Object[0])).isEqualTo(0);
+		}
+
+		for (final Invoker invoker : invokersFor("one", String.class)) {
+			assertThat(invoker.invoke(target, new Object[]{"foo"})).isEqualTo("foo");
+		}
+
+		for (final Invoker invoker : invokersFor("five", int.class, long.class, String.class, Object.class, boolean.class)) {
+			assertThat(invoker.invoke(target, new Object[]{1, 2L, "three", 4.0, true})).isEqualTo("1,2,three,4.0,true");
+		}
+	}
+
+	@Test
+	void exceptionsAreNotWrapped() throws Throwable {
+		final Target target = new TargetImpl();
+
+		for (final Invoker invoker : invokersFor("fails")) {
+			assertThatThrownBy(() -> invoker.invoke(target, null))
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessage("nope");
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package com.voodoodyne.trivet;
+
+import com.voodoodyne.trivet.LoadBalancingEndpoint.Policy;
+import com.voodoodyne.trivet.LoadBalancingEndpoint.Replica;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LoadBalancingTest {
+
+	public interface Hello {
+		String hi(String name);
+	}
+
+	@Remote
+	private static class HelloImpl implements Hello {
+		private final String server;
+
+		HelloImpl(final String server) {
+			this.server = server;
+		}
+
+		@Override
+		public String hi(final String name) {
+			return "Hi, " + name + " from " + server;
+		}
+	}
+
+	public interface Lookup {
+		@Idempotent
+		String find();
+	}
+
+	/** Never answers until released */
+	@Remote
+	private static class StuckLookup implements Lookup {
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public String find() {
+			try {
+				release.await();
+			} catch (final InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+			return "stuck";
+		}
+	}
+
+	@Remote
+	private static class FastLookup implements Lookup {
+		@Override
+		public String find() {
+			return "fast";
+		}
+	}
+
+	/** Counts calls; fails while broken, sleeps while slow */
+	private static class FakeEndpoint implements Endpoint {
+		final AtomicInteger calls = new AtomicInteger();
+		volatile boolean broken;
+		volatile long sleepMillis;
+
+		@Override
+		public InputStream post(final String contentType, final byte[] body, final Class<?> iface) throws IOException {
+			calls.incrementAndGet();
+			if (sleepMillis > 0) {
+				try {
+					Thread.sleep(sleepMillis);
+				} catch (final InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+			}
+			if (broken)
+				throw new IOException("broken");
+
+			return new ByteArrayInputStream(body);
+		}
+	}
+
+	private static void call(final Endpoint endpoint, final int times) {
+		for (int i = 0; i < times; i++) {
+			try {
+				endpoint.post("text/plain", new byte[0], Hello.class).close();
+			} catch (final IOException ignored) {
+			}
+		}
+	}
+
+	@Test
+	void clientsCallEveryReplica() throws Exception {
+		final LoadBalancingEndpoint endpoint = new LoadBalancingEndpoint(Policy.roundRobin(), List.of(
+			new InProcessEndpoint(new TrivetServer(iface -> new HelloImpl("a"))),
+			new InProcessEndpoint(new TrivetServer(iface -> new HelloImpl("b")))));
+
+		final Hello hello = new ClientFactory(endpoint).create(Hello.class);
+		assertThat(List.of(hello.hi("bob"), hello.hi("bob"))).containsExactlyInAnyOrder("Hi, bob from a", "Hi, bob from b");
+	}
+
+	@Test
+	void hedgesGoToAnotherReplica() throws Exception {
+		final StuckLookup stuck = new StuckLookup();
+		final TrivetServer slow = new TrivetServer(iface -> stuck);
+		slow.setExecutor(VirtualThreads.newPerTaskExecutor());
+		final TrivetServer fast = new TrivetServer(iface -> new FastLookup());
+
+		// Always the first candidate, so only avoiding the tried replica gets the hedge to the fast one
+		final LoadBalancingEndpoint endpoint = new LoadBalancingEndpoint(candidates -> candidates.get(0), List.of(
+			new InProcessEndpoint(slow),
+			new InProcessEndpoint(fast)));
+
+		final ClientFactory factory = new ClientFactory(endpoint);
+		factory.setHedging(Duration.ofMillis(20));
+
+		try {
+			assertThat(factory.create(Lookup.class).find()).isEqualTo("fast");
+		} finally {
+			stuck.release.countDown();
+		}
+	}
+
+	@Test
+	void roundRobinTakesTurns() throws Exception {
+		final FakeEndpoint a = new FakeEndpoint();
+		final FakeEndpoint b = new FakeEndpoint();
+		final FakeEndpoint c = new FakeEndpoint();
+
+		call(new LoadBalancingEndpoint(Policy.roundRobin(), List.of(a, b, c)), 30);
+
+		assertThat(a.calls).hasValue(10);
+		assertThat(b.calls).hasValue(10);
+		assertThat(c.calls).hasValue(10);
+	}
+
+	@Test
+	void leastOutstandingAvoidsBusyReplicas() throws Exception {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicBoolean first = new AtomicBoolean(true);
+
+		// The first call to either replica blocks until released
+		final Endpoint a = (contentType, body, iface) -> block(first, entered, release);
+		final Endpoint b = (contentType, body, iface) -> block(first, entered, release);
+
+		final LoadBalancingEndpoint endpoint = new LoadBalancingEndpoint(Policy.leastOutstanding(), List.of(a, b));
+		final Thread blocked = new Thread(() -> call(endpoint, 1));
+		blocked.start();
+		entered.await();
+
+		final Replica busy = endpoint.replicas().get(0).outstanding() == 1 ? endpoint.replicas().get(0) : endpoint.replicas().get(1);
+		final Replica idle = endpoint.replicas().get(0) == busy ? endpoint.replicas().get(1) : endpoint.replicas().get(0);
+
+		for (int i = 0; i < 5; i++)
+			assertThat(Policy.leastOutstanding().choose(endpoint.replicas())).isSameAs(idle);
+
+		call(endpoint, 5);
+		release.countDown();
+		blocked.join();
+
+		assertThat(busy.outstanding()).isZero();
+	}
+
+	private static InputStream block(final AtomicBoolean first, final CountDownLatch entered, final CountDownLatch release) {
+		if (first.compareAndSet(true, false)) {
+			entered.countDown();
+			try {
+				release.await();
+			} catch (final InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+		return new ByteArrayInputStream(new byte[0]);
+	}
+
+	@Test
+	void powerOfTwoChoicesPrefersFastReplicas() throws Exception {
+		final FakeEndpoint fast = new FakeEndpoint();
+		final FakeEndpoint slow = new FakeEndpoint();
+		slow.sleepMillis = 20;
+
+		final LoadBalancingEndpoint endpoint = new LoadBalancingEndpoint(Policy.powerOfTwoChoices(), List.of(fast, slow));
+		call(endpoint, 20);
+
+		// Each gets tried once while it has no latency, then the fast one wins every time
+		assertThat(slow.calls.get()).isLessThanOrEqualTo(2);
+		assertThat(fast.calls.get()).isGreaterThanOrEqualTo(18);
+	}
+
+	@Test
+	void failingReplicasAreEjectedAndReadmitted() throws Exception {
+		final FakeEndpoint good = new FakeEndpoint();
+		final FakeEndpoint bad = new FakeEndpoint();
+		bad.broken = true;
+
+		final LoadBalancingEndpoint endpoint = new LoadBalancingEndpoint(Policy.roundRobin(), List.of(good, bad));
+		endpoint.setFailureThreshold(2);
+		endpoint.setEjectionTime(Duration.ofMillis(100));
+
+		call(endpoint, 20);
+		assertThat(bad.calls).hasValue(2);
+		assertThat(endpoint.replicas().get(1).isEjected()).isTrue();
+		assertThat(endpoint.replicas().get(1).ejections()).isEqualTo(1);
+
+		bad.broken = false;
+		Thread.sleep(150);
+
+		call(endpoint, 20);
+		assertThat(endpoint.replicas().get(1).isEjected()).isFalse();
+		assertThat(bad.calls).hasValue(12);
+	}
+
+	@Test
+	void slowReplicasAreEjected() throws Exception {
+		final FakeEndpoint fast = new FakeEndpoint();
+		final FakeEndpoint slow = new FakeEndpoint();
+		slow.sleepMillis = 30;
+
+		final LoadBalancingEndpoint endpoint = new LoadBalancingEndpoint(Policy.roundRobin(), List.of(fast, slow));
+		endpoint.setSlowThreshold(Duration.ofMillis(10));
+
+		call(endpoint, 10);
+		assertThat(slow.calls).hasValue(1);
+		assertThat(endpoint.replicas().get(1).isEjected()).isTrue();
+	}
+
+	@Test
+	void callsGoSomewhereEvenIfEverythingIsEjected() throws Exception {
+		final FakeEndpoint a = new FakeEndpoint();
+		final FakeEndpoint b = new FakeEndpoint();
+		a.broken = true;
+		b.broken = true;
+
+		final LoadBalancingEndpoint endpoint = new LoadBalancingEndpoint(Policy.roundRobin(), List.of(a, b));
+		endpoint.setFailureThreshold(1);
+
+		call(endpoint, 10);
+		assertThat(a.calls.get() + b.calls.get()).isEqualTo(10);
+		assertThatThrownBy(() -> endpoint.post("text/plain", new byte[0], Hello.class)).isInstanceOf(IOException.class);
+	}
+}
@@ -0,0 +1,119 @@
+package com.voodoodyne.trivet;
+
+import com.voodoodyne.trivet.CallListener.Phase;
+import com.voodoodyne.trivet.CallListener.Side;
+import com.voodoodyne.trivet.MetricsListener.MethodMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MetricsTest {
+
+	public interface Echo {
+		String echo(String value);
+		CompletableFuture<String> later(String value);
+		void fails();
+	}
+
+	@Remote
+	private static class EchoImpl implements Echo {
+		@Override
+		public String echo(final String value) {
+			return value;
+		}
+
+		@Override
+		public CompletableFuture<String> later(final String value) {
+			return CompletableFuture.completedFuture(value);
+		}
+
+		@Override
+		public void fails() {
+			throw new IllegalStateException("nope");
+		}
+	}
+
+	private static MethodDef def(final String name, final Class<?>... params) throws Exception {
+		return new MethodDef(Echo.class.getMethod(name, params));
+	}
+
+	@Test
+	void bothSidesAreMeasured() throws Exception {
+		final MetricsListener metrics = new MetricsListener();
+
+		final TrivetServer server = new TrivetServer(iface -> new EchoImpl());
+		server.setListener(metrics);
+
+		final ClientFactory factory = new ClientFactory(new InProcessEndpoint(server));
+		factory.setListener(metrics);
+		final Echo echo = factory.create(Echo.class);
+
+		for (int i = 0; i < 10; i++)
+			assertThat(echo.echo("hello")).isEqualTo("hello");
+
+		assertThat(echo.later("hello").get()).isEqualTo("hello");
+		assertThatThrownBy(echo::fails).isInstanceOf(RemoteException.class);
+
+		final MethodMetrics clientSide = metrics.get(Side.CLIENT, def("echo", String.class));
+		assertThat(clientSide.calls()).isEqualTo(10);
+		assertThat(clientSide.errors()).isZero();
+		assertThat(clientSide.phase(Phase.ENCODE).count()).isEqualTo(10);
+		assertThat(clientSide.phase(Phase.TRANSPORT).count()).isEqualTo(10);
+		assertThat(clientSide.phase(Phase.DECODE).count()).isEqualTo(10);
+		assertThat(clientSide.bytes(Phase.ENCODE)).isPositive();
+		assertThat(clientSide.bytes(Phase.DECODE)).isPositive();
+		assertThat(clientSide.phase(Phase.INVOKE).count()).isZero();
+
+		final MethodMetrics serverSide = metrics.get(Side.SERVER, def("echo", String.class));
+		assertThat(serverSide.calls()).isEqualTo(10);
+		assertThat(serverSide.bytes(Phase.DECODE)).isEqualTo(clientSide.bytes(Phase.ENCODE));
+		assertThat(serverSide.bytes(Phase.ENCODE)).isEqualTo(clientSide.bytes(Phase.DECODE));
+		for (final Phase phase : new Phase[] { Phase.DECODE, Phase.RESTORE, Phase.ACCESS_CHECK, Phase.INVOKE, Phase.ENCODE })
+			assertThat(serverSide.phase(phase).count()).as(phase.name()).isEqualTo(10);
+
+		assertThat(metrics.get(Side.CLIENT, def("later", String.class)).calls()).isEqualTo(1);
+		assertThat(metrics.get(Side.SERVER, def("later", String.class)).calls()).isEqualTo(1);
+
+		assertThat(metrics.get(Side.CLIENT, def("fails")).errors()).isEqualTo(1);
+		assertThat(metrics.get(Side.SERVER, def("fails")).errors()).isEqualTo(1);
+	}
+
+	@Test
+	void nothingIsReportedWithoutAListener() throws Exception {
+		final MetricsListener metrics = new MetricsListener();
+
+		final TrivetServer server = new TrivetServer(iface -> new EchoImpl());
+		final Echo echo = new ClientFactory(new InProcessEndpoint(server)).create(Echo.class);
+		echo.echo("hello");
+
+		assertThat(metrics.all(Side.CLIENT)).isEmpty();
+		assertThat(metrics.all(Side.SERVER)).isEmpty();
+	}
+
+	@Test
+	void histogramPercentilesAreClose() throws Exception {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++)
+			histogram.record(i * 1000L);
+
+		assertThat(histogram.count()).isEqualTo(1000);
+		assertThat(histogram.max()).isEqualTo(1_000_000);
+		assertThat(histogram.mean()).isEqualTo(500_500);
+		assertThat(histogram.percentile(50)).isBetween(500_000L, 570_000L);
+		assertThat(histogram.percentile(99)).isBetween(990_000L, 1_000_000L);
+		assertThat(histogram.percentile(100)).isEqualTo(1_000_000);
+	}
+
+	@Test
+	void histogramBucketsCoverEveryValue() throws Exception {
+		for (final long value : new long[] { 0, 1, 7, 8, 9, 15, 16, 1000, 123_456_789, Long.MAX_VALUE }) {
+			final int bucket = LatencyHistogram.bucket(value);
+			assertThat(LatencyHistogram.upperBound(bucket)).as("upper %d", value).isGreaterThanOrEqualTo(value);
+			if (bucket > 0)
+				assertThat(LatencyHistogram.upperBound(bucket - 1)).as("lower %d", value).isLessThan(value);
+		}
+	}
+}
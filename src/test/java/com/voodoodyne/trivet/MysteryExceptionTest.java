@@ -1,10 +1,16 @@
 package com.voodoodyne.trivet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InvalidClassException;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
 import java.io.Serial;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 
 import org.junit.jupiter.api.Test;
 
@@ -19,6 +25,14 @@ class MysteryExceptionTest {
 		void hi();
 	}
 
+	/** Renamed in the serialized bytes, so it's missing when read back */
+	static class Present implements Serializable {
+		@Serial
+		private static final long serialVersionUID = 1L;
+
+		final String value = "present";
+	}
+
 //	static class HiddenBaseException extends RuntimeException {
 //		@Serial
 //		private static final long serialVersionUID = 1L;
@@ -87,4 +101,62 @@ class MysteryExceptionTest {
 		assertThat(sourceCause).hasMessage("I am illegal argument");
 		assertThat(sourceCause).hasNoCause();
 	}
+
+	@Test
+	void requestsDoNotGetStandIns() throws Exception {
+		try (final FileInputStream input = new FileInputStream(SER_FILE)) {
+			final Throwable thrown = catchThrowable(() -> new JavaSerializationCodec().readRequest(input, null));
+			assertThat(thrown).isInstanceOf(ClassNotFoundException.class);
+		}
+	}
+
+	@Test
+	void missingClassesOutsideExceptionsAreAnError() throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+			output.writeObject(new Response(new Present(), null));
+		}
+
+		// Same length, so the serialized string lengths still hold
+		final String serialized = bytes.toString(StandardCharsets.ISO_8859_1).replace("$Present", "$Missing");
+		final byte[] renamed = serialized.getBytes(StandardCharsets.ISO_8859_1);
+
+		final Throwable thrown = catchThrowable(() -> new JavaSerializationCodec().read(new ByteArrayInputStream(renamed)));
+		assertThat(thrown).isInstanceOf(InvalidClassException.class).hasMessageContaining("MysteryExceptionTest$Missing");
+	}
+
+	@Test
+	void classesAreKeyedByNameAndSerialVersionUID() {
+		final MysteryExceptionClassFactory factory = new MysteryExceptionClassFactory(10);
+
+		final Class<?> one = factory.get("com.example.GoneException", 1L);
+		final Class<?> two = factory.get("com.example.GoneException", 2L);
+
+		assertThat(one.getName()).isEqualTo(two.getName()).isEqualTo("com.example.GoneException");
+		assertThat(one).isNotSameAs(two);
+		assertThat(one.getClassLoader()).isNotSameAs(two.getClassLoader());
+		assertThat(ObjectStreamClass.lookup(one).getSerialVersionUID()).isEqualTo(1L);
+		assertThat(ObjectStreamClass.lookup(two).getSerialVersionUID()).isEqualTo(2L);
+
+		assertThat(factory.get("com.example.GoneException", 1L)).isSameAs(one);
+		assertThat(factory.instanceStats().generated()).isEqualTo(2);
+		assertThat(factory.instanceStats().generationNanos()).isPositive();
+	}
+
+	@Test
+	void generatedClassesAreEvicted() {
+		final MysteryExceptionClassFactory factory = new MysteryExceptionClassFactory(2);
+
+		final Class<?> first = factory.get("com.example.FirstException", 1L);
+		factory.get("com.example.SecondException", 1L);
+		factory.get("com.example.ThirdException", 1L);
+
+		final MysteryExceptionClassFactory.Stats stats = factory.instanceStats();
+		assertThat(stats.cache().size()).isEqualTo(2);
+		assertThat(stats.cache().evictions()).isEqualTo(1);
+
+		// Regenerated in a new loader, since the old class was evicted
+		assertThat(factory.get("com.example.FirstException", 1L)).isNotSameAs(first);
+		assertThat(factory.instanceStats().generated()).isEqualTo(4);
+	}
 }
@@ -0,0 +1,209 @@
+package com.voodoodyne.trivet;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ResponseCacheTest {
+
+	public interface Reads {
+		@Idempotent
+		String find(String key);
+
+		@Idempotent
+		CompletableFuture<String> findLater(String key);
+
+		@Idempotent
+		@Cacheable(ttl = 50, unit = TimeUnit.MILLISECONDS)
+		String briefly(String key);
+
+		@Idempotent
+		String slow(String key);
+
+		@Idempotent
+		String slowUnlessExpired(String key);
+
+		@Idempotent
+		String fails(String key);
+
+		String write(String key);
+	}
+
+	@Remote
+	private static class ReadsImpl implements Reads {
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public String find(final String key) {
+			calls.incrementAndGet();
+			return key + "!";
+		}
+
+		@Override
+		public CompletableFuture<String> findLater(final String key) {
+			return CompletableFuture.supplyAsync(() -> find(key));
+		}
+
+		@Override
+		public String briefly(final String key) {
+			return find(key);
+		}
+
+		@Override
+		public String slow(final String key) {
+			try {
+				release.await();
+			} catch (final InterruptedException ex) {
+				throw new IllegalStateException(ex);
+			}
+			return find(key);
+		}
+
+		@Override
+		public String slowUnlessExpired(final String key) {
+			try {
+				release.await();
+			} catch (final InterruptedException ex) {
+				throw new IllegalStateException(ex);
+			}
+
+			final Deadline deadline = Deadline.current();
+			if (deadline != null && deadline.isExpired())
+				throw new DeadlineExceededException("Too late for " + key);
+
+			return find(key);
+		}
+
+		@Override
+		public String fails(final String key) {
+			calls.incrementAndGet();
+			throw new IllegalStateException(key);
+		}
+
+		@Override
+		public String write(final String key) {
+			return find(key);
+		}
+	}
+
+	private ReadsImpl impl;
+	private ResponseCache cache;
+	private Reads reads;
+
+	@BeforeEach
+	void setUp() {
+		impl = new ReadsImpl();
+		cache = new ResponseCache(10_000, Duration.ofHours(1));
+
+		final TrivetServer server = new TrivetServer(iface -> impl);
+		server.setResponseCache(cache);
+		reads = new ClientFactory(new InProcessEndpoint(server)).create(Reads.class);
+	}
+
+	@Test
+	void repeatRequestsAreNotInvokedAgain() throws Exception {
+		assertThat(reads.find("a")).isEqualTo("a!");
+		assertThat(reads.find("a")).isEqualTo("a!");
+		assertThat(reads.find("b")).isEqualTo("b!");
+		assertThat(reads.findLater("c").get()).isEqualTo("c!");
+		assertThat(reads.findLater("c").get()).isEqualTo("c!");
+
+		assertThat(impl.calls).hasValue(3);
+		assertThat(cache.stats().hits()).isEqualTo(2);
+		assertThat(cache.stats().size()).isEqualTo(3);
+	}
+
+	@Test
+	void onlyIdempotentMethodsAreCached() throws Exception {
+		reads.write("a");
+		reads.write("a");
+		assertThat(impl.calls).hasValue(2);
+	}
+
+	@Test
+	void concurrentMissesInvokeOnce() throws Exception {
+		final ExecutorService executor = VirtualThreads.newPerTaskExecutor();
+		try {
+			final List<Future<String>> results = new ArrayList<>();
+			for (int i = 0; i < 10; i++)
+				results.add(executor.submit(() -> reads.slow("a")));
+
+			Thread.sleep(100);
+			impl.release.countDown();
+
+			for (final Future<String> result : results)
+				assertThat(result.get()).isEqualTo("a!");
+		} finally {
+			executor.shutdown();
+		}
+
+		assertThat(impl.calls).hasValue(1);
+	}
+
+	@Test
+	@SuppressWarnings("try")
+	void waitersDoNotShareTheFirstCallersDeadline() throws Exception {
+		final ExecutorService executor = VirtualThreads.newPerTaskExecutor();
+		try {
+			final Future<String> hasty = executor.submit(() -> {
+				try (final Deadline.Scope ignored = Deadline.within(Duration.ofMillis(50))) {
+					return reads.slowUnlessExpired("a");
+				}
+			});
+			Thread.sleep(20);
+			final Future<String> patient = executor.submit(() -> reads.slowUnlessExpired("a"));
+
+			Thread.sleep(100);
+			impl.release.countDown();
+
+			assertThatThrownBy(hasty::get).hasStackTraceContaining("DeadlineExceededException");
+			assertThat(patient.get()).isEqualTo("a!");
+		} finally {
+			executor.shutdown();
+		}
+
+		assertThat(impl.calls).hasValue(1);
+	}
+
+	@Test
+	void exceptionsAreNotCached() throws Exception {
+		assertThatThrownBy(() -> reads.fails("a")).isInstanceOf(RemoteException.class);
+		assertThatThrownBy(() -> reads.fails("a")).isInstanceOf(RemoteException.class);
+		assertThat(impl.calls).hasValue(2);
+		assertThat(cache.stats().size()).isZero();
+	}
+
+	@Test
+	void cacheableTtlIsRespected() throws Exception {
+		reads.briefly("a");
+		reads.briefly("a");
+		assertThat(impl.calls).hasValue(1);
+
+		Thread.sleep(100);
+		reads.briefly("a");
+		assertThat(impl.calls).hasValue(2);
+	}
+
+	@Test
+	void invalidationForgetsResponses() throws Exception {
+		reads.find("a");
+		cache.invalidate(Reads.class);
+		reads.find("a");
+		cache.invalidateAll();
+		reads.find("a");
+		assertThat(impl.calls).hasValue(3);
+	}
+}
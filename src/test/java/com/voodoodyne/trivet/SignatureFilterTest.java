@@ -0,0 +1,193 @@
+package com.voodoodyne.trivet;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InvalidClassException;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SignatureFilterTest {
+
+	public static class Toy implements Serializable {
+		@Serial
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static abstract class Animal implements Serializable {
+		@Serial
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static class Dog extends Animal {
+		@Serial
+		private static final long serialVersionUID = 1L;
+
+		final List<Toy> toys = new ArrayList<>();
+	}
+
+	/** Not mentioned by any signature */
+	public static class Gadget implements Serializable {
+		@Serial
+		private static final long serialVersionUID = 1L;
+	}
+
+	public interface Zoo {
+		int admit(Animal animal);
+		List<Toy> toys();
+	}
+
+	@Remote
+	private static class ZooImpl implements Zoo {
+		@Override
+		public int admit(final Animal animal) {
+			return animal instanceof Dog dog ? dog.toys.size() : 0;
+		}
+
+		@Override
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public List<Toy> toys() {
+			final List toys = new ArrayList<>();
+			toys.add(new Toy());
+			toys.add(new Gadget());
+			return toys;
+		}
+	}
+
+	public interface Bin {
+		void dump(Object anything);
+	}
+
+	@Remote
+	private static class BinImpl implements Bin {
+		@Override
+		public void dump(final Object anything) {}
+	}
+
+	/** Sneaks a Gadget into the dog's toys */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Dog dogWithGadget() {
+		final Dog dog = new Dog();
+		((List)dog.toys).add(new Gadget());
+		return dog;
+	}
+
+	@Test
+	void requestsAreLimitedToParameterTypes() {
+		final SignatureFilter filter = SignatureFilter.forRequests();
+		filter.addRequests(Zoo.class);
+
+		assertThat(filter.isAllowed(Request.class)).isTrue();
+		assertThat(filter.isAllowed(Zoo.class)).isTrue();
+		assertThat(filter.isAllowed(String[].class)).isTrue();
+		assertThat(filter.isAllowed(ArrayList.class)).isTrue();
+		assertThat(filter.isAllowed(Gadget.class)).isFalse();
+
+		// Toy is only reachable through a subclass's field
+		assertThat(filter.isAllowed(Dog.class)).isTrue();
+		assertThat(filter.isAllowed(Toy[].class)).isTrue();
+	}
+
+	@Test
+	void responsesAreLimitedToReturnTypesAndExceptions() {
+		final SignatureFilter filter = SignatureFilter.forResponses(Zoo.class);
+
+		assertThat(filter.isAllowed(Response.class)).isTrue();
+		assertThat(filter.isAllowed(Toy.class)).isTrue();
+		assertThat(filter.isAllowed(IllegalStateException.class)).isTrue();
+		assertThat(filter.isAllowed(Gadget.class)).isFalse();
+		assertThat(filter.isAllowed(Dog.class)).isFalse();
+	}
+
+	@Test
+	@SuppressWarnings("rawtypes")
+	void objectInSignatureAllowsAnything() {
+		interface Anything {
+			void take(List raw);
+		}
+
+		final SignatureFilter filter = SignatureFilter.forRequests();
+		filter.addRequests(Anything.class);
+		assertThat(filter.isAllowed(Gadget.class)).isTrue();
+	}
+
+	@Test
+	void registeredServerRejectsUnexpectedClasses() {
+		final TrivetServer server = new TrivetServer(iface -> new ZooImpl());
+		server.register(Zoo.class);
+		final Zoo zoo = new ClientFactory(new InProcessEndpoint(server)).create(Zoo.class);
+
+		final Dog dog = new Dog();
+		dog.toys.add(new Toy());
+		assertThat(zoo.admit(dog)).isEqualTo(1);
+
+		assertThatThrownBy(() -> zoo.admit(dogWithGadget())).hasStackTraceContaining("REJECTED");
+	}
+
+	@Test
+	void eachInterfaceOnlyGetsItsOwnClasses() {
+		final TrivetServer server = new TrivetServer(iface -> iface == Zoo.class ? new ZooImpl() : new BinImpl());
+		server.register(Zoo.class, Bin.class);
+		final ClientFactory factory = new ClientFactory(new InProcessEndpoint(server));
+
+		// Bin takes anything, which doesn't mean Zoo does
+		factory.create(Bin.class).dump(dogWithGadget());
+		assertThatThrownBy(() -> factory.create(Zoo.class).admit(dogWithGadget()))
+			.hasStackTraceContaining(Gadget.class.getName())
+			.hasStackTraceContaining("Not allowed by");
+
+		final Dog dog = new Dog();
+		dog.toys.add(new Toy());
+		assertThat(factory.create(Zoo.class).admit(dog)).isEqualTo(1);
+	}
+
+	@Test
+	void registeredServerFiltersBinaryCodec() throws Exception {
+		final TrivetServer server = new TrivetServer(iface -> new ZooImpl());
+		server.addCodec(new BinaryCodec());
+		server.register(Zoo.class);
+
+		final ClientFactory factory = new ClientFactory(new InProcessEndpoint(server));
+		factory.setCodec(new BinaryCodec());
+		final Zoo zoo = factory.create(Zoo.class);
+
+		final Dog dog = new Dog();
+		dog.toys.add(new Toy());
+		assertThat(zoo.admit(dog)).isEqualTo(1);
+
+		// Dog isn't a record, so it goes through embedded java serialization
+		assertThatThrownBy(() -> zoo.admit(dogWithGadget())).hasStackTraceContaining("REJECTED");
+
+		// Classes named by the binary format itself
+		final MethodDef admit = new MethodDef(Zoo.class.getMethod("admit", Animal.class));
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		new BinaryCodec().write(new Request(admit, new Object[] { new Gadget[0] }), body);
+
+		final Codec codec = server.codecFor(BinaryCodec.CONTENT_TYPE);
+		assertThatThrownBy(() -> server.execute(codec, new ByteArrayInputStream(body.toByteArray()), new ByteArrayOutputStream()))
+			.isInstanceOf(InvalidClassException.class)
+			.hasMessageContaining("REJECTED");
+	}
+
+	@Test
+	void unregisteredServerAcceptsAnything() {
+		final Zoo zoo = new ClientFactory(new InProcessEndpoint(new TrivetServer(iface -> new ZooImpl()))).create(Zoo.class);
+		assertThat(zoo.admit(dogWithGadget())).isEqualTo(1);
+		assertThat(zoo.toys()).hasSize(2);
+	}
+
+	@Test
+	void clientCanFilterResponses() {
+		final ClientFactory factory = new ClientFactory(new InProcessEndpoint(new TrivetServer(iface -> new ZooImpl())));
+		factory.setFilterResponses(true);
+		final Zoo zoo = factory.create(Zoo.class);
+
+		assertThatThrownBy(zoo::toys).hasStackTraceContaining("REJECTED");
+	}
+}
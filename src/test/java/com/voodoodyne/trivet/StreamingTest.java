@@ -0,0 +1,147 @@
+package com.voodoodyne.trivet;
+
+import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
+import org.eclipse.jetty.ee10.servlet.ServletHolder;
+import org.eclipse.jetty.server.Server;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StreamingTest {
+	private Server server;
+
+	public interface Storage {
+		long upload(String name, InputStream data);
+		InputStream download(int size);
+		InputStream nothing();
+		InputStream fails();
+		List<String> names(List<String> names);
+	}
+
+	@Remote
+	private static class StorageImpl implements Storage {
+		@Override
+		public long upload(final String name, final InputStream data) {
+			try {
+				long count = 0;
+				while (data.read() >= 0)
+					count++;
+
+				return count;
+			} catch (final IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+
+		@Override
+		public InputStream download(final int size) {
+			final byte[] bytes = new byte[size];
+			Arrays.fill(bytes, (byte)'x');
+			return new ByteArrayInputStream(bytes);
+		}
+
+		@Override
+		public InputStream nothing() {
+			return null;
+		}
+
+		@Override
+		public InputStream fails() {
+			throw new IllegalStateException("nope");
+		}
+
+		@Override
+		public List<String> names(final List<String> names) {
+			return names;
+		}
+	}
+
+	@BeforeEach
+	void startServer() throws Exception {
+		server = new Server(7780);
+
+		final ServletContextHandler sch = new ServletContextHandler("/");
+		sch.addServlet(new ServletHolder(new TrivetServlet(iface -> new StorageImpl())), "/storage");
+		server.setHandler(sch);
+
+		server.start();
+	}
+
+	@AfterEach
+	void stopServer() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	void inputStreamParametersAreStreamed() throws Exception {
+		final Storage client = Client.create("http://localhost:7780/storage", Storage.class);
+
+		assertThat(client.upload("big", new ByteArrayInputStream(new byte[1_000_000]))).isEqualTo(1_000_000);
+		assertThat(client.upload("empty", new ByteArrayInputStream(new byte[0]))).isZero();
+	}
+
+	@Test
+	void streamsCanBeCompressed() throws Exception {
+		final JavaHttpEndpoint endpoint = new JavaHttpEndpoint(URI.create("http://localhost:7780/storage"));
+		endpoint.setRequestCompressionThreshold(0);
+		final Storage client = new ClientFactory(endpoint).create(Storage.class);
+
+		assertThat(client.upload("big", new ByteArrayInputStream(new byte[1_000_000]))).isEqualTo(1_000_000);
+		try (final InputStream result = client.download(1_000_000)) {
+			assertThat(result.readAllBytes()).hasSize(1_000_000);
+		}
+	}
+
+	@Test
+	void inputStreamResultsAreStreamed() throws Exception {
+		final Storage client = Client.create("http://localhost:7780/storage", Storage.class);
+
+		try (final InputStream result = client.download(1_000_000)) {
+			assertThat(result.readAllBytes()).hasSize(1_000_000).containsOnly('x');
+		}
+
+		assertThat(client.nothing()).isNull();
+		assertThatThrownBy(client::fails).isInstanceOf(RemoteException.class);
+	}
+
+	@Test
+	void requestsCanBeStreamed() throws Exception {
+		final ClientFactory factory = new ClientFactory("http://localhost:7780/storage");
+		factory.setStreamRequests(true);
+		final Storage client = factory.create(Storage.class);
+
+		final List<String> names = new ArrayList<>(Collections.nCopies(10_000, "name"));
+		assertThat(client.names(List.of("a", "b"))).containsExactly("a", "b");
+		assertThat(client.names(names)).hasSize(10_000);
+	}
+
+	@Test
+	void badFrameLengthsAreRejected() {
+		final Codec codec = new JavaSerializationCodec();
+		for (final int length : new int[] { -1, Streaming.MAX_FRAME + 1 }) {
+			final ByteBuffer frame = ByteBuffer.allocate(4).putInt(length);
+			assertThatThrownBy(() -> Streaming.readRequestFrame(codec, new ByteArrayInputStream(frame.array()), null))
+				.isInstanceOf(StreamCorruptedException.class);
+		}
+
+		final ByteBuffer truncated = ByteBuffer.allocate(7).putInt(1000);
+		assertThatThrownBy(() -> Streaming.readRequestFrame(codec, new ByteArrayInputStream(truncated.array()), null))
+			.isInstanceOf(EOFException.class);
+	}
+}
@@ -0,0 +1,428 @@
+package com.voodoodyne.trivet;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TcpTransportTest {
+
+	public interface Hello {
+		String hi(String name);
+		CompletableFuture<String> slow(String name);
+		CompletableFuture<String> fast(String name);
+		long count(InputStream data);
+		void fail();
+	}
+
+	@Remote
+	private static class HelloImpl implements Hello {
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public String hi(final String name) {
+			return "Hi, " + name;
+		}
+
+		@Override
+		public CompletableFuture<String> slow(final String name) {
+			// Doesn't finish until the test says so
+			return CompletableFuture.supplyAsync(() -> {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (final InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+				return "slow " + name;
+			});
+		}
+
+		@Override
+		public CompletableFuture<String> fast(final String name) {
+			return CompletableFuture.completedFuture("fast " + name);
+		}
+
+		@Override
+		public long count(final InputStream data) {
+			try {
+				return data.transferTo(OutputStream.nullOutputStream());
+			} catch (final IOException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		public void fail() {
+			throw new IllegalStateException("nope");
+		}
+	}
+
+	/**
+	 * Forwards connections to the listener, and can cut them off from the server while the client still
+	 * thinks they are open, as happens when a server restarts or a network path dies.
+	 */
+	private static class Proxy implements AutoCloseable {
+		private final ServerSocket serverSocket = new ServerSocket(0);
+		private final List<Socket[]> pairs = new CopyOnWriteArrayList<>();
+
+		Proxy(final int target) throws IOException {
+			final Thread acceptor = new Thread(() -> {
+				try {
+					while (true) {
+						final Socket client = serverSocket.accept();
+						final Socket server = new Socket("localhost", target);
+						pairs.add(new Socket[] { client, server });
+						pump(client, server);
+						pump(server, client);
+					}
+				} catch (final IOException ex) {
+					// Closed
+				}
+			});
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+
+		int port() {
+			return serverSocket.getLocalPort();
+		}
+
+		/** The server sees every connection close, but the client only sees the first one close */
+		void cut() throws IOException {
+			for (int i = 0; i < pairs.size(); i++) {
+				pairs.get(i)[1].close();
+				if (i == 0)
+					pairs.get(i)[0].close();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			serverSocket.close();
+			for (final Socket[] pair : pairs) {
+				pair[0].close();
+				pair[1].close();
+			}
+		}
+
+		private static void pump(final Socket from, final Socket to) {
+			final Thread thread = new Thread(() -> {
+				try {
+					from.getInputStream().transferTo(to.getOutputStream());
+					// A clean close is passed on; cut() closes the sockets under us, which isn't
+					to.shutdownOutput();
+				} catch (final IOException ex) {
+					// One side closed
+				}
+			});
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private final HelloImpl impl = new HelloImpl();
+	private TcpListener listener;
+	private TcpEndpoint endpoint;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		final TrivetServer server = new TrivetServer(iface -> impl);
+		server.addCodec(new BinaryCodec());
+		listener = new TcpListener(server, 0);
+		endpoint = new TcpEndpoint(new InetSocketAddress("localhost", listener.port()));
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		endpoint.close();
+		listener.close();
+	}
+
+	@Test
+	void callsWork() {
+		final Hello hello = new ClientFactory(endpoint).create(Hello.class);
+		assertThat(hello.hi("bob")).isEqualTo("Hi, bob");
+		assertThatThrownBy(hello::fail).isInstanceOf(RemoteException.class).cause().isInstanceOf(IllegalStateException.class);
+	}
+
+	@Test
+	void binaryCodecWorks() {
+		final ClientFactory factory = new ClientFactory(endpoint);
+		factory.setCodec(new BinaryCodec());
+		assertThat(factory.create(Hello.class).hi("bob")).isEqualTo("Hi, bob");
+	}
+
+	@Test
+	void streamingRequestsWork() {
+		final Hello hello = new ClientFactory(endpoint).create(Hello.class);
+		assertThat(hello.count(new ByteArrayInputStream(new byte[100_000]))).isEqualTo(100_000);
+	}
+
+	@Test
+	void responsesCanArriveOutOfOrder() throws Exception {
+		final Hello hello = new ClientFactory(endpoint).create(Hello.class);
+
+		final CompletableFuture<String> slow = hello.slow("bob");
+		final CompletableFuture<String> fast = hello.fast("fred");
+
+		assertThat(fast.get(5, TimeUnit.SECONDS)).isEqualTo("fast fred");
+		assertThat(slow.isDone()).isFalse();
+
+		impl.release.countDown();
+		assertThat(slow.get(5, TimeUnit.SECONDS)).isEqualTo("slow bob");
+	}
+
+	@Test
+	void connectionsStopReadingAtTheInFlightLimit() throws Exception {
+		listener.close();
+		listener = new TcpListener(new TrivetServer(iface -> impl), new InetSocketAddress(0), 1);
+		endpoint.close();
+		endpoint = new TcpEndpoint(new InetSocketAddress("localhost", listener.port()));
+		final Hello hello = new ClientFactory(endpoint).create(Hello.class);
+
+		final CompletableFuture<String> slow = hello.slow("bob");
+		final CompletableFuture<String> fast = hello.fast("fred");
+
+		// The second call waits behind the first instead of overtaking it
+		Thread.sleep(200);
+		assertThat(fast.isDone()).isFalse();
+
+		impl.release.countDown();
+		assertThat(slow.get(5, TimeUnit.SECONDS)).isEqualTo("slow bob");
+		assertThat(fast.get(5, TimeUnit.SECONDS)).isEqualTo("fast fred");
+	}
+
+	@Test
+	void oversizedRequestsFailWithoutSending() {
+		final byte[] huge = new byte[FrameChannel.MAX_PAYLOAD + 1];
+		assertThatThrownBy(() -> endpoint.post(Client.APPLICATION_JAVA_SERIALIZED_OBJECT, huge, Hello.class))
+			.isInstanceOf(IOException.class)
+			.hasMessageContaining("bigger than");
+	}
+
+	@Test
+	void concurrentCallsShareOneConnection() throws Exception {
+		final Hello hello = new ClientFactory(endpoint).create(Hello.class);
+
+		final List<CompletableFuture<String>> results = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			final String name = "name" + i;
+			results.add(CompletableFuture.supplyAsync(() -> hello.hi(name)));
+		}
+
+		for (int i = 0; i < results.size(); i++)
+			assertThat(results.get(i).get(5, TimeUnit.SECONDS)).isEqualTo("Hi, name" + i);
+
+		assertThat(listener.acceptedConnections()).isEqualTo(1);
+	}
+
+	@Test
+	void reconnectsAfterTheServerDropsTheConnection() throws IOException {
+		final Hello hello = new ClientFactory(endpoint).create(Hello.class);
+		assertThat(hello.hi("bob")).isEqualTo("Hi, bob");
+
+		final int port = listener.port();
+		listener.close();
+		assertThatThrownBy(() -> hello.hi("bob")).hasCauseInstanceOf(IOException.class);
+
+		listener = new TcpListener(new TrivetServer(iface -> impl), port);
+		assertThat(hello.hi("fred")).isEqualTo("Hi, fred");
+	}
+
+	@Test
+	@SuppressWarnings("try")
+	void deadlinesBoundWaitingForAConnection() throws Exception {
+		// Accepts connections (in the backlog) but never answers the handshake
+		try (final ServerSocket silent = new ServerSocket(0)) {
+			endpoint.close();
+			endpoint = new TcpEndpoint(new InetSocketAddress("localhost", silent.getLocalPort()));
+			final ClientFactory factory = new ClientFactory(endpoint);
+			factory.setCodec(endpoint.sessionCodec());
+			final Hello hello = factory.create(Hello.class);
+
+			// The second call finds the first one's connection still opening, and waits for it
+			for (int i = 0; i < 2; i++) {
+				final long start = System.nanoTime();
+				try (final Deadline.Scope ignored = Deadline.within(Duration.ofMillis(500))) {
+					assertThatThrownBy(() -> hello.hi("bob")).hasRootCauseInstanceOf(SocketTimeoutException.class);
+				}
+				assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(5));
+			}
+		}
+	}
+
+	@Test
+	void connectingTimesOutWithoutADeadline() throws Exception {
+		try (final ServerSocket silent = new ServerSocket(0)) {
+			endpoint.close();
+			endpoint = new TcpEndpoint(new InetSocketAddress("localhost", silent.getLocalPort()));
+			endpoint.setConnectTimeout(Duration.ofMillis(200));
+			final ClientFactory factory = new ClientFactory(endpoint);
+			factory.setCodec(endpoint.sessionCodec());
+
+			assertThatThrownBy(() -> factory.create(Hello.class).hi("bob")).hasRootCauseInstanceOf(SocketTimeoutException.class);
+		}
+	}
+
+	@Test
+	void unsupportedContentTypeFails() {
+		assertThatThrownBy(() -> endpoint.post("text/plain", new byte[0], Hello.class))
+			.isInstanceOf(IOException.class)
+			.hasMessageContaining("Unsupported Content-Type");
+	}
+
+	@Test
+	void sessionCodecWorks() {
+		final ClientFactory factory = new ClientFactory(endpoint);
+		factory.setCodec(endpoint.sessionCodec());
+		final Hello hello = factory.create(Hello.class);
+
+		for (int i = 0; i < 3; i++) {
+			assertThat(hello.hi("bob" + i)).isEqualTo("Hi, bob" + i);
+			assertThatThrownBy(hello::fail).isInstanceOf(RemoteException.class).cause().isInstanceOf(IllegalStateException.class);
+			assertThat(hello.count(new ByteArrayInputStream(new byte[1000]))).isEqualTo(1000);
+		}
+
+		assertThat(listener.sessions()).isEqualTo(1);
+	}
+
+	@Test
+	void sessionCodecSendsClassDescriptorsOnce() throws Exception {
+		final List<Integer> sizes = new ArrayList<>();
+		final Endpoint measuring = new Endpoint() {
+			@Override
+			public InputStream post(final String contentType, final byte[] body, final Class<?> iface) throws IOException {
+				sizes.add(body.length);
+				return endpoint.post(contentType, body, iface);
+			}
+		};
+
+		final ClientFactory factory = new ClientFactory(measuring);
+		factory.setCodec(endpoint.sessionCodec());
+		final Hello hello = factory.create(Hello.class);
+
+		for (int i = 0; i < 3; i++)
+			assertThat(hello.hi("bob")).isEqualTo("Hi, bob");
+
+		// The first response acknowledges the descriptors in the first request
+		assertThat(sizes.get(1)).isLessThan(sizes.get(0) / 2);
+		assertThat(sizes.get(2)).isLessThanOrEqualTo(sizes.get(1));
+	}
+
+	@Test
+	void sessionCodecHandlesConcurrentCalls() throws Exception {
+		final ClientFactory factory = new ClientFactory(new TcpEndpoint(new InetSocketAddress("localhost", listener.port()), 3));
+		final TcpEndpoint pooled = (TcpEndpoint)factory.endpoint();
+		factory.setCodec(pooled.sessionCodec());
+		final Hello hello = factory.create(Hello.class);
+
+		try (pooled) {
+			final List<CompletableFuture<String>> results = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				final String name = "name" + i;
+				results.add(CompletableFuture.supplyAsync(() -> hello.hi(name)));
+			}
+
+			for (int i = 0; i < results.size(); i++)
+				assertThat(results.get(i).get(5, TimeUnit.SECONDS)).isEqualTo("Hi, name" + i);
+		}
+	}
+
+	@Test
+	void sessionCodecLimitsDescriptors() throws Exception {
+		final ByteArrayOutputStream message = new ByteArrayOutputStream();
+		new SessionCodec(42).write(new ArrayList<>(), message);
+		final byte[] bytes = message.toByteArray();
+
+		// Repeating a definition doesn't repeat its acknowledgement
+		final SessionCodec server = new SessionCodec(42);
+		server.readRequest(new ByteArrayInputStream(bytes), null);
+		server.readRequest(new ByteArrayInputStream(bytes), null);
+		assertThat(ackCount(server)).isEqualTo(1);
+		assertThat(ackCount(server)).isZero();
+
+		// After the session id, ack count, stream header, TC_OBJECT and TC_CLASSDESC
+		final int definition = 8 + 2 + 4 + 2;
+		assertThat(bytes[definition]).isZero();
+		bytes[definition + 1] = 0x7f;	// a descriptor id far ahead of anything received
+
+		assertThatThrownBy(() -> new SessionCodec(42).readRequest(new ByteArrayInputStream(bytes), null))
+			.isInstanceOf(StreamCorruptedException.class)
+			.hasMessageContaining("out of sequence");
+	}
+
+	/** @return the number of acknowledgements the codec puts in its next message */
+	private static int ackCount(final SessionCodec codec) throws IOException {
+		final ByteArrayOutputStream message = new ByteArrayOutputStream();
+		codec.write(null, message);
+		return new DataInputStream(new ByteArrayInputStream(message.toByteArray(), 8, 2)).readUnsignedShort();
+	}
+
+	@Test
+	void sessionStartsOverAfterReconnecting() throws IOException {
+		final ClientFactory factory = new ClientFactory(endpoint);
+		factory.setCodec(endpoint.sessionCodec());
+		final Hello hello = factory.create(Hello.class);
+		assertThat(hello.hi("bob")).isEqualTo("Hi, bob");
+		assertThat(hello.hi("bob")).isEqualTo("Hi, bob");
+
+		final int port = listener.port();
+		listener.close();
+		assertThatThrownBy(() -> hello.hi("bob")).hasCauseInstanceOf(IOException.class);
+
+		listener = new TcpListener(new TrivetServer(iface -> impl), port);
+		assertThat(hello.hi("fred")).isEqualTo("Hi, fred");
+		assertThat(hello.hi("fred")).isEqualTo("Hi, fred");
+	}
+
+	@Test
+	void sessionStartsOverWhenTheServerForgetsIt() throws Exception {
+		try (final Proxy proxy = new Proxy(listener.port());
+			 final TcpEndpoint pooled = new TcpEndpoint(new InetSocketAddress("localhost", proxy.port()), 2)) {
+			final ClientFactory factory = new ClientFactory(pooled);
+			factory.setCodec(pooled.sessionCodec());
+			final Hello hello = factory.create(Hello.class);
+
+			// Both connections are open, and descriptors are being sent by number
+			for (int i = 0; i < 4; i++)
+				assertThat(hello.hi("bob")).isEqualTo("Hi, bob");
+
+			proxy.cut();
+			for (int i = 0; i < 100 && listener.sessions() > 0; i++)
+				Thread.sleep(10);
+			assertThat(listener.sessions()).isZero();
+			// Give the client time to notice its first connection closing
+			Thread.sleep(100);
+
+			// The first call reconnects and learns the session is gone; the second finds its connection retired
+			for (int i = 0; i < 4; i++)
+				assertThat(hello.hi("fred")).isEqualTo("Hi, fred");
+
+			// The connection which found the old session gone closes in the background
+			for (int i = 0; i < 100 && listener.sessions() > 1; i++)
+				Thread.sleep(10);
+			assertThat(listener.sessions()).isEqualTo(1);
+		}
+	}
+}
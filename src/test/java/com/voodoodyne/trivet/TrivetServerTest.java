@@ -0,0 +1,152 @@
+package com.voodoodyne.trivet;
+
+import com.voodoodyne.trivet.FullIntegrationTest.Hello;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TrivetServerTest {
+
+	@Remote
+	private static class HelloImpl implements Hello {
+		@Override
+		public String hi(final String name) {
+			return "Hi, " + name;
+		}
+
+		@Override
+		public Optional<String> hiMaybe(final Optional<String> name) {
+			return name.map(this::hi);
+		}
+
+		@Override
+		public void throwup() {
+			throw new NullPointerException("Hey this is annoying");
+		}
+
+		@Override
+		public Optional<String> badReturnsNull() {
+			return null;
+		}
+	}
+
+	/** Only allows some other interface */
+	@Remote(Runnable.class)
+	private static class ForbiddenHelloImpl extends HelloImpl {
+	}
+
+	/** Round-trip a request through the server entirely in memory. Compact requests must already be stripped. */
+	static Response execute(final TrivetServer server, final Request request) throws Exception {
+		final ByteArrayOutputStream requestBytes = new ByteArrayOutputStream();
+		try (final ObjectOutputStream out = new ObjectOutputStream(requestBytes)) {
+			out.writeObject(request.isCompact() ? request : OptionalHack.strip(request));
+		}
+
+		final ByteArrayOutputStream responseBytes = new ByteArrayOutputStream();
+		server.execute(new ByteArrayInputStream(requestBytes.toByteArray()), responseBytes);
+
+		try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(responseBytes.toByteArray()))) {
+			return (Response)in.readObject();
+		}
+	}
+
+	static Request request(final String methodName, final Class<?>[] parameterTypes, final Object... args) throws NoSuchMethodException {
+		return new Request(new MethodDef(Hello.class.getMethod(methodName, parameterTypes)), args);
+	}
+
+	@Test
+	void plansAreResolvedOnce() throws Exception {
+		final TrivetServer server = new TrivetServer(iface -> new HelloImpl());
+
+		final Response first = execute(server, request("hi", new Class<?>[]{String.class}, "Bob"));
+		assertThat(first.result()).isEqualTo("Hi, Bob");
+		assertThat(server.planCacheMisses()).isEqualTo(1);
+
+		final Response second = execute(server, request("hi", new Class<?>[]{String.class}, "Alice"));
+		assertThat(second.result()).isEqualTo("Hi, Alice");
+		assertThat(server.planCacheMisses()).isEqualTo(1);
+		assertThat(server.planCacheHits()).isEqualTo(1);
+	}
+
+	@Test
+	void classesAreRefusedBeforeTheirMethodsAreResolved() throws Exception {
+		final TrivetServer server = new TrivetServer(iface -> new HelloImpl());
+
+		final Response response = execute(server, new Request(new MethodDef(String.class.getMethod("length")), new Object[0]));
+		assertThat(response.throwable()).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("not an interface");
+		assertThat(server.planCacheMisses()).isZero();
+	}
+
+	@Test
+	void cachedPlansHandleOptionals() throws Exception {
+		final TrivetServer server = new TrivetServer(iface -> new HelloImpl());
+
+		for (int i = 0; i < 2; i++) {
+			final Response yes = execute(server, request("hiMaybe", new Class<?>[]{Optional.class}, Optional.of("Bob")));
+			assertThat(yes.result()).isEqualTo("Hi, Bob");
+
+			final Response no = execute(server, request("hiMaybe", new Class<?>[]{Optional.class}, Optional.empty()));
+			assertThat(no.result()).isNull();
+		}
+
+		assertThat(server.planCacheMisses()).isEqualTo(1);
+	}
+
+	@Test
+	void deniedServicesStayDenied() throws Exception {
+		final TrivetServer server = new TrivetServer(iface -> new ForbiddenHelloImpl());
+
+		for (int i = 0; i < 2; i++) {
+			final Response response = execute(server, request("hi", new Class<?>[]{String.class}, "Bob"));
+			assertThat(response.isThrown()).isTrue();
+			assertThat(response.throwable()).isInstanceOf(IllegalArgumentException.class);
+		}
+	}
+
+	@Test
+	void compactRequestsRequireKnownMethods() throws Exception {
+		final TrivetServer server = new TrivetServer(iface -> new HelloImpl());
+		final Request full = request("hi", new Class<?>[]{String.class}, "Bob");
+		final Request compact = Request.compact(full.method().id(), full.args());
+
+		final Response unknown = execute(server, compact);
+		assertThat(unknown.throwable()).isInstanceOf(UnknownMethodException.class);
+
+		execute(server, full);
+
+		final Response known = execute(server, compact);
+		assertThat(known.result()).isEqualTo("Hi, Bob");
+	}
+
+	@Test
+	void registeredInterfacesUnderstandCompactRequests() throws Exception {
+		final TrivetServer server = new TrivetServer(iface -> new HelloImpl());
+		server.register(Hello.class);
+
+		final Request full = OptionalHack.strip(request("hiMaybe", new Class<?>[]{Optional.class}, Optional.of("Bob")));
+		final Response response = execute(server, Request.compact(full.method().id(), full.args()));
+		assertThat(response.result()).isEqualTo("Hi, Bob");
+	}
+
+	@Test
+	void compactRequestsAreSmaller() throws Exception {
+		final Request full = request("hi", new Class<?>[]{String.class}, "Bob");
+		final Request compact = Request.compact(full.method().id(), full.args());
+
+		assertThat(serializedSize(compact)).isLessThan(serializedSize(full));
+	}
+
+	private static int serializedSize(final Object object) throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(object);
+		}
+		return bytes.size();
+	}
+}